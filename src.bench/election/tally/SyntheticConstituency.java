@@ -0,0 +1,153 @@
+package election.tally;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * A constituency of synthetic candidates and ballot papers, generated once
+ * for each combination of parameters and shared by every benchmark.
+ *
+ * @design Candidate <code>c</code> is chosen as the next preference in
+ *         proportion to <code>1/(c+1)^2</code>, so that the leading
+ *         candidates reach the quota and have surpluses to distribute, while
+ *         the rest are excluded one by one. The same seed is used every
+ *         time, so that runs on different versions of the engine count the
+ *         same papers.
+ */
+@State(Scope.Benchmark)
+public class SyntheticConstituency {
+
+  /** Seed for generating ballot papers */
+  protected static final long SEED = 20111103L;
+
+  /** Number of seats */
+  @Param({ "3", "4", "5" })
+  public int seats;
+
+  /** Number of candidates */
+  @Param({ "5", "12", "50" })
+  public int candidates;
+
+  /** Number of ballot papers */
+  @Param({ "10000", "100000", "1000000" })
+  public int ballots;
+
+  /** Most preferences on one ballot paper */
+  @Param({ "1", "3", "10" })
+  public int depth;
+
+  /** Candidate identifiers */
+  protected /*@ non_null @*/ int[] candidateIDs;
+
+  /** Preferences of each ballot paper in ballot box order */
+  protected /*@ non_null @*/ int[][] papers;
+
+  /** The ballot papers, loaded once to be shared by each count */
+  protected /*@ non_null @*/ BallotStore loadedBallots;
+
+  @Setup(Level.Trial)
+  public void generate() {
+    final Constituency constituency = new Constituency();
+    constituency.setNumberOfCandidates(candidates);
+    candidateIDs = new int[candidates];
+    final double[] cumulative = new double[candidates];
+    double total = 0;
+    for (int c = 0; c < candidates; c++) {
+      candidateIDs[c] = constituency.getCandidate(c).getCandidateID();
+      total += 1.0 / ((c + 1) * (c + 1));
+      cumulative[c] = total;
+    }
+
+    final Random random = new Random(SEED);
+    final int maxLength = Math.min(depth, candidates);
+    final boolean[] chosen = new boolean[candidates];
+    papers = new int[ballots][];
+    loadedBallots = new BallotStore(ballots, false);
+    for (int b = 0; b < ballots; b++) {
+      final int length = 1 + random.nextInt(maxLength);
+      final int[] paper = new int[length];
+      for (int p = 0; p < length; p++) {
+        int c;
+        do {
+          c = pick(cumulative, random.nextDouble() * total);
+        } while (chosen[c]);
+        chosen[c] = true;
+        paper[p] = candidateIDs[c];
+      }
+      for (int p = 0; p < length; p++) {
+        chosen[indexOf(paper[p])] = false;
+      }
+      papers[b] = paper;
+      loadedBallots.add(paper);
+    }
+    loadedBallots.close();
+  }
+
+  /**
+   * Set up a count of this constituency, ready to load ballots.
+   *
+   * @return The count
+   */
+  public /*@ non_null @*/ BallotCounting newCounting() {
+    final Constituency constituency = new Constituency();
+    constituency.setNumberOfSeats(seats, seats);
+    constituency.load(candidateIDs);
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(constituency);
+    return ballotCounting;
+  }
+
+  /**
+   * Find the candidate at a point of the cumulative weights.
+   */
+  private static int pick(final double[] cumulative, final double point) {
+    int low = 0;
+    int high = cumulative.length - 1;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (cumulative[middle] <= point) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int indexOf(final int candidateID) {
+    for (int c = 0; c < candidateIDs.length; c++) {
+      if (candidateIDs[c] == candidateID) {
+        return c;
+      }
+    }
+    return AbstractBallotCounting.NONE_FOUND_YET;
+  }
+}
@@ -0,0 +1,141 @@
+package election.tally;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Throughput of each stage of the count of a {@link SyntheticConstituency}.
+ *
+ * <p> Build with <code>mvn -P benchmark package</code>, and run with
+ * <code>java -jar target/benchmarks.jar -prof gc</code> to report the
+ * allocation rate as well; <code>-p candidates=12 -p ballots=100000</code>
+ * narrows the constituencies counted.
+ *
+ * @design Each benchmark of a single stage starts from a fresh count, set up
+ *         outside the measured time, which shares the generated ballot
+ *         store as {@link GeneralElection} does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TallyBenchmark {
+
+  /**
+   * A count of the synthetic constituency with its first preferences
+   * allocated, made afresh for each invocation.
+   */
+  @State(Scope.Thread)
+  public static class LoadedCount {
+
+    protected /*@ non_null @*/ BallotCounting ballotCounting;
+
+    /** Continuing candidate with the most votes */
+    protected int highest;
+
+    /** Continuing candidate with the fewest votes */
+    protected int lowest;
+
+    @Setup(Level.Invocation)
+    public void load(final SyntheticConstituency constituency) {
+      ballotCounting = constituency.newCounting();
+      ballotCounting.load(constituency.loadedBallots);
+      highest = ballotCounting.findHighestCandidate();
+      lowest = ballotCounting.findLowestCandidate();
+    }
+  }
+
+  /**
+   * Load every ballot paper, one at a time, onto the pile of its first
+   * preference.
+   */
+  @Benchmark
+  public BallotCounting load(final SyntheticConstituency constituency) {
+    final BallotCounting ballotCounting = constituency.newCounting();
+    ballotCounting.load(Arrays.asList(constituency.papers).iterator(), false);
+    return ballotCounting;
+  }
+
+  /**
+   * Allocate first preferences from a loaded ballot store, which includes
+   * putting each ballot onto the pile of its first preference.
+   */
+  @Benchmark
+  public BallotCounting allocateFirstPreferences(
+      final SyntheticConstituency constituency) {
+    final BallotCounting ballotCounting = constituency.newCounting();
+    ballotCounting.load(constituency.loadedBallots);
+    return ballotCounting;
+  }
+
+  /**
+   * Elect the leading candidate and distribute their surplus, if any.
+   */
+  @Benchmark
+  public BallotCounting distributeSurplus(final LoadedCount count) {
+    final BallotCounting ballotCounting = count.ballotCounting;
+    ballotCounting.startCounting();
+    ballotCounting.incrementCountNumber();
+    ballotCounting.electCandidate(count.highest);
+    ballotCounting.updateCountStatus(AbstractCountStatus.SURPLUS_AVAILABLE);
+    ballotCounting.distributeSurplus(count.highest);
+    return ballotCounting;
+  }
+
+  /**
+   * Exclude the lowest candidate and redistribute their ballots.
+   */
+  @Benchmark
+  public BallotCounting eliminateCandidate(final LoadedCount count) {
+    final BallotCounting ballotCounting = count.ballotCounting;
+    ballotCounting.startCounting();
+    ballotCounting.incrementCountNumber();
+    ballotCounting.eliminateCandidate(count.lowest);
+    return ballotCounting;
+  }
+
+  /**
+   * Count a loaded ballot store from the first round to the end.
+   */
+  @Benchmark
+  public BallotCounting count(final LoadedCount count) {
+    final BallotCounting ballotCounting = count.ballotCounting;
+    ballotCounting.count();
+    return ballotCounting;
+  }
+}
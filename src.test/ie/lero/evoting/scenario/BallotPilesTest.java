@@ -0,0 +1,62 @@
+package ie.lero.evoting.scenario;
+
+import election.tally.AbstractCountStatus;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+
+/**
+ * The pile of ballots held by each candidate is kept up to date as a surplus
+ * is distributed and as candidates are excluded.
+ */
+public class BallotPilesTest extends PileTestCase {
+
+  private static final int NUM_CANDIDATES = 5;
+
+  public void testTransfers() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(2, 2);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    final int[] ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    final BallotBox ballotBox = newBallotBox(new int[][] {
+        { ids[0], ids[1], ids[2] }, { ids[0], ids[3] }, { ids[0] },
+        { ids[1] }, { ids[2], ids[4] }, { ids[3], ids[2] },
+        { ids[4], ids[1] } }, new int[] { 20, 6, 4, 9, 7, 5, 3 });
+    final int numberOfBallots = ballotBox.size();
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    ballotCounting.load(ballotBox);
+
+    ballotCounting.startCounting();
+    assertPiles(ballotCounting, ids, new int[] { 30, 9, 7, 5, 3 }, 0,
+        numberOfBallots);
+
+    final int winner = ballotCounting.findHighestCandidate();
+    assertEquals(0, winner);
+    ballotCounting.electCandidate(winner);
+    ballotCounting.countStatus
+        .changeState(AbstractCountStatus.SURPLUS_AVAILABLE);
+    ballotCounting.distributeSurplus(winner);
+    ballotCounting.incrementCountNumber();
+    assertPiles(ballotCounting, ids, new int[] { 21, 17, 7, 6, 3 }, 0,
+        numberOfBallots);
+
+    final int lowest = ballotCounting.findLowestCandidate();
+    assertEquals(4, lowest);
+    ballotCounting.eliminateCandidate(lowest);
+    ballotCounting.incrementCountNumber();
+    assertPiles(ballotCounting, ids, new int[] { 21, 20, 7, 6, 0 }, 0,
+        numberOfBallots);
+
+    // One of these papers has no further preference
+    final int nextLowest = ballotCounting.findLowestCandidate();
+    assertEquals(3, nextLowest);
+    ballotCounting.eliminateCandidate(nextLowest);
+    ballotCounting.incrementCountNumber();
+    assertPiles(ballotCounting, ids, new int[] { 21, 20, 12, 0, 0 }, 1,
+        numberOfBallots);
+  }
+}
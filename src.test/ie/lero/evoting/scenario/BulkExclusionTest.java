@@ -0,0 +1,73 @@
+package ie.lero.evoting.scenario;
+
+import junit.framework.TestCase;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.CandidateStatus;
+import election.tally.Constituency;
+
+/**
+ * The lowest candidates are excluded together when their combined votes are
+ * fewer than those of the next lowest candidate.
+ */
+public class BulkExclusionTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 5;
+
+  private Constituency election;
+  private BallotCounting ballotCounting;
+  private int[] ids;
+
+  protected void setUp() {
+    election = new Constituency();
+    election.setNumberOfSeats(1, 1);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+
+    ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    final BallotBox ballotBox = new BallotBox();
+    addBallots(ballotBox, 40, new int[] { ids[0] });
+    addBallots(ballotBox, 35, new int[] { ids[1] });
+    addBallots(ballotBox, 3, new int[] { ids[2], ids[1] });
+    addBallots(ballotBox, 2, new int[] { ids[3], ids[0] });
+    addBallots(ballotBox, 1, new int[] { ids[4], ids[2], ids[1] });
+    ballotCounting.load(ballotBox);
+  }
+
+  public void testFindLowestCandidates() {
+    ballotCounting.startCounting();
+    final int[] losers = ballotCounting.findLowestCandidates();
+    assertEquals(3, losers.length);
+    assertEquals(4, losers[0]);
+    assertEquals(3, losers[1]);
+    assertEquals(2, losers[2]);
+
+    ballotCounting.eliminateCandidates(losers);
+    // The one ballot from the last candidate moves straight past the third
+    assertEquals(39, ballotCounting.countBallotsFor(ids[1]));
+    assertEquals(42, ballotCounting.countBallotsFor(ids[0]));
+  }
+
+  public void testBulkExclusion() {
+    ballotCounting.setBulkExclusion(true);
+    ballotCounting.count();
+
+    assertEquals(CandidateStatus.ELECTED, election.getCandidate(0).getStatus());
+    for (int i = 2; i < NUM_CANDIDATES; i++) {
+      assertEquals(CandidateStatus.ELIMINATED, election.getCandidate(i)
+          .getStatus());
+      assertEquals(0, ballotCounting.countBallotsFor(ids[i]));
+    }
+  }
+
+  private void addBallots(final BallotBox ballotBox, final int number,
+      final int[] preferences) {
+    for (int b = 0; b < number; b++) {
+      ballotBox.accept(preferences);
+    }
+  }
+}
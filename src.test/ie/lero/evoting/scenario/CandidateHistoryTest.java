@@ -0,0 +1,37 @@
+package ie.lero.evoting.scenario;
+
+import junit.framework.TestCase;
+import election.tally.Candidate;
+
+/**
+ * The history of votes for each candidate grows with the number of counts.
+ */
+public class CandidateHistoryTest extends TestCase {
+
+  public void testManyCounts() {
+    final Candidate candidate = new Candidate(1);
+    candidate.addVote(10, 0);
+    candidate.addVote(5, 75);
+    candidate.addVote(2, 75);
+    candidate.addVote(1, 200);
+
+    assertEquals(18, candidate.getTotalVote());
+    assertEquals(18, candidate.getTotalAtEndOfCount(200));
+    assertEquals(17, candidate.getTotalAtEndOfCount(199));
+    assertEquals(17, candidate.getTotalAtEndOfCount(75));
+    assertEquals(10, candidate.getTotalAtEndOfCount(74));
+    assertEquals(10, candidate.getTotalAtEndOfCount(0));
+  }
+
+  public void testLastCountOfChange() {
+    final Candidate candidate = new Candidate(1);
+    assertEquals(-1, candidate.getLastCountOfChange(10));
+    candidate.addVote(3, 2);
+    candidate.addVote(4, 9);
+
+    assertEquals(-1, candidate.getLastCountOfChange(1));
+    assertEquals(2, candidate.getLastCountOfChange(2));
+    assertEquals(2, candidate.getLastCountOfChange(8));
+    assertEquals(9, candidate.getLastCountOfChange(60));
+  }
+}
@@ -0,0 +1,47 @@
+package ie.lero.evoting.scenario;
+
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.CandidateStatus;
+import election.tally.Constituency;
+
+/**
+ * Candidates whose IDs are neither small, consecutive nor in order are
+ * counted as if they were numbered from one, whether their IDs are close
+ * enough together to be indexed by a table or not.
+ */
+public class CandidateIdentifiersTest extends PileTestCase {
+
+  public void testNearbyIdentifiers() {
+    checkCount(new int[] { 907, 12, 455, 3, 78 });
+  }
+
+  public void testDistantIdentifiers() {
+    checkCount(new int[] { 1000003, 12, 455000, 3, 78 });
+  }
+
+  private void checkCount(final int[] ids) {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(2, 2);
+    election.load(ids);
+    final BallotBox ballotBox = newBallotBox(new int[][] {
+        { ids[3], ids[0], ids[1] }, { ids[0], ids[2] }, { ids[2], ids[4] },
+        { ids[4], ids[1] }, { ids[1] }, { ids[2], ids[3] } }, new int[] { 22,
+        5, 8, 4, 9, 6 });
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    ballotCounting.load(ballotBox);
+    ballotCounting.count();
+
+    assertPiles(ballotCounting, ids, new int[] { 0, 0, 19, 18, 0 }, 17,
+        ballotBox.size());
+    final byte[] expectedStatus = { CandidateStatus.ELIMINATED,
+        CandidateStatus.ELIMINATED, CandidateStatus.ELECTED,
+        CandidateStatus.ELECTED, CandidateStatus.ELIMINATED };
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(ids[i], ballotCounting.getCandidate(i).getCandidateID());
+      assertEquals("Candidate " + ids[i], expectedStatus[i],
+          ballotCounting.getCandidate(i).getStatus());
+    }
+  }
+}
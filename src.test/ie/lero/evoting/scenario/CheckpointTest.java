@@ -0,0 +1,129 @@
+package ie.lero.evoting.scenario;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Checkpointer;
+import election.tally.Constituency;
+
+/**
+ * A count resumed from the checkpoint of any round finishes with the same
+ * result as a count which was not interrupted.
+ */
+public class CheckpointTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 6;
+  private static final int NUM_SEATS = 2;
+
+  /** Number of ballots of each kind, so that more than one round is needed */
+  private static final int[] NUMBER_OF_EACH_KIND = { 60, 45, 40, 30, 15, 10 };
+
+  private int[] ids;
+  private int[][] kinds;
+
+  /** Checkpoints kept in memory, in order */
+  private final List<byte[]> checkpoints = new ArrayList<byte[]>();
+
+  protected void setUp() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    kinds = new int[][] { { ids[0], ids[1] }, { ids[1], ids[2] },
+        { ids[2], ids[0] }, { ids[3], ids[2] }, { ids[4], ids[3] },
+        { ids[5], ids[4] } };
+  }
+
+  public void testResumeFromEachRound() throws IOException {
+    final BallotCounting uninterrupted = newCounting(true);
+    uninterrupted.setCheckpointer(new Checkpointer() {
+      private ByteArrayOutputStream bytes;
+
+      public DataOutput startCheckpoint(final int countNumber) {
+        bytes = new ByteArrayOutputStream();
+        return new DataOutputStream(bytes);
+      }
+
+      public void finishCheckpoint(final int countNumber) {
+        assertEquals(checkpoints.size(), countNumber);
+        checkpoints.add(bytes.toByteArray());
+      }
+    });
+    uninterrupted.count();
+    assertTrue(1 < checkpoints.size());
+
+    for (int i = 0; i < checkpoints.size(); i++) {
+      final BallotCounting resumed = newCounting(true);
+      resumed.resume(new DataInputStream(new ByteArrayInputStream(
+          checkpoints.get(i))));
+      assertEquals(uninterrupted.getResults(), resumed.getResults());
+      for (int c = 0; c < NUM_CANDIDATES; c++) {
+        assertEquals(uninterrupted.getCandidate(c).getStatus(),
+            resumed.getCandidate(c).getStatus());
+        assertEquals(uninterrupted.countBallotsFor(ids[c]),
+            resumed.countBallotsFor(ids[c]));
+      }
+    }
+  }
+
+  public void testOtherBallots() {
+    final BallotCounting ballotCounting = newCounting(false);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      ballotCounting.writeCheckpoint(new DataOutputStream(bytes));
+    }
+    catch (IOException e) {
+      fail(e.toString());
+    }
+
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.load(ids);
+    final BallotCounting other = new BallotCounting();
+    other.setup(election);
+    final BallotBox ballotBox = new BallotBox();
+    ballotBox.accept(kinds[0]);
+    other.load(ballotBox);
+    try {
+      other.resume(new DataInputStream(new ByteArrayInputStream(bytes
+          .toByteArray())));
+      fail("Checkpoint of other ballots was accepted");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Set up and load a new count of the same candidates and ballots.
+   */
+  private BallotCounting newCounting(final boolean groupIdenticalBallots) {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.load(ids);
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < NUMBER_OF_EACH_KIND[0]; b++) {
+      for (int k = 0; k < kinds.length; k++) {
+        if (b < NUMBER_OF_EACH_KIND[k]) {
+          ballotBox.accept(kinds[k]);
+        }
+      }
+    }
+    ballotCounting.load(ballotBox, groupIdenticalBallots);
+    return ballotCounting;
+  }
+}
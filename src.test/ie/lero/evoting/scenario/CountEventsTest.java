@@ -0,0 +1,106 @@
+package ie.lero.evoting.scenario;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+
+/**
+ * A count run under the flight recorder records its rounds, surpluses,
+ * exclusions and ballot moves.
+ */
+public class CountEventsTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 6;
+  private static final int NUM_SEATS = 2;
+
+  /** Number of ballots of each kind, so that more than one round is needed */
+  private static final int[] NUMBER_OF_EACH_KIND = { 60, 45, 40, 30, 15, 10 };
+
+  private static final String[] EVENT_NAMES = { "election.tally.Round",
+      "election.tally.Surplus", "election.tally.Exclusion",
+      "election.tally.BallotMove" };
+
+  public void testRecording() throws IOException {
+    final BallotCounting ballotCounting = newCounting();
+    final Recording recording = new Recording();
+    for (int i = 0; i < EVENT_NAMES.length; i++) {
+      recording.enable(EVENT_NAMES[i]).withoutThreshold();
+    }
+    final File file = File.createTempFile("count", ".jfr");
+    try {
+      recording.start();
+      ballotCounting.count();
+      recording.stop();
+      recording.dump(file.toPath());
+
+      final List<RecordedEvent> events =
+        RecordingFile.readAllEvents(file.toPath());
+      final Map<String, Integer> numberOfEach = new HashMap<String, Integer>();
+      int lastRound = 0;
+      for (int e = 0; e < events.size(); e++) {
+        final RecordedEvent event = events.get(e);
+        final String name = event.getEventType().getName();
+        final Integer number = numberOfEach.get(name);
+        numberOfEach.put(name, Integer.valueOf(number == null ? 1
+            : number.intValue() + 1));
+        final int round = event.getInt("round");
+        assertTrue(0 < round);
+        if (!name.equals(EVENT_NAMES[0])) {
+          assertTrue(0 < event.getInt("candidate"));
+        }
+        else {
+          lastRound = Math.max(lastRound, round);
+        }
+      }
+      for (int i = 0; i < EVENT_NAMES.length; i++) {
+        assertTrue(EVENT_NAMES[i], numberOfEach.containsKey(EVENT_NAMES[i]));
+      }
+      assertEquals(lastRound,
+          numberOfEach.get(EVENT_NAMES[0]).intValue());
+    }
+    finally {
+      recording.close();
+      file.delete();
+    }
+  }
+
+  /**
+   * Set up and load a count which both distributes surpluses and excludes
+   * candidates.
+   */
+  private BallotCounting newCounting() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    final int[] ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    final int[][] kinds =
+      new int[][] { { ids[0], ids[1] }, { ids[1], ids[2] },
+          { ids[2], ids[0] }, { ids[3], ids[2] }, { ids[4], ids[3] },
+          { ids[5], ids[4] } };
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < NUMBER_OF_EACH_KIND[0]; b++) {
+      for (int k = 0; k < kinds.length; k++) {
+        if (b < NUMBER_OF_EACH_KIND[k]) {
+          ballotBox.accept(kinds[k]);
+        }
+      }
+    }
+    ballotCounting.load(ballotBox);
+    return ballotCounting;
+  }
+}
@@ -0,0 +1,88 @@
+package ie.lero.evoting.scenario;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+import election.tally.AbstractCountStatus;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+import election.tally.CountMetrics;
+
+/**
+ * The metrics of a count agree with the count, and can be read through the
+ * platform MBean server.
+ */
+public class CountMetricsTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 6;
+  private static final int NUM_SEATS = 2;
+
+  /** Number of ballots of each kind, so that more than one round is needed */
+  private static final int[] NUMBER_OF_EACH_KIND = { 60, 45, 40, 30, 15, 10 };
+
+  private BallotCounting ballotCounting;
+
+  protected void setUp() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    final int[] ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    final int[][] kinds =
+      new int[][] { { ids[0], ids[1] }, { ids[1], ids[2] },
+          { ids[2], ids[0] }, { ids[3], ids[2] }, { ids[4], ids[3] },
+          { ids[5], ids[4] } };
+    ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < NUMBER_OF_EACH_KIND[0]; b++) {
+      for (int k = 0; k < kinds.length; k++) {
+        if (b < NUMBER_OF_EACH_KIND[k]) {
+          ballotBox.accept(kinds[k]);
+        }
+      }
+    }
+    ballotCounting.load(ballotBox);
+  }
+
+  public void testAfterCount() {
+    final CountMetrics metrics = ballotCounting.getMetrics();
+    assertEquals("idle", metrics.getPhase());
+    assertTrue(0 < metrics.getBallotStoreBytes());
+    final long scannedBeforeCount = metrics.getBallotsScanned();
+    assertTrue(0 < scannedBeforeCount);
+
+    ballotCounting.count();
+    assertEquals("idle", metrics.getPhase());
+    assertEquals(AbstractCountStatus.END_OF_COUNT, metrics.getCountStatus());
+    assertTrue(1 < metrics.getCountNumber());
+    assertTrue(scannedBeforeCount < metrics.getBallotsScanned());
+    assertTrue(0 < metrics.getBallotsTransferred());
+    assertTrue(0 < metrics.getPhaseNanos(CountMetrics.LOAD));
+    assertTrue(0 < metrics.getPhaseNanos(CountMetrics.SURPLUS)
+        + metrics.getPhaseNanos(CountMetrics.EXCLUSION));
+  }
+
+  public void testRegistered() throws JMException {
+    final CountMetrics metrics = ballotCounting.getMetrics();
+    final ObjectName name = metrics.register("Metrics Test");
+    try {
+      ballotCounting.count();
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      assertEquals(Integer.valueOf(metrics.getCountNumber()),
+          server.getAttribute(name, "CountNumber"));
+      assertEquals("idle", server.getAttribute(name, "Phase"));
+    }
+    finally {
+      metrics.unregister();
+    }
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+}
@@ -0,0 +1,102 @@
+package ie.lero.evoting.scenario;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+
+/**
+ * Deferring surpluses which cannot change the outcome elects the same
+ * candidates as distributing every surplus at once.
+ */
+public class DeferredSurplusTest extends TestCase {
+
+  /** Seed for generating elections, so that every run counts the same */
+  private static final long SEED = 20111017L;
+
+  private static final int NUMBER_OF_ELECTIONS = 2000;
+
+  public void testSameOutcome() {
+    final Random random = new Random(SEED);
+    int deferred = 0;
+    for (int e = 0; e < NUMBER_OF_ELECTIONS; e++) {
+      final int numberOfCandidates = 3 + random.nextInt(9);
+      final int seats =
+        1 + random.nextInt(Math.min(5, numberOfCandidates - 1));
+      final int[][] papers = generatePapers(random, numberOfCandidates);
+      final BallotCounting ballotCounting =
+        count(seats, numberOfCandidates, papers, false);
+      final BallotCounting deferredCounting =
+        count(seats, numberOfCandidates, papers, true);
+
+      boolean samePiles = true;
+      for (int i = 0; i < numberOfCandidates; i++) {
+        assertEquals("Election " + e, ballotCounting.getCandidate(i)
+            .getStatus(), deferredCounting.getCandidate(i).getStatus());
+        final int candidateID =
+          ballotCounting.getCandidate(i).getCandidateID();
+        samePiles &= ballotCounting.countBallotsFor(candidateID) ==
+          deferredCounting.countBallotsFor(candidateID);
+      }
+      if (!samePiles) {
+        deferred++;
+      }
+    }
+    // Some of the surpluses must really have been deferred
+    assertTrue(0 < deferred);
+  }
+
+  /**
+   * Generate ballot papers from a few random orders of preference.
+   */
+  private int[][] generatePapers(final Random random,
+      final int numberOfCandidates) {
+    final int numberOfKinds = 1 + random.nextInt(15);
+    final int[][] kinds = new int[numberOfKinds][];
+    for (int k = 0; k < numberOfKinds; k++) {
+      final int[] order = new int[numberOfCandidates];
+      for (int i = 0; i < numberOfCandidates; i++) {
+        final int j = random.nextInt(i + 1);
+        order[i] = order[j];
+        order[j] = i;
+      }
+      kinds[k] = new int[1 + random.nextInt(numberOfCandidates)];
+      System.arraycopy(order, 0, kinds[k], 0, kinds[k].length);
+    }
+    final int[][] papers = new int[10 + random.nextInt(400)][];
+    for (int b = 0; b < papers.length; b++) {
+      papers[b] = kinds[random.nextInt(numberOfKinds)];
+    }
+    return papers;
+  }
+
+  /**
+   * Count the papers, whose preferences are positions in the candidate list.
+   */
+  private BallotCounting count(final int seats, final int numberOfCandidates,
+      final int[][] papers, final boolean deferSurplus) {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(seats, seats);
+    election.setNumberOfCandidates(numberOfCandidates);
+    final int[] ids = new int[numberOfCandidates];
+    for (int i = 0; i < numberOfCandidates; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < papers.length; b++) {
+      final int[] preferences = new int[papers[b].length];
+      for (int p = 0; p < preferences.length; p++) {
+        preferences[p] = ids[papers[b][p]];
+      }
+      ballotBox.accept(preferences);
+    }
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    ballotCounting.load(ballotBox);
+    ballotCounting.setDeferSurplus(deferSurplus);
+    ballotCounting.count();
+    return ballotCounting;
+  }
+}
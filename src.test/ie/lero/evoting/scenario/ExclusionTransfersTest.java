@@ -0,0 +1,77 @@
+package ie.lero.evoting.scenario;
+
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+
+/**
+ * Ballots moved on from one excluded candidate to the next, until their
+ * preferences run out, end up on the same piles whether each paper is stored
+ * on its own or identical papers are stored together as one weighted ballot.
+ */
+public class ExclusionTransfersTest extends PileTestCase {
+
+  private static final int NUM_CANDIDATES = 6;
+
+  private Constituency election;
+  private int[] ids;
+  private BallotBox ballotBox;
+
+  protected void setUp() {
+    election = new Constituency();
+    election.setNumberOfSeats(2, 2);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    ballotBox = newBallotBox(new int[][] {
+        { ids[5], ids[4], ids[3], ids[2], ids[1], ids[0] },
+        { ids[4], ids[3], ids[2] }, { ids[3], ids[5], ids[2], ids[4] },
+        { ids[2], ids[1] }, { ids[1] }, { ids[0], ids[1], ids[2] },
+        { ids[3] } }, new int[] { 3, 4, 5, 6, 12, 14, 2 });
+  }
+
+  public void testSeparatePapers() {
+    checkExclusions(false);
+  }
+
+  public void testGroupedPapers() {
+    checkExclusions(true);
+  }
+
+  /**
+   * Exclude the three lowest candidates in turn, checking the piles after
+   * each.
+   */
+  private void checkExclusions(final boolean groupIdenticalBallots) {
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    ballotCounting.load(ballotBox, groupIdenticalBallots);
+    ballotCounting.startCounting();
+    assertPiles(ballotCounting, new int[] { 14, 12, 6, 7, 4, 3 }, 0);
+
+    exclude(ballotCounting, 5);
+    assertPiles(ballotCounting, new int[] { 14, 12, 6, 7, 7, 0 }, 0);
+
+    exclude(ballotCounting, 2);
+    assertPiles(ballotCounting, new int[] { 14, 18, 0, 7, 7, 0 }, 0);
+
+    exclude(ballotCounting, 4);
+    assertPiles(ballotCounting, new int[] { 14, 18, 0, 14, 0, 0 }, 0);
+  }
+
+  private void exclude(final BallotCounting ballotCounting,
+      final int expectedLoser) {
+    final int loser = ballotCounting.findLowestCandidate();
+    assertEquals(expectedLoser, loser);
+    ballotCounting.eliminateCandidate(loser);
+    ballotCounting.incrementCountNumber();
+  }
+
+  private void assertPiles(final BallotCounting ballotCounting,
+      final int[] expected, final int nonTransferable) {
+    assertPiles(ballotCounting, ids, expected, nonTransferable,
+        ballotBox.size());
+  }
+}
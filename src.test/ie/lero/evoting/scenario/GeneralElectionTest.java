@@ -0,0 +1,225 @@
+package ie.lero.evoting.scenario;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import junit.framework.TestCase;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+import election.tally.CountListener;
+import election.tally.GeneralElection;
+
+/**
+ * Counts for several constituencies run together give the same results as
+ * each count run on its own.
+ */
+public class GeneralElectionTest extends TestCase {
+
+  private static final int NUM_CONSTITUENCIES = 6;
+  private static final int NUM_CANDIDATES = 5;
+  private static final int NUM_SEATS = 2;
+
+  public void testConcurrentCounts() throws Exception {
+    final List<String> finished =
+      Collections.synchronizedList(new ArrayList<String>());
+    final CountListener listener = new CountListener() {
+      public void countStarted(final String name) {
+      }
+
+      public void countFinished(final String name,
+          final BallotCounting ballotCounting) {
+        finished.add(name);
+      }
+
+      public void countFailed(final String name, final Throwable cause) {
+        fail(name + ": " + cause);
+      }
+    };
+    // Room for only two of the ballot boxes at a time
+    final GeneralElection generalElection =
+      new GeneralElection(4, 2 * 60, listener);
+
+    final List<Future<BallotCounting>> counts =
+      new ArrayList<Future<BallotCounting>>();
+    final String[] expected = new String[NUM_CONSTITUENCIES];
+    for (int c = 0; c < NUM_CONSTITUENCIES; c++) {
+      final BallotCounting ballotCounting = new BallotCounting();
+      final Constituency constituency = newConstituency();
+      ballotCounting.setup(constituency);
+      ballotCounting.load(newBallotBox(constituency, c));
+      ballotCounting.count();
+      expected[c] = ballotCounting.getResults();
+
+      // Half of the counts read their papers as a stream
+      final Constituency other = newConstituency();
+      if (c % 2 == 0) {
+        counts.add(generalElection.submit("Constituency " + c, other,
+            newBallotBox(other, c)));
+      }
+      else {
+        counts.add(generalElection.submit("Constituency " + c, other,
+            newPreferenceLists(other, c).spliterator()));
+      }
+    }
+    assertTrue(generalElection.finish(1, TimeUnit.MINUTES));
+
+    assertEquals(NUM_CONSTITUENCIES, generalElection.getNumberOfCounts());
+    assertEquals(NUM_CONSTITUENCIES, generalElection.getNumberFinished());
+    assertEquals(NUM_CONSTITUENCIES, finished.size());
+    for (int c = 0; c < NUM_CONSTITUENCIES; c++) {
+      assertEquals(expected[c], counts.get(c).get().getResults());
+    }
+  }
+
+  public void testListenerFailure() throws Exception {
+    final List<String> failed =
+      Collections.synchronizedList(new ArrayList<String>());
+    final CountListener listener = new CountListener() {
+      public void countStarted(final String name) {
+      }
+
+      public void countFinished(final String name,
+          final BallotCounting ballotCounting) {
+        throw new IllegalStateException(name);
+      }
+
+      public void countFailed(final String name, final Throwable cause) {
+        failed.add(name);
+      }
+    };
+    final GeneralElection generalElection =
+      new GeneralElection(2, 2 * 60, listener);
+    final Constituency constituency = newConstituency();
+    final Future<BallotCounting> count = generalElection.submit(
+        "Constituency 0", constituency, newBallotBox(constituency, 0));
+    assertTrue(generalElection.finish(1, TimeUnit.MINUTES));
+
+    // The count itself succeeded, so it finished once and did not fail
+    assertEquals(1, generalElection.getNumberFinished());
+    assertTrue(failed.isEmpty());
+    try {
+      count.get();
+      fail("The listener's failure should be reported by the future");
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  public void testCancelledWhileWaiting() throws Exception {
+    final List<Throwable> failures =
+      Collections.synchronizedList(new ArrayList<Throwable>());
+    final CountListener listener = new CountListener() {
+      public void countStarted(final String name) {
+      }
+
+      public void countFinished(final String name,
+          final BallotCounting ballotCounting) {
+      }
+
+      public void countFailed(final String name, final Throwable cause) {
+        failures.add(cause);
+      }
+    };
+    // Room for only one of the ballot boxes at a time
+    final WatchedElection generalElection = new WatchedElection(listener);
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Constituency first = newConstituency();
+    final Iterator<int[]> papers = newPreferenceLists(first, 0).iterator();
+    final Spliterator<int[]> blocked =
+      new Spliterators.AbstractSpliterator<int[]>(60, Spliterator.SIZED) {
+        public boolean tryAdvance(final Consumer<? super int[]> action) {
+          loading.countDown();
+          try {
+            release.await();
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          if (!papers.hasNext()) {
+            return false;
+          }
+          action.accept(papers.next());
+          return true;
+        }
+      };
+    final Future<BallotCounting> running =
+      generalElection.submit("Constituency 0", first, blocked);
+    assertTrue(loading.await(1, TimeUnit.MINUTES));
+
+    final Constituency second = newConstituency();
+    final Future<BallotCounting> waiting = generalElection.submit(
+        "Constituency 1", second, newBallotBox(second, 1));
+    // Wait until the second count is blocked waiting for room
+    while (!generalElection.isWaitingForRoom()) {
+      Thread.sleep(10);
+    }
+    assertTrue(waiting.cancel(true));
+    release.countDown();
+    assertNotNull(running.get(1, TimeUnit.MINUTES));
+    assertTrue(generalElection.finish(1, TimeUnit.MINUTES));
+
+    assertEquals(2, generalElection.getNumberOfCounts());
+    assertEquals(2, generalElection.getNumberFinished());
+    assertEquals(1, failures.size());
+    assertTrue(failures.get(0) instanceof InterruptedException);
+  }
+
+  /**
+   * General election with room for one ballot box of 60 papers at a time,
+   * which shows when a count is waiting for room.
+   */
+  private static class WatchedElection extends GeneralElection {
+
+    public WatchedElection(final CountListener listener) {
+      super(2, 60, listener);
+    }
+
+    public boolean isWaitingForRoom() {
+      return admission.hasQueuedThreads();
+    }
+  }
+
+  private Constituency newConstituency() {
+    final Constituency constituency = new Constituency();
+    constituency.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    constituency.setNumberOfCandidates(NUM_CANDIDATES);
+    return constituency;
+  }
+
+  private BallotBox newBallotBox(final Constituency constituency,
+      final int seed) {
+    final BallotBox ballotBox = new BallotBox();
+    for (int[] preferences : newPreferenceLists(constituency, seed)) {
+      ballotBox.accept(preferences);
+    }
+    return ballotBox;
+  }
+
+  private List<int[]> newPreferenceLists(final Constituency constituency,
+      final int seed) {
+    final int[] ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = constituency.getCandidate(i).getCandidateID();
+    }
+    final int[][] kinds = { { ids[0], ids[1], ids[2] }, { ids[0], ids[2] },
+        { ids[0], ids[3], ids[1] }, { ids[3] }, { ids[1], ids[4] },
+        { ids[2], ids[3] }, { ids[4], ids[3], ids[0] } };
+    final List<int[]> preferenceLists = new ArrayList<int[]>();
+    for (int b = 0; b < 60; b++) {
+      preferenceLists.add(kinds[(b * b + b / 3 + seed) % kinds.length]);
+    }
+    return preferenceLists;
+  }
+}
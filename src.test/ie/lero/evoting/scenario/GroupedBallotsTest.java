@@ -0,0 +1,68 @@
+package ie.lero.evoting.scenario;
+
+import junit.framework.TestCase;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+
+/**
+ * Counting identical ballot papers as weighted ballots gives the same result
+ * as counting each paper.
+ */
+public class GroupedBallotsTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 5;
+  private static final int NUM_SEATS = 2;
+
+  public void testSameResult() {
+    final BallotCounting ballotCounting = count(false);
+    final BallotCounting groupedCounting = count(true);
+
+    assertEquals(ballotCounting.getResults(), groupedCounting.getResults());
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      final int candidateID = ballotCounting.getCandidate(i).getCandidateID();
+      assertEquals(ballotCounting.getCandidate(i).getStatus(),
+          groupedCounting.getCandidate(i).getStatus());
+      assertEquals(ballotCounting.countBallotsFor(candidateID),
+          groupedCounting.countBallotsFor(candidateID));
+    }
+  }
+
+  public void testFirstPreferences() {
+    final BallotCounting groupedCounting = count(true);
+    int total = 0;
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      total += groupedCounting.countFirstPreferences(groupedCounting
+          .getCandidate(i).getCandidateID());
+    }
+    assertEquals(60, total);
+  }
+
+  /**
+   * Count a ballot box in which the surplus of the first candidate elected
+   * is shared between papers of each kind.
+   */
+  private BallotCounting count(final boolean groupIdenticalBallots) {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+
+    final int[] ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    final int[][] kinds = { { ids[0], ids[1], ids[2] }, { ids[0], ids[2] },
+        { ids[0], ids[3], ids[1] }, { ids[0] }, { ids[1], ids[4] },
+        { ids[2], ids[3] }, { ids[4], ids[3], ids[0] } };
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < 60; b++) {
+      ballotBox.accept(kinds[(b * b + b / 3) % kinds.length]);
+    }
+
+    ballotCounting.load(ballotBox, groupIdenticalBallots);
+    ballotCounting.count();
+    return ballotCounting;
+  }
+}
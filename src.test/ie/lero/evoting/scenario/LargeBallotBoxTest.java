@@ -0,0 +1,51 @@
+package ie.lero.evoting.scenario;
+
+import junit.framework.TestCase;
+import election.tally.Ballot;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.CandidateStatus;
+import election.tally.Constituency;
+
+/**
+ * A ballot box may hold more ballots than the largest Dail constituency.
+ */
+public class LargeBallotBoxTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 3;
+  private static final int NUM_BALLOTS = Ballot.MAX_BALLOTS + 50000;
+
+  public void testSingleSeat() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(1, 1);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+
+    final int[] ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    final int[][] kinds = { { ids[0] }, { ids[1] }, { ids[2], ids[1] } };
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < NUM_BALLOTS; b++) {
+      // 40% for the first candidate, 35% for the second and 25% for the third
+      final int percentile = b % 20;
+      ballotBox.accept(kinds[percentile < 8 ? 0 : (percentile < 15 ? 1 : 2)]);
+    }
+    assertEquals(NUM_BALLOTS, ballotBox.size());
+
+    ballotCounting.load(ballotBox);
+    assertEquals(NUM_BALLOTS / 20 * 8,
+        ballotCounting.countFirstPreferences(ids[0]));
+    assertEquals(NUM_BALLOTS / 20 * 7,
+        ballotCounting.countFirstPreferences(ids[1]));
+    assertEquals(NUM_BALLOTS / 20 * 5,
+        ballotCounting.countFirstPreferences(ids[2]));
+
+    ballotCounting.count();
+    assertEquals(CandidateStatus.ELECTED, election.getCandidate(1).getStatus());
+    assertEquals(NUM_BALLOTS - 2 * (NUM_BALLOTS / 5),
+        ballotCounting.countBallotsFor(ids[1]));
+  }
+}
@@ -0,0 +1,60 @@
+package ie.lero.evoting.scenario;
+
+import junit.framework.TestCase;
+import election.tally.Ballot;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+
+/**
+ * Checks of the ballots held by each candidate as they are transferred.
+ */
+public abstract class PileTestCase extends TestCase {
+
+  /**
+   * Put several copies of each kind of ballot paper in a ballot box.
+   * 
+   * @param kinds
+   *        The preferences of each kind of ballot paper
+   * @param numberOfEach
+   *        The number of copies of each kind
+   * @return The ballot box
+   */
+  protected BallotBox newBallotBox(final int[][] kinds,
+      final int[] numberOfEach) {
+    final BallotBox ballotBox = new BallotBox();
+    for (int k = 0; k < kinds.length; k++) {
+      for (int b = 0; b < numberOfEach[k]; b++) {
+        ballotBox.accept(kinds[k]);
+      }
+    }
+    return ballotBox;
+  }
+
+  /**
+   * Check the pile of each candidate and the non-transferable ballots, and
+   * that together they hold every ballot.
+   * 
+   * @param ballotCounting
+   *        The count
+   * @param ids
+   *        The candidate IDs, in the same order as the expected piles
+   * @param expected
+   *        The number of ballots expected in each candidate's pile
+   * @param nonTransferable
+   *        The number of non-transferable ballots expected
+   * @param numberOfBallots
+   *        The number of ballots counted
+   */
+  protected void assertPiles(final BallotCounting ballotCounting,
+      final int[] ids, final int[] expected, final int nonTransferable,
+      final int numberOfBallots) {
+    int total = ballotCounting.countBallotsFor(Ballot.NONTRANSFERABLE);
+    assertEquals("Non-transferable", nonTransferable, total);
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals("Candidate " + ids[i], expected[i],
+          ballotCounting.countBallotsFor(ids[i]));
+      total += expected[i];
+    }
+    assertEquals(numberOfBallots, total);
+  }
+}
@@ -0,0 +1,146 @@
+package ie.lero.evoting.scenario;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+
+/**
+ * A recount after some ballot papers are added or removed gives the same
+ * result as counting the corrected ballot box from the start, and does not
+ * repeat rounds which the corrections could not change.
+ */
+public class RecountTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 6;
+  private static final int NUM_SEATS = 2;
+
+  /** Number of ballots of each kind, so that more than one round is needed */
+  private static final int[] NUMBER_OF_EACH_KIND = { 60, 45, 40, 30, 15, 10 };
+
+  private int[] ids;
+  private int[][] kinds;
+
+  /** Preferences of each ballot paper in ballot box order */
+  private final List<int[]> papers = new ArrayList<int[]>();
+
+  /** Has the paper at each position in the ballot box been removed? */
+  private final List<Boolean> removed = new ArrayList<Boolean>();
+
+  protected void setUp() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    kinds = new int[][] { { ids[0], ids[1] }, { ids[1], ids[2] },
+        { ids[2], ids[0] }, { ids[3], ids[2] }, { ids[4], ids[3] },
+        { ids[5], ids[4] } };
+    for (int b = 0; b < NUMBER_OF_EACH_KIND[0]; b++) {
+      for (int k = 0; k < kinds.length; k++) {
+        if (b < NUMBER_OF_EACH_KIND[k]) {
+          papers.add(kinds[k]);
+          removed.add(Boolean.FALSE);
+        }
+      }
+    }
+  }
+
+  public void testUnchangedRoundsNotRepeated() {
+    final BallotCounting ballotCounting = newCounting(papers, false);
+    ballotCounting.setRecountable(true);
+    ballotCounting.count();
+
+    // The sixth paper is of the last kind, and the quota is the same
+    final int round = correct(ballotCounting, new int[0][], new int[] { 5 });
+    assertTrue(1 < round);
+    assertSameAsFullCount(ballotCounting, false);
+  }
+
+  public void testSuccessiveRecounts() {
+    final BallotCounting ballotCounting = newCounting(papers, true);
+    ballotCounting.setRecountable(true);
+    ballotCounting.count();
+
+    correct(ballotCounting, new int[][] { kinds[1], kinds[1] },
+        new int[] { 0, 6 });
+    assertSameAsFullCount(ballotCounting, true);
+    correct(ballotCounting, new int[][] { kinds[4] }, new int[] { 2, 200 });
+    assertSameAsFullCount(ballotCounting, true);
+    correct(ballotCounting, new int[0][], new int[] { 201, 202 });
+    assertSameAsFullCount(ballotCounting, true);
+  }
+
+  public void testNotRecountable() {
+    final BallotCounting ballotCounting = newCounting(papers, false);
+    ballotCounting.count();
+    try {
+      ballotCounting.recount(new int[][] { kinds[0] }, new int[0]);
+      fail("Count was recounted without keeping its history");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Recount after correcting the ballot box, and make the same corrections
+   * to the expected ballot papers.
+   */
+  private int correct(final BallotCounting ballotCounting,
+      final int[][] addedPapers, final int[] removedPositions) {
+    for (int i = 0; i < addedPapers.length; i++) {
+      papers.add(addedPapers[i]);
+      removed.add(Boolean.FALSE);
+    }
+    for (int i = 0; i < removedPositions.length; i++) {
+      removed.set(removedPositions[i], Boolean.TRUE);
+    }
+    return ballotCounting.recount(addedPapers, removedPositions);
+  }
+
+  private void assertSameAsFullCount(final BallotCounting recounted,
+      final boolean groupIdenticalBallots) {
+    final List<int[]> corrected = new ArrayList<int[]>();
+    for (int i = 0; i < papers.size(); i++) {
+      if (!removed.get(i).booleanValue()) {
+        corrected.add(papers.get(i));
+      }
+    }
+    final BallotCounting expected =
+      newCounting(corrected, groupIdenticalBallots);
+    expected.count();
+    assertEquals(expected.getResults(), recounted.getResults());
+    for (int c = 0; c < NUM_CANDIDATES; c++) {
+      assertEquals(expected.getCandidate(c).getStatus(),
+          recounted.getCandidate(c).getStatus());
+      assertEquals(expected.countBallotsFor(ids[c]),
+          recounted.countBallotsFor(ids[c]));
+      assertEquals(expected.getCandidate(c).getTotalVote(),
+          recounted.getCandidate(c).getTotalVote());
+    }
+  }
+
+  /**
+   * Set up and load a new count of the same candidates.
+   */
+  private BallotCounting newCounting(final List<int[]> ballotPapers,
+      final boolean groupIdenticalBallots) {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.load(ids);
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    final BallotBox ballotBox = new BallotBox();
+    for (int i = 0; i < ballotPapers.size(); i++) {
+      ballotBox.accept(ballotPapers.get(i));
+    }
+    ballotCounting.load(ballotBox, groupIdenticalBallots);
+    return ballotCounting;
+  }
+}
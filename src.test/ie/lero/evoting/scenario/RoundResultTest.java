@@ -0,0 +1,216 @@
+package ie.lero.evoting.scenario;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import election.tally.AbstractCountStatus;
+import election.tally.Ballot;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.CandidateStatus;
+import election.tally.Constituency;
+import election.tally.RoundResult;
+import election.tally.TransferJournal;
+
+/**
+ * The snapshots published at the end of each round agree with the count, and
+ * a subscriber which does not keep up does not hold up the count, but still
+ * receives the final result; a count which fails tells its subscribers why.
+ */
+public class RoundResultTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 6;
+  private static final int NUM_SEATS = 2;
+
+  /** Number of ballots of each kind, so that more than one round is needed */
+  private static final int[] NUMBER_OF_EACH_KIND = { 60, 45, 40, 30, 15, 10 };
+
+  private int[] ids;
+  private int[][] kinds;
+
+  protected void setUp() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    kinds = new int[][] { { ids[0], ids[1] }, { ids[1], ids[2] },
+        { ids[2], ids[0] }, { ids[3], ids[2] }, { ids[4], ids[3] },
+        { ids[5], ids[4] } };
+  }
+
+  public void testEachRound() throws InterruptedException {
+    final BallotCounting ballotCounting = newCounting();
+    final int[] piles = new int[NUM_CANDIDATES + 1];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      piles[i] = ballotCounting.countBallotsFor(ids[i]);
+    }
+    final Collector collector = new Collector(Long.MAX_VALUE);
+    ballotCounting.publishRounds().subscribe(collector);
+    ballotCounting.count();
+    assertTrue(collector.completed.await(10, TimeUnit.SECONDS));
+
+    final List<RoundResult> results = collector.results;
+    assertTrue(2 < results.size());
+    int numberElected = 0;
+    for (int r = 0; r < results.size(); r++) {
+      final RoundResult result = results.get(r);
+      final int[][] transfers = result.getTransfers();
+      for (int from = 0; from < piles.length; from++) {
+        for (int to = 0; to < piles.length; to++) {
+          piles[from] -= transfers[from][to];
+          piles[to] += transfers[from][to];
+        }
+      }
+      assertEquals(piles.length, result.getVotes().length);
+      for (int p = 0; p < piles.length; p++) {
+        assertEquals(piles[p], result.getVotes()[p]);
+      }
+      numberElected += result.getElected().length;
+      int numberWithStatus = 0;
+      for (byte status : result.getStatuses()) {
+        if (status == CandidateStatus.ELECTED) {
+          numberWithStatus++;
+        }
+      }
+      assertEquals(numberElected, numberWithStatus);
+    }
+    assertEquals(NUM_SEATS, numberElected);
+
+    final RoundResult last = results.get(results.size() - 1);
+    assertEquals(AbstractCountStatus.END_OF_COUNT, last.getCountStatus());
+    assertEquals(ballotCounting.getQuota(), last.getQuota());
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      assertEquals(ballotCounting.countBallotsFor(ids[i]),
+          last.getVotes()[i]);
+    }
+    assertEquals(ballotCounting.countBallotsFor(Ballot.NONTRANSFERABLE),
+        last.getVotes()[NUM_CANDIDATES]);
+  }
+
+  public void testSlowSubscriber() throws InterruptedException {
+    final BallotCounting ballotCounting = newCounting();
+    final Collector collector = new Collector(1);
+    ballotCounting.publishRounds(ForkJoinPool.commonPool(), 1).subscribe(
+        collector);
+    assertTrue(collector.subscribed.await(10, TimeUnit.SECONDS));
+    ballotCounting.count();
+
+    // Rounds beyond the buffer were missed, but not the last
+    collector.subscription.request(Long.MAX_VALUE);
+    assertTrue(collector.completed.await(10, TimeUnit.SECONDS));
+    assertTrue(0 < collector.results.size());
+    assertTrue(collector.results.size() <= 3);
+    final RoundResult last =
+      collector.results.get(collector.results.size() - 1);
+    assertEquals(AbstractCountStatus.END_OF_COUNT, last.getCountStatus());
+    final byte[] statuses = last.getStatuses();
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      assertEquals(ballotCounting.getCandidate(i).getStatus(), statuses[i]);
+    }
+  }
+
+  public void testNotSetUp() {
+    try {
+      new BallotCounting().publishRounds();
+      fail("There are no candidates yet");
+    }
+    catch (IllegalStateException e) {
+      // Rounds can only be published once the candidates are known
+    }
+  }
+
+  public void testFailedCount() throws InterruptedException {
+    final BallotCounting ballotCounting = newCounting();
+    ballotCounting.setJournal(new TransferJournal(new WritableByteChannel() {
+      public int write(final ByteBuffer source) throws IOException {
+        throw new IOException("disk full");
+      }
+
+      public boolean isOpen() {
+        return true;
+      }
+
+      public void close() {
+      }
+    }));
+    final Collector collector = new Collector(Long.MAX_VALUE);
+    ballotCounting.publishRounds().subscribe(collector);
+    try {
+      ballotCounting.count();
+      fail("The journal cannot be written");
+    }
+    catch (IllegalStateException e) {
+      assertTrue(collector.completed.await(10, TimeUnit.SECONDS));
+      assertSame(e, collector.failure);
+    }
+  }
+
+  /**
+   * Keeps the snapshots which it has asked for.
+   */
+  private static class Collector implements Flow.Subscriber<RoundResult> {
+    final List<RoundResult> results =
+      Collections.synchronizedList(new ArrayList<RoundResult>());
+    final CountDownLatch subscribed = new CountDownLatch(1);
+    final CountDownLatch completed = new CountDownLatch(1);
+    private final long numberToRequest;
+    Flow.Subscription subscription;
+    volatile Throwable failure;
+
+    Collector(final long numberToRequest) {
+      this.numberToRequest = numberToRequest;
+    }
+
+    public void onSubscribe(final Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(numberToRequest);
+      subscribed.countDown();
+    }
+
+    public void onNext(final RoundResult result) {
+      results.add(result);
+    }
+
+    public void onError(final Throwable cause) {
+      failure = cause;
+      completed.countDown();
+    }
+
+    public void onComplete() {
+      completed.countDown();
+    }
+  }
+
+  /**
+   * Set up and load a new count of the same candidates and ballots.
+   */
+  private BallotCounting newCounting() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.load(ids);
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < NUMBER_OF_EACH_KIND[0]; b++) {
+      for (int k = 0; k < kinds.length; k++) {
+        if (b < NUMBER_OF_EACH_KIND[k]) {
+          ballotBox.accept(kinds[k]);
+        }
+      }
+    }
+    ballotCounting.load(ballotBox);
+    return ballotCounting;
+  }
+}
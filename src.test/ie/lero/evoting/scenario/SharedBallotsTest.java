@@ -0,0 +1,127 @@
+package ie.lero.evoting.scenario;
+
+import junit.framework.TestCase;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.BallotStore;
+import election.tally.Constituency;
+
+/**
+ * Several counts of the same loaded ballots give the same result as counting
+ * a ballot box, and leave the loaded ballots as they were.
+ */
+public class SharedBallotsTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 5;
+  private static final int NUM_SEATS = 2;
+  private static final int NUM_BALLOTS = 300;
+
+  private int[] ids;
+  private int[][] kinds;
+
+  protected void setUp() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    kinds = new int[][] { { ids[0], ids[1], ids[2] }, { ids[0], ids[2] },
+        { ids[0], ids[3], ids[1] }, { ids[1], ids[4] }, { ids[2], ids[3] },
+        { ids[4], ids[3], ids[0] }, { ids[3] } };
+  }
+
+  public void testSameResult() {
+    final BallotCounting expected = newCounting();
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < NUM_BALLOTS; b++) {
+      ballotBox.accept(kinds[(b * b + b / 3) % kinds.length]);
+    }
+    expected.load(ballotBox);
+    expected.count();
+
+    final BallotStore loadedBallots = load(false);
+    for (int run = 0; run < 3; run++) {
+      final BallotCounting ballotCounting = newCounting();
+      ballotCounting.load(loadedBallots);
+      ballotCounting.count();
+      assertSameResult(expected, ballotCounting);
+    }
+  }
+
+  public void testConcurrentCounts() throws InterruptedException {
+    final BallotStore loadedBallots = load(true);
+    final BallotCounting[] counts = new BallotCounting[4];
+    final Thread[] threads = new Thread[counts.length];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = newCounting();
+      final BallotCounting ballotCounting = counts[i];
+      threads[i] = new Thread() {
+        public void run() {
+          ballotCounting.load(loadedBallots);
+          ballotCounting.count();
+        }
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+    }
+    for (int i = 1; i < counts.length; i++) {
+      assertSameResult(counts[0], counts[i]);
+    }
+    for (int b = 0; b < loadedBallots.size(); b++) {
+      assertTrue(loadedBallots.getWeight(b) > 1);
+    }
+    assertEquals(NUM_BALLOTS, loadedBallots.getNumberOfPapers());
+  }
+
+  public void testAddAfterSharing() {
+    final BallotStore loadedBallots = load(false);
+    final int firstPreference = loadedBallots.getCandidateID(0);
+    final BallotCounting ballotCounting = newCounting();
+    ballotCounting.load(loadedBallots);
+
+    final BallotStore copy = new BallotStore(loadedBallots);
+    copy.add(new int[] { kinds[6][0] });
+    loadedBallots.add(new int[] { kinds[3][0] });
+    assertEquals(kinds[6][0], copy.getCandidateID(NUM_BALLOTS));
+    assertEquals(kinds[3][0], loadedBallots.getCandidateID(NUM_BALLOTS));
+    assertEquals(firstPreference, copy.getCandidateID(0));
+  }
+
+  private BallotStore load(final boolean groupIdenticalBallots) {
+    final BallotStore loadedBallots =
+      new BallotStore(NUM_BALLOTS, groupIdenticalBallots);
+    for (int b = 0; b < NUM_BALLOTS; b++) {
+      loadedBallots.add(kinds[(b * b + b / 3) % kinds.length]);
+    }
+    loadedBallots.close();
+    return loadedBallots;
+  }
+
+  /**
+   * Each count needs its own candidates, with the same candidate IDs.
+   */
+  private BallotCounting newCounting() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.load(ids);
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    return ballotCounting;
+  }
+
+  private void assertSameResult(final BallotCounting expected,
+      final BallotCounting actual) {
+    assertEquals(expected.getResults(), actual.getResults());
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      final int candidateID = expected.getCandidate(i).getCandidateID();
+      assertEquals(expected.getCandidate(i).getStatus(),
+          actual.getCandidate(i).getStatus());
+      assertEquals(expected.countBallotsFor(candidateID),
+          actual.countBallotsFor(candidateID));
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package ie.lero.evoting.scenario;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+
+/**
+ * Loading ballot papers as they are read gives the same result as loading
+ * them from a ballot box.
+ */
+public class StreamedBallotsTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 5;
+  private static final int NUM_SEATS = 2;
+  private static final int NUM_BALLOTS = 60;
+
+  public void testIterator() {
+    for (int g = 0; g < 2; g++) {
+      final boolean groupIdenticalBallots = (g == 1);
+      final BallotCounting ballotCounting = newCount();
+      final BallotBox ballotBox = new BallotBox();
+      for (int b = 0; b < NUM_BALLOTS; b++) {
+        ballotBox.accept(getPreferences(ballotCounting, b));
+      }
+      ballotCounting.load(ballotBox, groupIdenticalBallots);
+
+      final BallotCounting streamedCounting = newCount();
+      final List<int[]> preferenceLists = new ArrayList<int[]>();
+      for (int b = 0; b < NUM_BALLOTS; b++) {
+        preferenceLists.add(getPreferences(streamedCounting, b));
+      }
+      streamedCounting.load(preferenceLists.iterator(),
+          groupIdenticalBallots);
+      assertSameCount(ballotCounting, streamedCounting);
+    }
+  }
+
+  public void testSpliterator() {
+    final BallotCounting ballotCounting = newCount();
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < NUM_BALLOTS; b++) {
+      ballotBox.accept(getPreferences(ballotCounting, b));
+    }
+    ballotCounting.load(ballotBox);
+
+    final BallotCounting streamedCounting = newCount();
+    final List<int[]> preferenceLists = new ArrayList<int[]>();
+    for (int b = 0; b < NUM_BALLOTS; b++) {
+      preferenceLists.add(getPreferences(streamedCounting, b));
+    }
+    streamedCounting.load(preferenceLists.spliterator(), false);
+    assertSameCount(ballotCounting, streamedCounting);
+  }
+
+  public void testBatches() {
+    final BallotCounting ballotCounting = newCount();
+    final BallotBox ballotBox = new BallotBox();
+    for (int b = 0; b < NUM_BALLOTS; b++) {
+      ballotBox.accept(getPreferences(ballotCounting, b));
+    }
+    ballotCounting.load(ballotBox);
+
+    final BallotCounting streamedCounting = newCount();
+    final int[][] batch = new int[7][];
+    streamedCounting.startLoading(0, false);
+    int inBatch = 0;
+    for (int b = 0; b < NUM_BALLOTS; b++) {
+      batch[inBatch++] = getPreferences(streamedCounting, b);
+      if (inBatch == batch.length) {
+        streamedCounting.accept(batch, inBatch);
+        inBatch = 0;
+      }
+    }
+    streamedCounting.accept(batch, inBatch);
+    streamedCounting.finishLoading();
+
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      assertEquals(ballotCounting.getCandidate(i).getTotalVote(),
+          streamedCounting.getCandidate(i).getTotalVote());
+    }
+    assertSameCount(ballotCounting, streamedCounting);
+  }
+
+  private void assertSameCount(final BallotCounting ballotCounting,
+      final BallotCounting streamedCounting) {
+    ballotCounting.count();
+    streamedCounting.count();
+    assertEquals(ballotCounting.getResults(), streamedCounting.getResults());
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      assertEquals(ballotCounting.getCandidate(i).getStatus(),
+          streamedCounting.getCandidate(i).getStatus());
+      assertEquals(
+          ballotCounting.countBallotsFor(ballotCounting.getCandidate(i)
+              .getCandidateID()),
+          streamedCounting.countBallotsFor(streamedCounting.getCandidate(i)
+              .getCandidateID()));
+    }
+  }
+
+  /**
+   * Each count has its own candidates.
+   */
+  private BallotCounting newCount() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    return ballotCounting;
+  }
+
+  private int[] getPreferences(final BallotCounting ballotCounting,
+      final int b) {
+    final int[] ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = ballotCounting.getCandidate(i).getCandidateID();
+    }
+    final int[][] kinds = { { ids[0], ids[1], ids[2] }, { ids[0], ids[2] },
+        { ids[0], ids[3], ids[1] }, { ids[0] }, { ids[1], ids[4] },
+        { ids[2], ids[3] }, { ids[4], ids[3], ids[0] } };
+    return kinds[(b * b + b / 3) % kinds.length];
+  }
+}
@@ -0,0 +1,103 @@
+package ie.lero.evoting.scenario;
+
+import election.tally.AbstractCountStatus;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+
+/**
+ * The ballots moved from a surplus to each continuing candidate, and those
+ * which are non-transferable, whether the surplus is smaller or larger than
+ * the transferable ballots.
+ */
+public class SurplusTransferTest extends PileTestCase {
+
+  private int[] ids;
+  private int numberOfBallots;
+  private BallotCounting ballotCounting;
+
+  /**
+   * A surplus smaller than the transferable ballots is shared between the
+   * next preferences.
+   */
+  public void testPartialTransfer() {
+    setUpElection(3, 6);
+    load(new int[][] { { ids[0], ids[1] }, { ids[0], ids[2] },
+        { ids[0], ids[3], ids[1] }, { ids[0] }, { ids[1] }, { ids[2] },
+        { ids[3] }, { ids[4], ids[0], ids[5] }, { ids[5] } }, new int[] { 13,
+        11, 9, 7, 10, 9, 8, 6, 7 });
+    assertPiles(new int[] { 40, 10, 9, 8, 6, 7 }, 0);
+
+    distributeSurplus();
+    assertPiles(new int[] { 24, 17, 14, 12, 6, 7 }, 0);
+  }
+
+  /**
+   * A surplus larger than the transferable ballots moves all of them.
+   */
+  public void testWholeTransfer() {
+    setUpElection(3, 6);
+    load(new int[][] { { ids[0], ids[1] }, { ids[0], ids[2] }, { ids[0] },
+        { ids[1] }, { ids[2] }, { ids[3] }, { ids[4] }, { ids[5] } },
+        new int[] { 6, 4, 40, 10, 9, 8, 6, 7 });
+    assertPiles(new int[] { 50, 10, 9, 8, 6, 7 }, 0);
+
+    distributeSurplus();
+    assertPiles(new int[] { 23, 16, 13, 8, 6, 7 }, 17);
+  }
+
+  /**
+   * A surplus shared equally between next preferences leaves remainders to
+   * be settled.
+   */
+  public void testEqualShares() {
+    setUpElection(2, 4);
+    load(new int[][] { { ids[0], ids[1] }, { ids[0], ids[2] },
+        { ids[0], ids[3] }, { ids[1] }, { ids[2] }, { ids[3] } }, new int[] {
+        10, 10, 10, 3, 2, 1 });
+    assertPiles(new int[] { 30, 3, 2, 1 }, 0);
+
+    distributeSurplus();
+    assertPiles(new int[] { 18, 8, 6, 4 }, 0);
+  }
+
+  private void setUpElection(final int seats, final int numberOfCandidates) {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(seats, seats);
+    election.setNumberOfCandidates(numberOfCandidates);
+    ids = new int[numberOfCandidates];
+    for (int i = 0; i < numberOfCandidates; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+  }
+
+  /**
+   * Load several copies of each kind of ballot, and start counting.
+   */
+  private void load(final int[][] kinds, final int[] numberOfEach) {
+    final BallotBox ballotBox = newBallotBox(kinds, numberOfEach);
+    numberOfBallots = ballotBox.size();
+    ballotCounting.load(ballotBox);
+    ballotCounting.startCounting();
+  }
+
+  /**
+   * Elect the first candidate, and distribute the surplus.
+   */
+  private void distributeSurplus() {
+    final int winner = ballotCounting.findHighestCandidate();
+    assertEquals(0, winner);
+    ballotCounting.electCandidate(winner);
+    ballotCounting.countStatus
+        .changeState(AbstractCountStatus.SURPLUS_AVAILABLE);
+    ballotCounting.distributeSurplus(winner);
+    ballotCounting.incrementCountNumber();
+  }
+
+  private void assertPiles(final int[] expected, final int nonTransferable) {
+    assertPiles(ballotCounting, ids, expected, nonTransferable,
+        numberOfBallots);
+  }
+}
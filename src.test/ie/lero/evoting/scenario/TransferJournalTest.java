@@ -0,0 +1,146 @@
+package ie.lero.evoting.scenario;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import junit.framework.TestCase;
+import election.tally.Ballot;
+import election.tally.BallotBox;
+import election.tally.BallotCounting;
+import election.tally.Constituency;
+import election.tally.TransferJournal;
+import election.tally.TransferJournalReader;
+
+/**
+ * The transfer journal of a count, replayed round by round onto the first
+ * preferences, leaves each pile as the count did.
+ */
+public class TransferJournalTest extends TestCase {
+
+  private static final int NUM_CANDIDATES = 6;
+  private static final int NUM_SEATS = 2;
+
+  /** Number of ballots of each kind, so that more than one round is needed */
+  private static final int[] NUMBER_OF_EACH_KIND = { 60, 45, 40, 30, 15, 10 };
+
+  private int[] ids;
+  private int[][] kinds;
+  private int numberOfBallots;
+
+  protected void setUp() {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.setNumberOfCandidates(NUM_CANDIDATES);
+    ids = new int[NUM_CANDIDATES];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      ids[i] = election.getCandidate(i).getCandidateID();
+    }
+    kinds = new int[][] { { ids[0], ids[1] }, { ids[1], ids[2] },
+        { ids[2], ids[0] }, { ids[3], ids[2] }, { ids[4], ids[3] },
+        { ids[5], ids[4] } };
+  }
+
+  public void testReplay() throws IOException {
+    for (int grouped = 0; grouped < 2; grouped++) {
+      final BallotCounting ballotCounting = newCounting(grouped == 1);
+      final int[] piles = getPiles(ballotCounting);
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ballotCounting.setJournal(new TransferJournal(Channels
+          .newChannel(bytes)));
+      ballotCounting.count();
+
+      final TransferJournalReader reader =
+        new TransferJournalReader(Channels.newChannel(new ByteArrayInputStream(
+            bytes.toByteArray())));
+      assertTrue(reader.isFinished());
+      assertTrue(1 < reader.getNumberOfRounds());
+      for (int i = 0; i < NUM_CANDIDATES; i++) {
+        assertEquals(ids[i], reader.getCandidateIDs()[i]);
+      }
+      for (int round = 1; round <= reader.getNumberOfRounds(); round++) {
+        final int[][] transfers = reader.getTransfers(round);
+        for (int from = 0; from < piles.length; from++) {
+          for (int to = 0; to < piles.length; to++) {
+            piles[from] -= transfers[from][to];
+            piles[to] += transfers[from][to];
+            assertRanges(reader.getRanges(round, from, to),
+                transfers[from][to]);
+          }
+        }
+      }
+      assertEquals(piles, getPiles(ballotCounting));
+    }
+  }
+
+  public void testNotAJournal() {
+    try {
+      new TransferJournalReader(Channels.newChannel(new ByteArrayInputStream(
+          new byte[] { 1, 2, 3 })));
+      fail("Journal was read from other bytes");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * The ranges of ballot box positions are in order, and cover the papers.
+   */
+  private void assertRanges(final int[] ranges, final int numberOfPapers) {
+    int covered = 0;
+    int end = 0;
+    for (int r = 0; r < ranges.length; r += 2) {
+      assertTrue(end <= ranges[r]);
+      assertTrue(0 < ranges[r + 1]);
+      end = ranges[r] + ranges[r + 1] + 1;
+      covered += ranges[r + 1];
+    }
+    assertTrue(end <= numberOfBallots + 1);
+    assertEquals(numberOfPapers, covered);
+  }
+
+  private void assertEquals(final int[] expected, final int[] actual) {
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], actual[i]);
+    }
+  }
+
+  /**
+   * Get the number of papers in each pile, with the non-transferable papers
+   * last.
+   */
+  private int[] getPiles(final BallotCounting ballotCounting) {
+    final int[] piles = new int[NUM_CANDIDATES + 1];
+    for (int i = 0; i < NUM_CANDIDATES; i++) {
+      piles[i] = ballotCounting.countBallotsFor(ids[i]);
+    }
+    piles[NUM_CANDIDATES] =
+      ballotCounting.countBallotsFor(Ballot.NONTRANSFERABLE);
+    return piles;
+  }
+
+  /**
+   * Set up and load a new count of the same candidates and ballots.
+   */
+  private BallotCounting newCounting(final boolean groupIdenticalBallots) {
+    final Constituency election = new Constituency();
+    election.setNumberOfSeats(NUM_SEATS, NUM_SEATS);
+    election.load(ids);
+    final BallotCounting ballotCounting = new BallotCounting();
+    ballotCounting.setup(election);
+    final BallotBox ballotBox = new BallotBox();
+    numberOfBallots = 0;
+    for (int b = 0; b < NUMBER_OF_EACH_KIND[0]; b++) {
+      for (int k = 0; k < kinds.length; k++) {
+        if (b < NUMBER_OF_EACH_KIND[k]) {
+          ballotBox.accept(kinds[k]);
+          numberOfBallots++;
+        }
+      }
+    }
+    ballotCounting.load(ballotBox, groupIdenticalBallots);
+    return ballotCounting;
+  }
+}
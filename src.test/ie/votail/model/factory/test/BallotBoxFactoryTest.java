@@ -5,6 +5,11 @@ import ie.votail.model.ElectoralScenario;
 import ie.votail.model.Method;
 import ie.votail.model.Outcome;
 import ie.votail.model.factory.BallotBoxFactory;
+import ie.votail.model.factory.ScopeSearch;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import junit.framework.TestCase;
 
 import org.junit.Test;
@@ -65,7 +70,70 @@ public class BallotBoxFactoryTest extends TestCase {
     ElectionConfiguration voteTable = voteFactory.extractBallots(scenario, 7);
     checkElectionConfiguration(voteTable);
   }
-  
+
+  @Test
+  public void testPredictedScopeIsSmallest() {
+    final ElectoralScenario scenario = new ElectoralScenario(Method.STV, false);
+    scenario.addOutcome(Outcome.Winner);
+    scenario.addOutcome(Outcome.Loser);
+    scenario.addOutcome(Outcome.EarlyLoser);
+    final BallotBoxFactory linearFactory = new BallotBoxFactory();
+    assertNotNull(linearFactory.extractBallots(scenario, 7));
+    final int smallest = linearFactory.getScopeHistory().getScope(scenario);
+
+    // An earlier run recorded a larger scope than needed
+    final BallotBoxFactory predictedFactory = new BallotBoxFactory();
+    predictedFactory.setScopeSearch(ScopeSearch.PREDICTED);
+    predictedFactory.getScopeHistory().record(scenario, 15);
+    assertNotNull(predictedFactory.extractBallots(scenario, 7));
+    assertEquals(smallest,
+        predictedFactory.getScopeHistory().getScope(scenario));
+  }
+
+  @Test
+  public void testRacedScopeIsSmallest() {
+    final ElectoralScenario scenario = new ElectoralScenario(Method.STV, false);
+    scenario.addOutcome(Outcome.Winner);
+    scenario.addOutcome(Outcome.Loser);
+    scenario.addOutcome(Outcome.EarlyLoser);
+    final BallotBoxFactory linearFactory = new BallotBoxFactory();
+    assertNotNull(linearFactory.extractBallots(scenario, 1, 17));
+    final int smallest = linearFactory.getScopeHistory().getScope(scenario);
+
+    // Larger scopes run alongside the smallest satisfiable one
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final BallotBoxFactory racingFactory = new BallotBoxFactory();
+      racingFactory.setScopeRacing(executor, 4);
+      assertNotNull(racingFactory.extractBallots(scenario, 1, 17));
+      assertEquals(smallest,
+          racingFactory.getScopeHistory().getScope(scenario));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testEstimateCost() {
+    final ElectoralScenario small = new ElectoralScenario(Method.STV, false);
+    small.addOutcome(Outcome.Winner);
+    small.addOutcome(Outcome.Loser);
+    final ElectoralScenario large = small.append(Outcome.EarlyLoser);
+    final ElectoralScenario tied = new ElectoralScenario(Method.STV, false);
+    tied.addOutcome(Outcome.TiedWinner);
+    tied.addOutcome(Outcome.TiedLoser);
+    final BallotBoxFactory ballotBoxFactory = new BallotBoxFactory();
+
+    final long smallCost = ballotBoxFactory.estimateCost(small, 1, 17);
+    assertTrue(smallCost < ballotBoxFactory.estimateCost(large, 1, 17));
+    assertTrue(smallCost < ballotBoxFactory.estimateCost(tied, 1, 17));
+
+    // A scenario solved before needs only one scope to be searched
+    ballotBoxFactory.getScopeHistory().record(small, 3);
+    assertTrue(ballotBoxFactory.estimateCost(small, 1, 17) < smallCost);
+  }
+
   /**
    * @param voteTable
    */
@@ -0,0 +1,59 @@
+package ie.votail.model.factory.test;
+
+import ie.votail.model.ElectoralScenario;
+import ie.votail.model.Method;
+import ie.votail.model.Outcome;
+import ie.votail.model.factory.ScopeHistory;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class ScopeHistoryTest extends TestCase {
+  
+  public void testEquivalentScenarios() {
+    final ScopeHistory history = new ScopeHistory();
+    final ElectoralScenario scenario = new ElectoralScenario(Method.STV, false);
+    scenario.addOutcome(Outcome.Winner);
+    scenario.addOutcome(Outcome.Loser);
+    final ElectoralScenario reordered =
+      new ElectoralScenario(Method.STV, false);
+    reordered.addOutcome(Outcome.Loser);
+    reordered.addOutcome(Outcome.Winner);
+    final ElectoralScenario plurality =
+      new ElectoralScenario(Method.Plurality, false);
+    plurality.addOutcome(Outcome.Winner);
+    plurality.addOutcome(Outcome.Loser);
+    
+    assertEquals(0, history.getScope(scenario));
+    history.record(scenario, 9);
+    assertEquals(9, history.getScope(reordered));
+    assertEquals(0, history.getScope(plurality));
+  }
+  
+  public void testSaveAndLoad() throws IOException {
+    final ScopeHistory history = new ScopeHistory();
+    final ElectoralScenario scenario = new ElectoralScenario(Method.STV, true);
+    scenario.addOutcome(Outcome.QuotaWinner);
+    scenario.addOutcome(Outcome.EarlyLoser);
+    history.record(scenario, 11);
+    final File file = File.createTempFile("scopes", ".properties");
+    try {
+      history.save(file);
+      final ScopeHistory later = new ScopeHistory();
+      later.load(file);
+      assertEquals(1, later.size());
+      assertEquals(11, later.getScope(scenario));
+    }
+    finally {
+      file.delete();
+    }
+  }
+  
+  public void testNoEarlierRun() throws IOException {
+    final ScopeHistory history = new ScopeHistory();
+    history.load(new File("no such scopes file"));
+    assertEquals(0, history.size());
+  }
+}
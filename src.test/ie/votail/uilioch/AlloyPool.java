@@ -1,51 +1,392 @@
 package ie.votail.uilioch;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+/**
+ * Runs Alloy tasks on a fixed number of workers, each within a time budget.
+ *
+ * @design A task which overruns its budget is interrupted, which stops the
+ *         search at its next stage, but a SAT solver already running cannot
+ *         be stopped. Such a task is therefore abandoned: its worker is
+ *         replaced, so that the other tasks go on, and the abandoned worker
+ *         is retired whenever it finishes. Workers are daemon threads, so
+ *         that an abandoned worker does not keep the program running.
+ */
 public class AlloyPool implements Executor {
-  protected final Channel<AlloyTask> workQueue;
-  
+
+  protected static final Logger logger = Logger.getAnonymousLogger();
+
+  /** Nanoseconds per millisecond */
+  protected static final long NANOS_PER_MILLI = 1000000L;
+
+  /** Number of workers, apart from those replacing abandoned ones */
+  protected final int numberOfWorkers;
+
+  /** Longest time a task may take, in milliseconds, or zero for no limit */
+  protected final long timeBudget;
+
+  protected final ThreadPoolExecutor workers;
+
+  /** Interrupts tasks which overrun their budget */
+  protected final ScheduledExecutorService watchdog;
+
+  /** Room for tasks, waiting or running, so that submission can block */
+  protected final Semaphore room;
+
+  /** Number of tasks submitted and not yet finished or abandoned */
+  protected int pending;
+
+  protected final AtomicInteger running = new AtomicInteger();
+  protected final AtomicInteger abandoned = new AtomicInteger();
+  protected final AtomicLong completed = new AtomicLong();
+  protected final AtomicLong failed = new AtomicLong();
+  protected final AtomicLong timedOut = new AtomicLong();
+
+  /** Total time from submission to finish of completed tasks */
+  protected final AtomicLong totalLatency = new AtomicLong();
+
+  /** Longest time from submission to finish of any completed task */
+  protected final AtomicLong maximumLatency = new AtomicLong();
+
+  /**
+   * @param nworkers
+   *          The number of tasks that run in parallel
+   * @param capacity
+   *          The number of tasks that may wait for a worker
+   * @param timeBudget
+   *          The longest time a task may run, in milliseconds, or zero for
+   *          no limit
+   */
+  //@ requires 0 < nworkers;
+  //@ requires 0 <= capacity;
+  //@ requires 0 <= timeBudget;
+  public AlloyPool(final int nworkers, final int capacity,
+      final long timeBudget) {
+    this.numberOfWorkers = nworkers;
+    this.timeBudget = timeBudget;
+    this.room = new Semaphore(nworkers + capacity);
+    this.workers =
+        new ThreadPoolExecutor(nworkers, nworkers, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), daemonThreads("alloy-worker"));
+    this.watchdog =
+        Executors.newSingleThreadScheduledExecutor(
+            daemonThreads("alloy-watchdog"));
+  }
+
+  /**
+   * @param nworkers
+   *          The number of tasks that run in parallel
+   * @param capacity
+   *          The number of tasks that may wait for a worker
+   */
+  //@ requires 0 < nworkers;
+  //@ requires 0 <= capacity;
+  public AlloyPool(final int nworkers, final int capacity) {
+    this(nworkers, capacity, 0);
+  }
+
+  /**
+   * Run a task once there is a worker free, waiting while there is no room
+   * for it.
+   *
+   * @param task
+   *          The task
+   * @throws RejectedExecutionException
+   *           If interrupted while waiting for room, or if the pool has been
+   *           shut down
+   */
   @Override
   public void execute(final Runnable task) {
     try {
-      workQueue.put((AlloyTask) task);
+      room.acquire();
     }
     catch (InterruptedException ie) {
       Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted before " + task
+          + " could be queued", ie);
+    }
+    synchronized (this) {
+      pending++;
+    }
+    final Tracked tracked = new Tracked(task);
+    try {
+      workers.execute(tracked.future);
+    }
+    catch (RuntimeException e) {
+      tracked.release();
+      throw e;
     }
   }
-  
+
   /**
-   * 
-   * @param nworkers
-   * @param capacity
+   * Wait until every task submitted so far has finished or been abandoned.
+   *
+   * @throws InterruptedException
+   *           If interrupted while waiting
    */
-  
-  //@ requires 0 <= nworkers;
-  //@ requires 0 <= capacity;
-  public AlloyPool(final int nworkers, final int capacity) {
-    workQueue = new ChannelQueue<AlloyTask>(capacity);
-    for (int i = 0; i < nworkers; ++i) {
-      activate();
+  public synchronized void awaitCompletion() throws InterruptedException {
+    while (0 < pending) {
+      wait();
+    }
+  }
+
+  /**
+   * Accept no more tasks, and stop the workers once the tasks already
+   * submitted have finished or been abandoned.
+   *
+   * @param timeout
+   *          The longest time to wait
+   * @param unit
+   *          The unit of the timeout
+   * @return <code>true</code> if every worker, apart from any abandoned,
+   *         stopped in time
+   * @throws InterruptedException
+   *           If interrupted while waiting
+   */
+  public boolean shutdown(final long timeout, final TimeUnit unit)
+      throws InterruptedException {
+    workers.shutdown();
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (this) {
+      long remaining;
+      while (0 < pending
+          && 0 < (remaining = deadline - System.nanoTime())) {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
     }
+    watchdog.shutdownNow();
+    synchronized (this) {
+      return pending == 0;
+    }
+  }
+
+  /**
+   * Interrupt every task and stop the workers, without waiting.
+   */
+  public void shutdownNow() {
+    workers.shutdownNow();
+    watchdog.shutdownNow();
   }
-  
-  protected final void activate() {
-    final Runnable runLoop = new Runnable() {
-      public void run() {
+
+  /** @return The number of tasks waiting for a worker */
+  public int getQueueDepth() {
+    return workers.getQueue().size();
+  }
+
+  /** @return The number of tasks running, apart from those abandoned */
+  public int getRunning() {
+    return running.get();
+  }
+
+  /** @return The number of tasks abandoned which are still running */
+  public int getAbandoned() {
+    return abandoned.get();
+  }
+
+  /**
+   * @return The number of tasks which finished, successfully or not, within
+   *         their time budget
+   */
+  public long getCompleted() {
+    return completed.get();
+  }
+
+  /**
+   * @return The number of tasks which failed with an exception within their
+   *         time budget
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /** @return The number of tasks which overran their time budget */
+  public long getTimedOut() {
+    return timedOut.get();
+  }
+
+  /** @return The mean time from submission to finish, in milliseconds */
+  public long getMeanLatencyMillis() {
+    final long number = completed.get();
+    return (number == 0) ? 0 : totalLatency.get() / number / NANOS_PER_MILLI;
+  }
+
+  /** @return The longest time from submission to finish, in milliseconds */
+  public long getMaximumLatencyMillis() {
+    return maximumLatency.get() / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Make one more worker, or one less, in place of an abandoned worker.
+   *
+   * @param change
+   *          One to add a worker, or minus one to retire one
+   */
+  protected synchronized void resize(final int change) {
+    final int size = workers.getCorePoolSize() + change;
+    if (workers.isShutdown() || size < numberOfWorkers) {
+      return;
+    }
+    if (0 < change) {
+      workers.setMaximumPoolSize(size);
+      workers.setCorePoolSize(size);
+    }
+    else {
+      workers.setCorePoolSize(size);
+      workers.setMaximumPoolSize(size);
+    }
+  }
+
+  /**
+   * Mark a task as no longer pending.
+   */
+  protected synchronized void finished() {
+    pending--;
+    notifyAll();
+  }
+
+  /**
+   * A task with its time of submission and the state needed to abandon it;
+   * its time budget starts when it starts to run, not while it waits.
+   */
+  protected class Tracked implements Runnable {
+    protected static final int WAITING = 0;
+    protected static final int RUNNING = 1;
+    protected static final int FINISHED = 2;
+    protected static final int ABANDONED = 3;
+
+    protected final Runnable task;
+    protected final long submitted = System.nanoTime();
+    protected final AtomicInteger state = new AtomicInteger(WAITING);
+    protected final AtomicBoolean released = new AtomicBoolean();
+    protected final FutureTask<Void> future = new FutureTask<Void>(this, null);
+    protected volatile Future<?> deadline;
+
+    protected Tracked(final Runnable task) {
+      this.task = task;
+    }
+
+    public void run() {
+      if (!state.compareAndSet(WAITING, RUNNING)) {
+        return;
+      }
+      running.incrementAndGet();
+      if (0 < timeBudget) {
         try {
-          for (;;) {
-            Runnable runner = (Runnable) (workQueue.take());
-            runner.run();
-          }
+          deadline = watchdog.schedule(new Runnable() {
+            public void run() {
+              overrun();
+            }
+          }, timeBudget, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+          // Shutting down, so the task runs without a budget
+        }
+      }
+      boolean succeeded = false;
+      try {
+        task.run();
+        succeeded = true;
+      }
+      catch (RuntimeException e) {
+        logger.severe(e.toString());
+      }
+      catch (Error e) {
+        logger.severe(e.toString());
+      }
+      finally {
+        final Future<?> pendingDeadline = deadline;
+        if (pendingDeadline != null) {
+          pendingDeadline.cancel(false);
+        }
+        if (state.compareAndSet(RUNNING, FINISHED)) {
+          finish(succeeded);
         }
-        catch (InterruptedException ie) {
-          Logger log = Logger.getAnonymousLogger();
-          log.severe(ie.toString());
+        else {
+          // Its replacement has taken over, so this worker retires
+          abandoned.decrementAndGet();
+          resize(-1);
         }
       }
+    }
+
+    /**
+     * Count the task as completed, unless it was abandoned, and give up its
+     * room.
+     *
+     * @param succeeded
+     *          <code>false</code> if the task failed with an exception
+     */
+    protected void finish(final boolean succeeded) {
+      if (!succeeded) {
+        failed.incrementAndGet();
+      }
+      final long latency = System.nanoTime() - submitted;
+      totalLatency.addAndGet(latency);
+      long longest = maximumLatency.get();
+      while (longest < latency
+          && !maximumLatency.compareAndSet(longest, latency)) {
+        longest = maximumLatency.get();
+      }
+      completed.incrementAndGet();
+      running.decrementAndGet();
+      release();
+    }
+
+    /**
+     * Interrupt the task, and replace its worker, unless it has finished.
+     */
+    protected void overrun() {
+      if (state.compareAndSet(RUNNING, ABANDONED)) {
+        timedOut.incrementAndGet();
+        logger.warning("Alloy task overran its budget of " + timeBudget
+            + " ms: " + task);
+        running.decrementAndGet();
+        abandoned.incrementAndGet();
+        resize(1);
+        future.cancel(true);
+        release();
+      }
+    }
+
+    /**
+     * Give up the room taken by the task, once only.
+     */
+    protected void release() {
+      if (released.compareAndSet(false, true)) {
+        room.release();
+        finished();
+      }
+    }
+  }
+
+  /**
+   * @param name
+   *          The name of each thread
+   * @return A factory for daemon threads with the given name
+   */
+  protected static ThreadFactory daemonThreads(final String name) {
+    final AtomicInteger number = new AtomicInteger();
+    return new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread =
+            new Thread(runnable, name + "-" + number.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
     };
-    new Thread(runLoop).start();
   }
 }
@@ -21,9 +21,19 @@ public class AlloyTask implements Runnable {
   
   public AlloyTask(final ObjectOutputStream out, 
       final ElectoralScenario scenario, final int maximumScope) {
+    this(out, scenario, maximumScope, new BallotBoxFactory());
+  }
+  
+  /**
+   * @param ballotBoxFactory
+   *          The factory to use, which may be shared with other tasks
+   */
+  public AlloyTask(final ObjectOutputStream out, 
+      final ElectoralScenario scenario, final int maximumScope,
+      final BallotBoxFactory ballotBoxFactory) {
     this.scenario = scenario;
     this.out = out;
-    this.ballotBoxFactory = new BallotBoxFactory();
+    this.ballotBoxFactory = ballotBoxFactory;
     this.analysis = new Analysis();
     this.limit = maximumScope;
   }
@@ -39,6 +49,11 @@ public class AlloyTask implements Runnable {
       if (ballots == null) {
         logger.info("Failed to find a solution for scenario " + scenario);
       }
+      else if (Thread.currentThread().isInterrupted()) {
+        // Abandoned by the pool, which may have closed the output already
+        logger.info("Not writing ballot box for abandoned scenario "
+          + scenario);
+      }
       else {
         logger.info("Writing newly generated ballot box for scenario " +
           scenario);
@@ -54,12 +69,29 @@ public class AlloyTask implements Runnable {
   }
   
   /**
+   * @return The estimated cost of finding a ballot box for this scenario
+   */
+  public /*@ pure @*/ long estimateCost() {
+    return ballotBoxFactory.estimateCost(scenario, initialScope, limit);
+  }
+
+  @Override
+  public String toString() {
+    return "AlloyTask for " + scenario;
+  }
+  
+  /**
+   * Write a ballot box, unless this task has been abandoned.
+   * 
    * @param ballotBox
    * @throws IOException
    */
   protected void writeBallots(final ElectionData ballotBox)
       throws IOException {
     synchronized(out) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
       out.writeObject(ballotBox);
       out.flush();
     }
@@ -8,6 +8,7 @@ import ie.votail.model.data.ElectionData;
 import ie.votail.model.factory.BallotBoxFactory;
 import ie.votail.model.factory.ScenarioFactory;
 import ie.votail.model.factory.ScenarioList;
+import ie.votail.model.factory.ScopeSearch;
 
 import java.io.EOFException;
 import java.io.File;
@@ -17,10 +18,28 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.FileHandler;
 
 public class UniversalTestGenerator extends Uilioch {
   
+  /** Scope at which each scenario was solved by earlier runs */
+  protected static final String SCOPES_FILENAME =
+    FILENAME_PREFIX + "scopes.properties";
+  
+  /** Default longest time to spend on one scenario, in minutes */
+  protected static final long DEFAULT_TIME_BUDGET = 30;
+  
+  /** Longest time to wait for running tasks when shutting down, in minutes */
+  protected static final long SHUTDOWN_TIMEOUT = 1;
+  
   protected BallotBoxFactory ballotBoxFactory;
   protected ScenarioFactory scenarioFactory;
   protected AlloyPool taskPool;
@@ -30,7 +49,7 @@ public class UniversalTestGenerator extends Uilioch {
   protected int maxScope;
   
   /**
-   * Prepare for test generation
+   * Prepare for test generation, with the default time budget per scenario
    * 
    * @param workers
    *          The number of tasks than run in parallel
@@ -42,9 +61,37 @@ public class UniversalTestGenerator extends Uilioch {
     @ requires 0 < width; */
   public UniversalTestGenerator(final int workers, final int capacity, 
       final int scopeLimit) {
+    this(workers, capacity, scopeLimit,
+      TimeUnit.MINUTES.toMillis(DEFAULT_TIME_BUDGET));
+  }
+  
+  /**
+   * Prepare for test generation
+   * 
+   * @param workers
+   *          The number of tasks than run in parallel
+   * @param capacity
+   *          The expected maximum queue length per task
+   * @param scopeLimit
+   *          The largest scope to try for any scenario
+   * @param timeBudget
+   *          The longest time to spend on one scenario, in milliseconds
+   */
+  /*@ requires 0 < workers;
+    @ requires 0 < capacity;
+    @ requires 0 < timeBudget; */
+  public UniversalTestGenerator(final int workers, final int capacity, 
+      final int scopeLimit, final long timeBudget) {
     super();
     
     ballotBoxFactory = new BallotBoxFactory();
+    ballotBoxFactory.setScopeSearch(ScopeSearch.PREDICTED);
+    try {
+      ballotBoxFactory.getScopeHistory().load(new File(SCOPES_FILENAME));
+    }
+    catch (IOException e) {
+      logger.info("not able to read scopes of earlier runs " + e.getMessage());
+    }
     scenarioFactory = new ScenarioFactory();
     this.maxScope = scopeLimit;
     
@@ -61,7 +108,7 @@ public class UniversalTestGenerator extends Uilioch {
       logger.info("not able to find logfile " + e1.getMessage());
     }
     
-    taskPool = new AlloyPool(workers, capacity);
+    taskPool = new AlloyPool(workers, capacity, timeBudget);
     
     dataFilename = getFilename();
     existingDataFilename = dataFilename + System.currentTimeMillis();
@@ -88,15 +135,27 @@ public class UniversalTestGenerator extends Uilioch {
     try {
       final FileOutputStream fos = new FileOutputStream(dataFilename);
       final ObjectOutputStream out = new ObjectOutputStream(fos);
+      final List<AlloyTask> tasks = new ArrayList<AlloyTask>();
       
       for (int seats = 1; seats <= numberOfSeats; seats++) {
         for (int candidates = 1 + seats; candidates <= numberOfCandidates; candidates++) {
           
-          createBallotBoxes(seats, candidates, method, out);
+          createBallotBoxes(seats, candidates, method, out, tasks);
         }
       }
-      out.close();
+      schedule(tasks);
+      taskPool.awaitCompletion();
+      logger.info(taskPool.getCompleted() + " tasks completed, "
+          + taskPool.getTimedOut() + " timed out, "
+          + taskPool.getFailed() + " failed; mean latency "
+          + taskPool.getMeanLatencyMillis() + " ms, longest "
+          + taskPool.getMaximumLatencyMillis() + " ms");
+      synchronized (out) {
+        // A task abandoned by now was interrupted first, so will not write
+        out.close();
+      }
       fos.close();
+      ballotBoxFactory.getScopeHistory().save(new File(SCOPES_FILENAME));
     }
     catch (FileNotFoundException e) {
       logger.severe(e.toString());
@@ -104,6 +163,10 @@ public class UniversalTestGenerator extends Uilioch {
     catch (IOException e) {
       logger.severe(e.toString());
     }
+    catch (InterruptedException e) {
+      logger.severe(e.toString());
+      Thread.currentThread().interrupt();
+    }
     
     logger.info("Finished.");
   }
@@ -141,11 +204,12 @@ public class UniversalTestGenerator extends Uilioch {
    * @param in
    * @param out
    *          Output file stream for generated data
-   * @param scope
-   *          Maximum scope for Alloy solution
+   * @param tasks
+   *          The tasks to which a task is added for each new scenario
    */
   protected void createBallotBoxes(final int seats, final int candidates,
-      final Method method, final ObjectOutputStream out) {
+      final Method method, final ObjectOutputStream out,
+      final /*@ non_null @*/ List<AlloyTask> tasks) {
     
     final ScenarioList scenarioList = 
       scenarioFactory.find(candidates, seats, method);
@@ -158,7 +222,8 @@ public class UniversalTestGenerator extends Uilioch {
       
       // Check if this scenario already generated
       if (!alreadyExists(scenario, out)) {
-          taskPool.execute(new AlloyTask(out, scenario, maxScope));
+          tasks.add(new AlloyTask(out, scenario, maxScope,
+            ballotBoxFactory));
           count++;
       }
     }
@@ -167,6 +232,37 @@ public class UniversalTestGenerator extends Uilioch {
         + " with " + candidates + " candidates for " + seats + " seats.");
   }
   
+  /**
+   * Run the tasks, the most expensive first.
+   * 
+   * @design Each worker takes the next task from the queue as it becomes
+   *         free, so that starting the longest tasks first leaves only short
+   *         tasks for the end, rather than one long task running alone.
+   * @param tasks
+   *          The tasks to run
+   */
+  protected void schedule(final /*@ non_null @*/ List<AlloyTask> tasks) {
+    final Map<AlloyTask, Long> costs = new HashMap<AlloyTask, Long>();
+    for (AlloyTask task : tasks) {
+      costs.put(task, Long.valueOf(task.estimateCost()));
+    }
+    Collections.sort(tasks, new Comparator<AlloyTask>() {
+      public int compare(final AlloyTask first, final AlloyTask second) {
+        return costs.get(second).compareTo(costs.get(first));
+      }
+    });
+    for (AlloyTask task : tasks) {
+      logger.fine("Estimated cost " + costs.get(task) + " of " + task);
+      try {
+        taskPool.execute(task);
+      }
+      catch (RejectedExecutionException e) {
+        logger.severe("Not all scenarios were scheduled: " + e.getMessage());
+        return;
+      }
+    }
+  }
+  
   /**
    * Check if data for this scenario already exists
    * 
@@ -234,15 +330,41 @@ public class UniversalTestGenerator extends Uilioch {
   
   /**
    * Generate enough test data for 100% path coverage
+   * 
+   * @param args
+   *          Optionally, the longest time to spend on one scenario, in
+   *          minutes
    */
   public static void main(final String[] args) {
+    final long timeBudget = (args.length > 0) ? Long.parseLong(args[0])
+      : DEFAULT_TIME_BUDGET;
     final UniversalTestGenerator uilioch = 
-      new UniversalTestGenerator(17, 17, 17); // 17 tasks with max scope of 17
+      new UniversalTestGenerator(17, 17, 17, // 17 tasks with max scope of 17
+        TimeUnit.MINUTES.toMillis(timeBudget));
     
     uilioch.generateTests(1, 5, Method.STV); // IRV 1-seat
     uilioch.generateTests(3, 7, Method.STV); // PR-STV 3-seat
     uilioch.generateTests(4, 9, Method.STV); // PR-STV 4-seat
     uilioch.generateTests(5, 11, Method.STV); // PR-STV 5-seat
     uilioch.generateTests(1, 11, Method.Plurality); // First-past-the-post
+    uilioch.shutdown();
+  }
+  
+  /**
+   * Stop the workers once every task has finished, abandoning any still
+   * running after a short wait.
+   */
+  public void shutdown() {
+    try {
+      if (!taskPool.shutdown(SHUTDOWN_TIMEOUT, TimeUnit.MINUTES)) {
+        logger.warning(taskPool.getAbandoned()
+            + " abandoned tasks still running");
+        taskPool.shutdownNow();
+      }
+    }
+    catch (InterruptedException e) {
+      taskPool.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
   }
 }
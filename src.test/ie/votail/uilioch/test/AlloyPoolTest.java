@@ -0,0 +1,105 @@
+package ie.votail.uilioch.test;
+
+import ie.votail.uilioch.AlloyPool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class AlloyPoolTest extends TestCase {
+  
+  public void testAwaitCompletion() throws InterruptedException {
+    final AlloyPool pool = new AlloyPool(2, 2);
+    final AtomicInteger finished = new AtomicInteger();
+    for (int i = 0; i < 10; i++) {
+      pool.execute(new Runnable() {
+        public void run() {
+          finished.incrementAndGet();
+        }
+      });
+    }
+    pool.awaitCompletion();
+    assertEquals(10, finished.get());
+    assertEquals(10, pool.getCompleted());
+    assertEquals(0, pool.getQueueDepth());
+    assertEquals(0, pool.getRunning());
+    assertTrue(pool.shutdown(1, TimeUnit.SECONDS));
+  }
+  
+  public void testStuckTaskAbandoned() throws InterruptedException {
+    final AlloyPool pool = new AlloyPool(1, 1, 100);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger finished = new AtomicInteger();
+    
+    // Ignores interruption, as a running SAT solver does
+    pool.execute(new Runnable() {
+      public void run() {
+        boolean waiting = true;
+        while (waiting) {
+          try {
+            waiting = !release.await(10, TimeUnit.SECONDS);
+          }
+          catch (InterruptedException e) {
+            // keep going
+          }
+        }
+      }
+    });
+    pool.execute(new Runnable() {
+      public void run() {
+        finished.incrementAndGet();
+      }
+    });
+    pool.awaitCompletion();
+    assertEquals(1, finished.get());
+    assertEquals(1, pool.getTimedOut());
+    assertEquals(1, pool.getAbandoned());
+    
+    release.countDown();
+    assertTrue(pool.shutdown(1, TimeUnit.SECONDS));
+    for (int wait = 0; wait < 100 && 0 < pool.getAbandoned(); wait++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, pool.getAbandoned());
+    
+    // Only the task which kept to its budget counts as completed
+    assertEquals(1, pool.getCompleted());
+    assertEquals(0, pool.getFailed());
+  }
+  
+  public void testInterruptedSubmission() throws InterruptedException {
+    final AlloyPool pool = new AlloyPool(1, 0);
+    Thread.currentThread().interrupt();
+    try {
+      pool.execute(new Runnable() {
+        public void run() {
+          // never queued
+        }
+      });
+      fail("An interrupted submission must not be dropped silently");
+    }
+    catch (RejectedExecutionException e) {
+      assertTrue(e.getCause() instanceof InterruptedException);
+      assertTrue(Thread.interrupted());
+    }
+    pool.awaitCompletion();
+    assertEquals(0, pool.getCompleted());
+    assertTrue(pool.shutdown(1, TimeUnit.SECONDS));
+  }
+  
+  public void testFailedTask() throws InterruptedException {
+    final AlloyPool pool = new AlloyPool(1, 0);
+    pool.execute(new Runnable() {
+      public void run() {
+        throw new IllegalStateException("expected");
+      }
+    });
+    pool.awaitCompletion();
+    assertEquals(1, pool.getFailed());
+    assertEquals(1, pool.getCompleted());
+    assertTrue(pool.shutdown(1, TimeUnit.SECONDS));
+  }
+}
@@ -1,5 +1,12 @@
 package election.tally;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 //@ refines "AbstractBallotCounting.jml";
 
@@ -44,16 +51,119 @@ package election.tally;
 public abstract class AbstractBallotCounting extends ElectionStatus {
   
   public static final int NONE_FOUND_YET = -1;
+
+  /** First four bytes of a checkpoint of a count */
+  protected static final int CHECKPOINT_MAGIC = 0x566F7443;
+
+  /** Layout of the checkpoint written by this version */
+  protected static final int CHECKPOINT_VERSION = 1;
   
   /** List of candidates for election */
   protected /*@ spec_public @*/ Candidate[] candidates;
   //@ protected represents candidateList <- candidates;
+
+  /**
+   * Position in the list of candidates of each candidate ID, offset by the
+   * lowest candidate ID, or <code>NONE_FOUND_YET</code> for other IDs;
+   * <code>null</code> if the candidate IDs are too widely spread to index.
+   */
+  protected /*@ spec_public nullable @*/ int[] candidateIndex;
+
+  /** Lowest candidate ID in this election */
+  protected /*@ spec_public @*/ int lowestCandidateID;
+
+  /** Status of each candidate, by position in the list of candidates */
+  /*@ invariant (PRELOAD <= state) ==> (\forall int i;
+    @   0 <= i && i < totalNumberOfCandidates;
+    @   candidateStatus[i] == candidates[i].getStatus());
+    @*/
+  protected /*@ spec_public @*/ byte[] candidateStatus;
+
+  /** Widest spread of candidate IDs which is always indexed */
+  protected static final int MIN_INDEX_SPAN = 1024;
+
+  /** Widest spread of candidate IDs indexed, per candidate */
+  protected static final int INDEX_SPAN_PER_CANDIDATE = 64;
   
   /** List of contents of each ballot paper that will be counted. */
-  protected /*@ spec_public @*/ Ballot[] ballots;
-  //@ protected represents ballotsToCount <- ballots;
-  //@ invariant (PRECOUNT <= state) ==> \nonnullelements (ballotsToCount);
-  
+  //@ invariant (PRECOUNT <= state) ==> ballots != null;
+  protected /*@ spec_public @*/ BallotStore ballots;
+
+  /**
+   * Ballot pile index; the ballots currently assigned to each candidate, by
+   * position in the list of candidates, as positions in the ballot store.
+   * The last pile holds the non-transferable ballots.
+   *
+   * @design Each pile is kept as a growable array so that transfers only need
+   *         to visit the ballots in the pile being distributed, rather than
+   *         the whole ballot box.
+   */
+  /*@ invariant (PRECOUNT <= state) ==>
+    @   piles.length == totalNumberOfCandidates + 1;
+    @*/
+  protected /*@ spec_public @*/ int[][] piles;
+
+  /** Number of ballots in each pile */
+  /*@ invariant (PRECOUNT <= state) ==> (\forall int p;
+    @   0 <= p && p < piles.length; pileSize[p] <= piles[p].length);
+    @*/
+  protected /*@ spec_public @*/ int[] pileSize;
+
+  /** Is each pile still in the same order as the ballot box? */
+  protected /*@ spec_public @*/ boolean[] pileInOrder;
+
+  /** Number of ballot papers in each pile */
+  /*@ invariant (PRECOUNT <= state) ==> (\forall int p;
+    @   0 <= p && p < piles.length; pileSize[p] <= pileVotes[p]);
+    @*/
+  protected /*@ spec_public @*/ int[] pileVotes;
+
+  /**
+   * Number of first preference votes for each candidate, by position in the
+   * candidate list, or <code>null</code> until first needed.
+   */
+  protected /*@ spec_public nullable @*/ transient int[] firstPreferenceVotes;
+
+  /** Number of times a ballot has been moved from one pile to another */
+  //@ public constraint \old(ballotsTransferred) <= ballotsTransferred;
+  protected /*@ spec_public @*/ transient long ballotsTransferred;
+
+  /** Number of times a ballot has been examined */
+  //@ public constraint \old(ballotsScanned) <= ballotsScanned;
+  protected /*@ spec_public @*/ transient long ballotsScanned;
+
+  /** Live metrics of this count */
+  protected final transient /*@ spec_public non_null @*/ CountMetrics metrics =
+    new CountMetrics(this);
+
+  /** Record of every movement of ballots, if any */
+  protected transient /*@ spec_public nullable @*/ TransferJournal journal;
+
+  /**
+   * Number of papers moved from each pile to each pile in this round, or
+   * <code>null</code> if not needed
+   */
+  protected transient /*@ spec_public nullable @*/ int[][] roundTransfers;
+
+  /**
+   * Transfer matrix row for the last pile examined; the number of ballots
+   * whose next continuing preference is each candidate, by position in the
+   * candidate list, with the non-transferable ballots in the last element.
+   */
+  protected transient int[] transferVector;
+
+  /** Pile from which the transfer vector was calculated */
+  protected transient int transferVectorSource = NONE_FOUND_YET;
+
+  /** Number of ballot movements when the transfer vector was calculated */
+  protected transient long transferVectorMoves;
+
+  /** Number of continuing candidates when the transfer vector was calculated */
+  protected transient int transferVectorContinuing;
+
+  /** Sum of transfers to continuing candidates in the transfer vector */
+  protected transient int transferVectorTotal;
+
   /** Total number of candidates for election */
   protected /*@ spec_public @*/ int totalNumberOfCandidates;
   //@ public represents totalCandidates <- totalNumberOfCandidates;
@@ -191,6 +301,82 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
       return 0;
   }
   
+  /**
+   * Can the surpluses of some elected candidates be left undistributed for
+   * now, because moving them could not change the outcome of the next step
+   * in the count?
+   * 
+   * <p> This is so when the ballots which could be moved could neither bring
+   * any continuing candidate to the quota or to the deposit saving threshold,
+   * nor lift the lowest continuing candidate to the next lowest, and when
+   * the exclusion of the lowest candidate could not then bring anyone to the
+   * quota before the surpluses are distributed.
+   * 
+   * @design A distribution may move more ballots than the surplus, so each
+   *         continuing candidate is taken to gain every ballot which could be
+   *         transferred to them, which is as many as any distribution moves.
+   * @param winners
+   *        The position of each elected candidate whose surplus is not yet
+   *        distributed
+   * @param numberOfWinners
+   *        The number of such candidates
+   * @return <code>true</code> if the distributions may be deferred
+   */
+  /*@ requires 0 <= numberOfWinners && numberOfWinners <= winners.length;
+    @ requires PRECOUNT <= state;
+    @*/
+  public/*@ pure @*/boolean isSurplusDeferrable(
+      final /*@ non_null @*/ int[] winners, final int numberOfWinners) {
+    final int[] gains = new int[totalNumberOfCandidates];
+    for (int w = 0; w < numberOfWinners; w++) {
+      final int[] transfers = getTransferVector(candidates[winners[w]]);
+      for (int i = 0; i < totalNumberOfCandidates; i++) {
+        gains[i] += transfers[i];
+      }
+    }
+    final int quota = getQuota();
+    final int[] votes = new int[totalNumberOfCandidates];
+    int lowest = NONE_FOUND_YET;
+    int nextLowestVotes = Integer.MAX_VALUE;
+    for (int i = 0; i < totalNumberOfCandidates; i++) {
+      if (candidateStatus[i] == CandidateStatus.CONTINUING) {
+        votes[i] = countBallotsFor(candidates[i].getCandidateID());
+        if (quota <= votes[i] + gains[i]) {
+          return false;
+        }
+        if (votes[i] < savingThreshold
+            && savingThreshold <= votes[i] + gains[i]) {
+          return false;
+        }
+        if (lowest == NONE_FOUND_YET || votes[i] < votes[lowest]) {
+          if (lowest != NONE_FOUND_YET) {
+            nextLowestVotes = votes[lowest];
+          }
+          lowest = i;
+        }
+        else if (votes[i] < nextLowestVotes) {
+          nextLowestVotes = votes[i];
+        }
+      }
+    }
+    if (nextLowestVotes == Integer.MAX_VALUE) {
+      return true;
+    }
+    if (nextLowestVotes <= votes[lowest] + gains[lowest]) {
+      return false;
+    }
+    
+    // Ballots passing through the lowest candidate may go on to anyone
+    final int[] exclusion = getTransferVector(candidates[lowest]);
+    for (int i = 0; i < totalNumberOfCandidates; i++) {
+      if (i != lowest && candidateStatus[i] == CandidateStatus.CONTINUING
+          && quota <= votes[i] + gains[i] + gains[lowest] + exclusion[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
   /**
    * Determine if the candidate has enough votes to save his or her deposit.
    * <BON>query "Has this candidate saved his or her deposit?"</BON>
@@ -238,6 +424,38 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @*/
   public abstract void distributeSurplus(int candidateWithSurplus);
   
+  /**
+   * Get the live metrics of this count, which may be registered as a JMX
+   * MBean to watch the count while it runs.
+   * 
+   * @return The metrics of this count
+   */
+  public /*@ pure non_null @*/ CountMetrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * Get the state of the count within the current round.
+   * 
+   * @return One of the states of {@link AbstractCountStatus}, or
+   *         {@link #NONE_FOUND_YET} if not known
+   */
+  protected /*@ pure @*/ int getCountState() {
+    return NONE_FOUND_YET;
+  }
+  
+  /**
+   * Record every movement of ballots from one pile to another.
+   * 
+   * @param journal
+   *        Where to record each movement, or <code>null</code> for nowhere
+   */
+  //@ assignable this.journal;
+  //@ ensures this.journal == journal;
+  public void setJournal(final /*@ nullable @*/ TransferJournal journal) {
+    this.journal = journal;
+  }
+  
   /**
    * Load candidate details and number of seats.
    * 
@@ -254,7 +472,8 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @     assignable totalNumberOfCandidates;
     @     assignable numberOfSeats, totalRemainingSeats;
     @     assignable totalNumberOfSeats;
-    @     assignable candidates;
+    @     assignable candidates, candidateIndex, lowestCandidateID;
+    @     assignable candidateStatus;
     @     ensures state == PRELOAD;
     @     ensures totalCandidates == constituency.getNumberOfCandidates();
     @     ensures seats == constituency.getNumberOfSeatsInThisElection();
@@ -273,10 +492,77 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     for (int i = 0; i < candidates.length; i++) {
       this.candidates[i] = constituency.getCandidate(i);
     }
+    buildCandidateIndex();
     this.totalRemainingSeats = this.numberOfSeats;
     this.status = PRELOAD;
   }
   
+  /**
+   * Index the candidate IDs, so that the position and status of a candidate
+   * can be found from its ID by reading an array.
+   */
+  /*@ protected normal_behavior
+    @   assignable candidateIndex, lowestCandidateID, candidateStatus;
+    @   ensures candidateStatus.length == totalNumberOfCandidates;
+    @   ensures (\forall int i; 0 <= i && i < totalNumberOfCandidates;
+    @     getCandidateIndex(candidates[i].getCandidateID()) <= i);
+    @*/
+  protected void buildCandidateIndex() {
+    candidateStatus = new byte[totalNumberOfCandidates];
+    int lowest = Integer.MAX_VALUE;
+    int highest = Integer.MIN_VALUE;
+    for (int i = 0; i < totalNumberOfCandidates; i++) {
+      candidateStatus[i] = candidates[i].getStatus();
+      lowest = Math.min(lowest, candidates[i].getCandidateID());
+      highest = Math.max(highest, candidates[i].getCandidateID());
+    }
+
+    lowestCandidateID = lowest;
+    candidateIndex = null;
+    final long span = (long) highest - lowest + 1;
+    if (0 < totalNumberOfCandidates && (span <= MIN_INDEX_SPAN
+        || span <= (long) INDEX_SPAN_PER_CANDIDATE * totalNumberOfCandidates)) {
+      candidateIndex = new int[(int) span];
+      Arrays.fill(candidateIndex, NONE_FOUND_YET);
+      for (int i = 0; i < totalNumberOfCandidates; i++) {
+        final int slot = candidates[i].getCandidateID() - lowest;
+        if (candidateIndex[slot] == NONE_FOUND_YET) {
+          candidateIndex[slot] = i;
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the position of a candidate in the list of candidates.
+   *
+   * @param candidateID
+   *        The internal identifier of this candidate
+   * @return The position of the candidate, or <code>NONE_FOUND_YET</code> if
+   *         this is not a candidate in this election
+   */
+  /*@ ensures (0 <= \result) ==>
+    @   candidateID == candidates[\result].getCandidateID();
+    @ ensures (\result == NONE_FOUND_YET) <==> (\forall int i;
+    @   0 <= i && i < totalNumberOfCandidates;
+    @   candidateID != candidates[i].getCandidateID());
+    @*/
+  protected/*@ pure @*/int getCandidateIndex(final int candidateID) {
+    if (candidateIndex != null) {
+      final long slot = (long) candidateID - lowestCandidateID;
+      if (0 <= slot && slot < candidateIndex.length) {
+        return candidateIndex[(int) slot];
+      }
+      return NONE_FOUND_YET;
+    }
+    for (int i = 0; i < totalNumberOfCandidates; i++) {
+      if (candidateID == candidates[i].getCandidateID()) {
+        return i;
+      }
+    }
+    return NONE_FOUND_YET;
+  }
+  
   /**
    * Open the ballot box for counting.
    * 
@@ -287,23 +573,364 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
   /*@ also
     @   protected normal_behavior
     @     requires state == PRELOAD;
-    @     assignable state, totalVotes, ballotsToCount, ballots;
+    @     assignable state, totalVotes, ballots;
     @     assignable totalNumberOfVotes;
     @     ensures state == PRECOUNT;
     @     ensures totalVotes == ballotBox.numberOfBallots;
-    @     ensures totalVotes == ballotsToCount.length;
+    @     ensures totalVotes == ballots.size();
     @*/
   public void load(final/*@ non_null @*/BallotBox ballotBox) {
+    load(ballotBox, false);
+  }
+
+  /**
+   * Open the ballot box for counting, optionally grouping identical ballot
+   * papers into weighted ballots.
+   *
+   * @design The ballots are copied into a columnar ballot store. A weighted
+   *         ballot remembers the position in the ballot box of each of its
+   *         papers, and is only split when a transfer takes some but not all
+   *         of them, so that the same papers are chosen as when each paper is
+   *         counted separately.
+   * @param ballotBox
+   *        The ballots to be counted, already "shuffled and mixed".
+   * @param groupIdenticalBallots
+   *        Count identical ballot papers as one weighted ballot
+   */
+  /*@ also
+    @   protected normal_behavior
+    @     requires state == PRELOAD;
+    @     assignable state, totalVotes, ballots;
+    @     assignable totalNumberOfVotes;
+    @     ensures state == PRECOUNT;
+    @     ensures totalVotes == ballotBox.numberOfBallots;
+    @     ensures totalVotes == ballots.getNumberOfPapers();
+    @     ensures !groupIdenticalBallots ==> totalVotes == ballots.size();
+    @*/
+  public void load(final/*@ non_null @*/BallotBox ballotBox,
+      final boolean groupIdenticalBallots) {
     
-    ballots = new Ballot[ballotBox.numberOfBallots];
+    startLoading(ballotBox.numberOfBallots, groupIdenticalBallots);
     while (ballotBox.isNextBallot()) {
-      ballots[totalNumberOfVotes++] = ballotBox.getNextBallot();
+      final int numberOfEntries = ballots.size();
+      fileBallot(ballots.add(ballotBox.getNextBallot()), numberOfEntries);
     }
+    finishLoading();
+  }
+
+  /**
+   * Load ballot papers as they are read, without first putting them in a
+   * ballot box.
+   * 
+   * @param preferenceLists
+   *        The preferences of each ballot paper, already "shuffled and mixed"
+   * @param groupIdenticalBallots
+   *        Count identical ballot papers as one weighted ballot
+   */
+  /*@ protected normal_behavior
+    @   requires state == PRELOAD;
+    @   assignable state, totalVotes, ballots;
+    @   assignable totalNumberOfVotes;
+    @   ensures state == PRECOUNT;
+    @   ensures totalVotes == ballots.getNumberOfPapers();
+    @*/
+  public void load(final/*@ non_null @*/Iterator<int[]> preferenceLists,
+      final boolean groupIdenticalBallots) {
+    
+    startLoading(0, groupIdenticalBallots);
+    while (preferenceLists.hasNext()) {
+      accept(preferenceLists.next());
+    }
+    finishLoading();
+  }
+
+  /**
+   * Load ballot papers as they are read from a source which may know how
+   * many there are, such as a stream of preference lists.
+   * 
+   * @param preferenceLists
+   *        The preferences of each ballot paper, already "shuffled and mixed"
+   * @param groupIdenticalBallots
+   *        Count identical ballot papers as one weighted ballot
+   */
+  /*@ protected normal_behavior
+    @   requires state == PRELOAD;
+    @   assignable state, totalVotes, ballots;
+    @   assignable totalNumberOfVotes;
+    @   ensures state == PRECOUNT;
+    @   ensures totalVotes == ballots.getNumberOfPapers();
+    @*/
+  public void load(final/*@ non_null @*/Spliterator<int[]> preferenceLists,
+      final boolean groupIdenticalBallots) {
+    
+    final long size = preferenceLists.getExactSizeIfKnown();
+    startLoading((int) Math.max(0, Math.min(size, Integer.MAX_VALUE)),
+        groupIdenticalBallots);
+    preferenceLists.forEachRemaining(new Consumer<int[]>() {
+      public void accept(final int[] preferenceList) {
+        AbstractBallotCounting.this.accept(preferenceList);
+      }
+    });
+    finishLoading();
+  }
+
+  /**
+   * Count ballots which have already been loaded into a ballot store, which
+   * may be shared with other counts of the same ballots.
+   * 
+   * @design The preferences of each ballot are shared with the store, and
+   *         only the position of each ballot within its preferences is
+   *         copied, so the store itself is left as it was.
+   * @param loadedBallots
+   *        The ballots to be counted, already "shuffled and mixed"
+   */
+  /*@ protected normal_behavior
+    @   requires state == PRELOAD;
+    @   assignable state, totalVotes, ballots;
+    @   assignable totalNumberOfVotes;
+    @   ensures state == PRECOUNT;
+    @   ensures totalVotes == loadedBallots.getNumberOfPapers();
+    @*/
+  public void load(final/*@ non_null @*/BallotStore loadedBallots) {
+    
+    metrics.enterPhase(CountMetrics.LOAD);
+    ballots = new BallotStore(loadedBallots);
+    totalNumberOfVotes = ballots.getNumberOfPapers();
+    buildPiles();
+    this.status = LOADING;
+    finishLoading();
+  }
+
+  /**
+   * Start loading ballot papers one at a time, or in batches.
+   * 
+   * @design Each ballot paper goes straight into the ballot store and onto
+   *         the pile of its first preference, so that ballot papers need not
+   *         be held anywhere else while they are loaded.
+   * @param expectedNumberOfBallots
+   *        The number of ballot papers expected, or zero if not known
+   * @param groupIdenticalBallots
+   *        Count identical ballot papers as one weighted ballot
+   */
+  /*@ protected normal_behavior
+    @   requires state == PRELOAD;
+    @   requires 0 <= expectedNumberOfBallots;
+    @   assignable state, ballots, piles, pileSize, pileVotes, pileInOrder;
+    @   ensures state == LOADING;
+    @   ensures ballots.getNumberOfPapers() == 0;
+    @*/
+  public void startLoading(final int expectedNumberOfBallots,
+      final boolean groupIdenticalBallots) {
+    metrics.enterPhase(CountMetrics.LOAD);
+    ballots =
+      new BallotStore(expectedNumberOfBallots, groupIdenticalBallots);
+    preparePiles(expectedNumberOfBallots);
+    this.status = LOADING;
+  }
+
+  /**
+   * Make an empty pile for each candidate, and for non-transferable papers.
+   * 
+   * @param expectedNumberOfBallots
+   *        The number of ballots expected, or zero if not known
+   */
+  //@ requires 0 <= expectedNumberOfBallots;
+  //@ assignable piles, pileSize, pileVotes, pileInOrder, firstPreferenceVotes;
+  protected void preparePiles(final int expectedNumberOfBallots) {
+    final int numberOfPiles = totalNumberOfCandidates + 1;
+    final int pileCapacity = 1 + expectedNumberOfBallots / numberOfPiles;
+    piles = new int[numberOfPiles][];
+    pileSize = new int[numberOfPiles];
+    pileVotes = new int[numberOfPiles];
+    pileInOrder = new boolean[numberOfPiles];
+    for (int p = 0; p < numberOfPiles; p++) {
+      piles[p] = new int[pileCapacity];
+      pileInOrder[p] = true;
+    }
+    firstPreferenceVotes = null;
+  }
+
+  /**
+   * Load the next ballot paper.
+   * 
+   * @param preferenceList
+   *        The preferences of the ballot paper, in order; the array may be
+   *        reused for the next ballot paper
+   */
+  /*@ protected normal_behavior
+    @   requires state == LOADING;
+    @   assignable ballots, totalNumberOfVotes, piles, pileSize, pileVotes;
+    @   ensures \old(totalNumberOfVotes) + 1 == totalNumberOfVotes;
+    @*/
+  public void accept(final/*@ non_null @*/int[] preferenceList) {
+    final int numberOfEntries = ballots.size();
+    fileBallot(ballots.add(preferenceList), numberOfEntries);
+  }
+
+  /**
+   * Load a batch of ballot papers.
+   * 
+   * @param batch
+   *        The preferences of each ballot paper in the batch
+   * @param numberOfBallotsInBatch
+   *        The number of ballot papers in the batch
+   */
+  /*@ protected normal_behavior
+    @   requires state == LOADING;
+    @   requires 0 <= numberOfBallotsInBatch;
+    @   requires numberOfBallotsInBatch <= batch.length;
+    @   assignable ballots, totalNumberOfVotes, piles, pileSize, pileVotes;
+    @   ensures \old(totalNumberOfVotes) + numberOfBallotsInBatch ==
+    @     totalNumberOfVotes;
+    @*/
+  public void accept(final/*@ non_null @*/int[][] batch,
+      final int numberOfBallotsInBatch) {
+    for (int i = 0; i < numberOfBallotsInBatch; i++) {
+      accept(batch[i]);
+    }
+  }
+
+  /**
+   * Finish loading ballot papers and allocate the first preferences.
+   */
+  /*@ protected normal_behavior
+    @   requires state == LOADING;
+    @   assignable state, totalVotes, candidates, candidates[*];
+    @   ensures state == PRECOUNT;
+    @   ensures totalVotes == ballots.getNumberOfPapers();
+    @*/
+  public void finishLoading() {
+    ballots.close();
+    metrics.enterPhase(CountMetrics.FIRST_PREFERENCES);
     if (0 < totalNumberOfVotes) {
       allocateFirstPreferences();
     }
+    metrics.enterPhase(CountMetrics.IDLE);
     this.status = PRECOUNT;
   } 
+
+  /**
+   * Put a ballot paper just added to the ballot store onto the pile of its
+   * first preference.
+   * 
+   * @param b
+   *        The position in the ballot store of the ballot holding the paper
+   * @param numberOfEntries
+   *        The number of ballots in the store before the paper was added
+   */
+  /*@ protected normal_behavior
+    @   requires state == LOADING;
+    @   assignable totalNumberOfVotes, piles, pileSize, pileVotes;
+    @   ensures \old(totalNumberOfVotes) + 1 == totalNumberOfVotes;
+    @*/
+  protected void fileBallot(final int b, final int numberOfEntries) {
+    totalNumberOfVotes++;
+    ballotsScanned++;
+    final int pile = getPileIndex(ballots.getCandidateID(b));
+    if (pile == NONE_FOUND_YET) {
+      return;
+    }
+    if (numberOfEntries < ballots.size()) {
+      addToPile(pile, b);
+    }
+    else {
+      pileVotes[pile]++;
+    }
+  }
+  
+  /**
+   * Write a checkpoint of the count, from which it may be resumed.
+   * 
+   * @design The checkpoint holds whatever changes from round to round: the
+   *         status and history of each candidate, and the position of each
+   *         ballot. The piles are not written, since each ballot is on the
+   *         pile of the candidate to which it is assigned.
+   * @param out
+   *        The checkpoint
+   * @throws IOException
+   *         If the checkpoint cannot be written
+   */
+  //@ requires state == PRECOUNT || state == COUNTING || state == FINISHED;
+  public void writeCheckpoint(final/*@ non_null @*/DataOutput out)
+      throws IOException {
+    out.writeInt(CHECKPOINT_MAGIC);
+    out.writeInt(CHECKPOINT_VERSION);
+    out.writeInt(totalNumberOfCandidates);
+    out.writeInt(totalNumberOfVotes);
+    out.writeByte(status);
+    out.writeInt(countNumberValue);
+    out.writeInt(numberOfCandidatesElected);
+    out.writeInt(numberOfCandidatesEliminated);
+    out.writeInt(totalRemainingSeats);
+    out.writeInt(savingThreshold);
+    for (int c = 0; c < totalNumberOfCandidates; c++) {
+      candidates[c].writeCheckpoint(out);
+    }
+    ballots.writeCheckpoint(out);
+  }
+
+  /**
+   * Resume the count from a checkpoint, without repeating the rounds of
+   * counting before it.
+   * 
+   * @design The same candidates and ballots must first be set up and loaded
+   *         again, as for a new count; the piles are then rebuilt from the
+   *         position of each ballot.
+   * @param in
+   *        The checkpoint
+   * @throws IOException
+   *         If the checkpoint cannot be read, or is of another count
+   */
+  /*@ protected normal_behavior
+    @   requires state == PRECOUNT;
+    @   assignable state, countNumberValue, numberOfCandidatesElected,
+    @     numberOfCandidatesEliminated, totalRemainingSeats, savingThreshold,
+    @     candidates[*], candidateStatus[*], ballots, piles, pileSize,
+    @     pileVotes, pileInOrder;
+    @*/
+  public void readCheckpoint(final/*@ non_null @*/DataInput in)
+      throws IOException {
+    if (in.readInt() != CHECKPOINT_MAGIC
+        || in.readInt() != CHECKPOINT_VERSION) {
+      throw new IOException("Not a checkpoint of a count");
+    }
+    if (in.readInt() != totalNumberOfCandidates
+        || in.readInt() != totalNumberOfVotes) {
+      throw new IOException("Checkpoint is not of this count");
+    }
+    final byte checkpointStatus = in.readByte();
+    countNumberValue = in.readInt();
+    numberOfCandidatesElected = in.readInt();
+    numberOfCandidatesEliminated = in.readInt();
+    totalRemainingSeats = in.readInt();
+    savingThreshold = in.readInt();
+    for (int c = 0; c < totalNumberOfCandidates; c++) {
+      candidates[c].readCheckpoint(in);
+      candidateStatus[c] = candidates[c].getStatus();
+    }
+    ballots.readCheckpoint(in);
+    buildPiles();
+    status = checkpointStatus;
+  }
+
+  /**
+   * Put each ballot onto the pile of the candidate to which it is assigned.
+   */
+  /*@ protected normal_behavior
+    @   assignable piles, pileSize, pileVotes, pileInOrder,
+    @     firstPreferenceVotes, transferVectorSource;
+    @*/
+  protected void buildPiles() {
+    preparePiles(ballots.size());
+    ballotsScanned += ballots.size();
+    for (int b = 0; b < ballots.size(); b++) {
+      final int pile = getPileIndex(ballots.getCandidateID(b));
+      if (pile != NONE_FOUND_YET && 0 < ballots.getWeight(b)) {
+        addToPile(pile, b);
+      }
+    }
+    transferVectorSource = NONE_FOUND_YET;
+  }
   
   /**
    * Droop quota; number of votes needed to guarantee election.
@@ -338,8 +965,7 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
       @    (candidates[c-1].lastCountNumber == this.countNumberValue)));  
       @*/
     for (int c = 0; c < candidates.length; c++) {
-      final int candidateID = candidates[c].getCandidateID();
-      final int numberOfBallotsInPile = countFirstPreferences(candidateID);
+      final int numberOfBallotsInPile = pileVotes[c];
 
       if (0 < numberOfBallotsInPile) {
         candidates[c].addVote(numberOfBallotsInPile, 0);
@@ -356,46 +982,165 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
    * @return The number of ballots in this candidate's pile
    */
   /*@ also ensures 0 <= \result;
-    @ ensures \result == (\num_of int b; 0 <= b && b < ballots.length;
-    @   ballots[b].isAssignedTo(candidateID));
+    @ ensures \result == (\sum int b; 0 <= b && b < ballots.size()
+    @   && ballots.isAssignedTo(b, candidateID); ballots.getWeight(b));
     @*/
   public/*@ pure @*/int countBallotsFor(final int candidateID) {
-    int numberOfBallots = 0;
-    
-    /*@ loop_invariant numberOfBallots == (\num_of int i; 0 <= i && i <= b;
-      @   ballots[i].isAssignedTo(candidateID));
-      @*/
-    for (int b = 0; b < ballots.length; b++) {
-      //@ assert ballots[b] != null;
-      if (ballots[b].isAssignedTo(candidateID)) {
-        numberOfBallots++;
-      }
+    final int pile = getPileIndex(candidateID);
+    if (pile == NONE_FOUND_YET || piles == null) {
+      return 0;
     }
-    return numberOfBallots;
+    return pileVotes[pile];
+  }
+
+  /**
+   * Find the pile in which ballots for this candidate are held.
+   *
+   * @param candidateID
+   *        The internal identifier of this candidate, or
+   *        <code>NONTRANSFERABLE</code>
+   * @return The position of the candidate in the candidate list, the last
+   *         pile for non-transferable ballots, or <code>NONE_FOUND_YET</code>
+   *         if this is not a candidate in this election
+   */
+  /*@ ensures (candidateID == Ballot.NONTRANSFERABLE) ==>
+    @   \result == totalNumberOfCandidates;
+    @ ensures (0 <= \result && \result < totalNumberOfCandidates) ==>
+    @   candidateID == candidates[\result].getCandidateID();
+    @*/
+  protected/*@ pure @*/int getPileIndex(final int candidateID) {
+    if (candidateID == Ballot.NONTRANSFERABLE) {
+      return totalNumberOfCandidates;
+    }
+    return getCandidateIndex(candidateID);
+  }
+
+  /**
+   * Move a ballot to the top of a pile from another pile.
+   *
+   * @param source
+   *        The pile from which the ballot moved
+   * @param pile
+   *        The pile to which the ballot is added
+   * @param b
+   *        The position of the ballot in the ballot store
+   */
+  /*@ protected normal_behavior
+    @   requires 0 <= pile && pile < piles.length;
+    @   assignable piles[pile], pileSize[pile], pileVotes[pile],
+    @     pileInOrder[pile];
+    @   ensures \old(pileSize[pile]) + 1 == pileSize[pile];
+    @   ensures \old(pileVotes[pile]) + ballots.getWeight(b) == pileVotes[pile];
+    @*/
+  protected void appendToPile(final int source, final int pile,
+      final int b) {
+    addToPile(pile, b);
+    ballotsTransferred++;
+    if (journal != null) {
+      journal.move(source, pile, ballots, b);
+    }
+    if (roundTransfers != null) {
+      roundTransfers[source][pile] += ballots.getWeight(b);
+    }
+  }
+
+  /**
+   * Add a ballot to the top of a pile, without counting it as a transfer.
+   *
+   * @param pile
+   *        The pile to which the ballot is added
+   * @param b
+   *        The position of the ballot in the ballot store
+   */
+  /*@ protected normal_behavior
+    @   requires 0 <= pile && pile < piles.length;
+    @   assignable piles[pile], pileSize[pile], pileVotes[pile],
+    @     pileInOrder[pile];
+    @   ensures \old(pileSize[pile]) + 1 == pileSize[pile];
+    @   ensures \old(pileVotes[pile]) + ballots.getWeight(b) == pileVotes[pile];
+    @*/
+  protected void addToPile(final int pile, final int b) {
+    final int size = pileSize[pile];
+    if (size == piles[pile].length) {
+      final int[] larger = new int[2 * size + 16];
+      System.arraycopy(piles[pile], 0, larger, 0, size);
+      piles[pile] = larger;
+    }
+    if (0 < size && b < piles[pile][size - 1]) {
+      pileInOrder[pile] = false;
+    }
+    piles[pile][size] = b;
+    pileSize[pile] = size + 1;
+    pileVotes[pile] += ballots.getWeight(b);
+  }
+
+  /**
+   * Restore the ballot box order of a pile, so that the selection of ballots
+   * for a partial transfer is the same as when scanning the whole box.
+   *
+   * @param pile
+   *        The pile to be sorted
+   */
+  //@ requires 0 <= pile && pile < piles.length;
+  //@ assignable piles[pile][*], pileInOrder[pile];
+  //@ ensures pileInOrder[pile];
+  protected void sortPile(final int pile) {
+    if (!pileInOrder[pile]) {
+      Arrays.sort(piles[pile], 0, pileSize[pile]);
+      pileInOrder[pile] = true;
+    }
+  }
+
+  /**
+   * Move a ballot to its next continuing preference, without removing it from
+   * its current pile.
+   *
+   * @param b
+   *        The position of the ballot in the ballot store
+   * @return The pile to which the ballot now belongs
+   */
+  //@ requires 0 <= b && b < ballots.size();
+  //@ assignable ballots.cursor[b];
+  protected int advanceBallot(final int b) {
+    while ((ballots.getCandidateID(b) != Ballot.NONTRANSFERABLE)
+        && (!isContinuingCandidateID(ballots.getCandidateID(b)))) {
+      ballots.transfer(b);
+    }
+    return getPileIndex(ballots.getCandidateID(b));
   }
   
   /**
    * Count the number of first preferences for this candidate.
    * 
+   * @design The first preferences of all candidates are counted together the
+   *         first time that this is needed, in one pass over the ballots.
    * @param candidateID
    *        The internal identifier of this candidate
    * @return The number of ballots in this candidate's pile
    */
   /*@ requires state == PRECOUNT || state == COUNTING;
     @ ensures 0 <= \result;
-    @ ensures \result <= ballotsToCount.length;
-    @ ensures \result == (\num_of int b; 0 <= b && b < ballotsToCount.length;
-    @   ballots[b].isFirstPreference(candidateID));
+    @ ensures \result <= totalVotes;
+    @ ensures \result == (\sum int b; 0 <= b && b < ballots.size()
+    @   && ballots.isFirstPreference(b, candidateID); ballots.getWeight(b));
     @*/
   public/*@ pure @*/int countFirstPreferences(final int candidateID) {
+    final int index = getCandidateIndex(candidateID);
+    if (index != NONE_FOUND_YET) {
+      if (firstPreferenceVotes == null) {
+        firstPreferenceVotes = BallotHistogram.countFirstPreferences(this);
+        ballotsScanned += ballots.size();
+      }
+      return firstPreferenceVotes[index];
+    }
+    
     int numberOfBallots = 0;
-    /*@ loop_invariant numberOfBallots == (\num_of int i; 0 <= i && i <= b;
-      @   ballots[i].isFirstPreference(candidateID));
+    /*@ loop_invariant numberOfBallots == (\sum int i; 0 <= i && i < b
+      @   && ballots.isFirstPreference(i, candidateID); ballots.getWeight(i));
       @ */
-    for (int b = 0; b < ballots.length; b++) {
-      //@ assert ballots[b] != null;
-      if (ballots[b].isFirstPreference(candidateID)) {
-        numberOfBallots++;
+    for (int b = 0; b < ballots.size(); b++) {
+      if (ballots.isFirstPreference(b, candidateID)) {
+        numberOfBallots += ballots.getWeight(b);
       }
     }
     return numberOfBallots;
@@ -415,21 +1160,115 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
    */
   protected/*@ pure spec_public @*/int getPotentialTransfers(
       final Candidate fromCandidate, final int toCandidateID) {
-    int numberOfBallots = 0;
-    
-    /*@ loop_invariant numberOfBallots == (\num_of int i; 0 <= i && i <= j;
-      @   ballots[i].isAssignedTo(fromCandidate.getCandidateID())
-      @   && (getNextContinuingPreference(ballots[i]) == toCandidateID));
-      @*/
-    for (int j = 0; j < ballots.length; j++) {
-      if (ballots[j].isAssignedTo(fromCandidate.getCandidateID())
-          && (getNextContinuingPreference(ballots[j]) == toCandidateID)) {
-        numberOfBallots++;
+    final int destination = getPileIndex(toCandidateID);
+    if (destination == NONE_FOUND_YET) {
+      return 0;
+    }
+    return getTransferVector(fromCandidate)[destination];
+  }
+
+  /**
+   * Gets the potential transfers from one candidate to every other candidate,
+   * in a single pass over that candidate's pile of ballots.
+   *
+   * <p> The result is kept until another ballot is moved or the number of
+   *         continuing candidates changes, so that the arithmetic for a
+   *         surplus distribution is derived from one scan of the pile.
+   * @param fromCandidate
+   *        Candidate from which to check the transfers
+   * @return Number of votes potentially transferable to each candidate, by
+   *         position in the candidate list, with the number of
+   *         non-transferable votes in the last element
+   */
+  /*@ protected normal_behavior
+    @   requires PRECOUNT <= state;
+    @   ensures \result.length == totalNumberOfCandidates + 1;
+    @   ensures (\forall int i; 0 <= i && i < totalNumberOfCandidates;
+    @     \result[i] == (\sum int b; 0 <= b && b < ballots.size()
+    @       && ballots.isAssignedTo(b, fromCandidate.getCandidateID())
+    @       && getNextContinuingPreference(b) ==
+    @       candidates[i].getCandidateID(); ballots.getWeight(b)));
+    @*/
+  protected/*@ pure non_null @*/int[] getTransferVector(
+      final/*@ non_null @*/Candidate fromCandidate) {
+    final int source = getPileIndex(fromCandidate.getCandidateID());
+    final int numberContinuing = getNumberContinuing();
+    if (isTransferVectorCurrent(source)) {
+      return transferVector;
+    }
+
+    if (transferVector == null
+        || transferVector.length != totalNumberOfCandidates + 1) {
+      transferVector = new int[totalNumberOfCandidates + 1];
+    }
+    else {
+      Arrays.fill(transferVector, 0);
+    }
+    if (source != NONE_FOUND_YET) {
+      final int[] pile = piles[source];
+      ballotsScanned += pileSize[source];
+      /*@ loop_invariant 0 <= j && j <= pileSize[source];
+        @*/
+      for (int j = 0; j < pileSize[source]; j++) {
+        final int destination =
+          getPileIndex(getNextContinuingPreference(pile[j]));
+        if (destination != NONE_FOUND_YET) {
+          transferVector[destination] += ballots.getWeight(pile[j]);
+        }
       }
     }
-    return numberOfBallots;
+
+    transferVectorTotal = 0;
+    for (int i = 0; i < totalNumberOfCandidates; i++) {
+      if (candidateStatus[i] == CandidateStatus.CONTINUING) {
+        transferVectorTotal += transferVector[i];
+      }
+    }
+    transferVectorSource = source;
+    transferVectorMoves = ballotsTransferred;
+    transferVectorContinuing = numberContinuing;
+    return transferVector;
   }
-  
+
+  /**
+   * Is the transfer vector up to date for this pile?
+   *
+   * @param source
+   *        The pile from which ballots are to be transferred
+   * @return <code>true</code> if no ballot has moved and no candidate has
+   *         been elected or excluded since the vector was calculated
+   */
+  protected/*@ pure @*/boolean isTransferVectorCurrent(final int source) {
+    return transferVector != null && source == transferVectorSource
+      && ballotsTransferred == transferVectorMoves
+      && getNumberContinuing() == transferVectorContinuing;
+  }
+
+  /**
+   * Account for ballots taken from the pile of the transfer vector, so that
+   * the vector need not be calculated again for the rest of a distribution.
+   *
+   * @param destination
+   *        The next continuing preference of the ballots taken
+   * @param numberRemoved
+   *        The number of ballots taken from the pile
+   */
+  /*@ protected normal_behavior
+    @   requires 0 <= destination && destination < transferVector.length;
+    @   requires numberRemoved <= transferVector[destination];
+    @   assignable transferVector[destination], transferVectorTotal,
+    @     transferVectorMoves;
+    @*/
+  protected void adjustTransferVector(final int destination,
+      final int numberRemoved) {
+    transferVector[destination] -= numberRemoved;
+    if (destination < totalNumberOfCandidates
+        && candidateStatus[destination] == CandidateStatus.CONTINUING) {
+      transferVectorTotal -= numberRemoved;
+    }
+    transferVectorMoves = ballotsTransferred;
+  }
+
   /**
    * Gets the status of the algorithm in progress.
    * 
@@ -466,6 +1305,32 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     
     return Ballot.NONTRANSFERABLE;
   }
+
+  /**
+   * Gets the next preference continuing candidate of a stored ballot.
+   * 
+   * @param b
+   *        The position of the ballot in the ballot store
+   * @return Internal ID of next continuing candidate or
+   *         <code>NONTRANSFERABLE</code>
+   */
+  //@ requires 0 <= b && b < ballots.size();
+  //@ ensures \result == getNextContinuingPreference(ballots.getBallot(b));
+  protected/*@ pure spec_public*/int getNextContinuingPreference(final int b) {
+    final int remaining = ballots.remainingPreferences(b);
+    
+    /*@ loop_invariant (\forall int j; 1 <= j && j < i;
+      @   !isContinuingCandidateID(ballots.getNextPreference(b, j)));
+      @*/
+    for (int i = 1; i <= remaining; i++) {
+      final int nextPreference = ballots.getNextPreference(b, i);
+      if (isContinuingCandidateID(nextPreference)) {
+        return nextPreference;
+      }
+    }
+    
+    return Ballot.NONTRANSFERABLE;
+  }
   
   /**
    * Determine if a candidate ID belongs to a continuing candidate.
@@ -483,15 +1348,11 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @     candidateList[i].getStatus() == CandidateStatus.CONTINUING);
     @*/
   public/*@ pure @*/boolean isContinuingCandidateID(final int candidateID) {
-    /*@ loop_invariant (\forall int j; 0 <= j && j < i;
-      @   candidateID != candidates[j].getCandidateID());
-      @*/
-    for (int i = 0; i < candidates.length; i++) {
-      if (candidateID == candidates[i].getCandidateID()) {
-        return candidates[i].getStatus() == CandidateStatus.CONTINUING;
-      }
+    final int index = getCandidateIndex(candidateID);
+    if (index == NONE_FOUND_YET) {
+      return false; // not a candidate
     }
-    return false; // not a candidate
+    return candidateStatus[index] == CandidateStatus.CONTINUING;
   }
   
   /**
@@ -512,9 +1373,7 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @   requires isElected (fromCandidate) || 
     @            (fromCandidate.getStatus() == CandidateStatus.ELIMINATED);
     @   requires toCandidate.getStatus() == CandidateStatus.CONTINUING;
-    @   requires ballotsToCount != null;
-    @     requires (\forall int b; 0 <= b && b < totalVotes; 
-    @         ballotsToCount[b] != null);
+    @   requires ballots != null;
     @   ensures (isElected (fromCandidate) &&
     @     (getSurplus(fromCandidate) < getTotalTransferableVotes(fromCandidate)))
     @     ==>
@@ -527,10 +1386,10 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @     (getTotalTransferableVotes(fromCandidate) <= getSurplus(fromCandidate)))
     @     ==>
     @       (\result == 
-    @       (\num_of int j; 0 <= j && j < totalVotes;
-    @         ballotsToCount[j].isAssignedTo(fromCandidate.getCandidateID()) &&
-    @         getNextContinuingPreference(ballotsToCount[j]) ==
-    @         toCandidate.getCandidateID()));
+    @       (\sum int j; 0 <= j && j < ballots.size()
+    @         && ballots.isAssignedTo(j, fromCandidate.getCandidateID())
+    @         && getNextContinuingPreference(j) ==
+    @         toCandidate.getCandidateID(); ballots.getWeight(j)));
     @*/
   protected/*@ pure spec_public @*/int getActualTransfers(
       final/*@ non_null @*/Candidate fromCandidate,
@@ -604,7 +1463,7 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
       @   getActualTransfers(fromCandidate, candidates[j]));
       @*/
     for (int i = 0; i < totalNumberOfCandidates; i++) {
-      if (candidates[i].getStatus() == CandidateStatus.CONTINUING) {
+      if (candidateStatus[i] == CandidateStatus.CONTINUING) {
         shortfall += getActualTransfers(fromCandidate, candidates[i]);
       }
     }
@@ -670,6 +1529,8 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
    * <p> This is determined by finding the earliest round of counting in
    *         which these candidates had unequal votes. If both candidates are
    *         equal at all counts then random numbers are used to draw lots.
+   * @design Totals only change at the counts in which a candidate gains or
+   *         loses votes, so only those counts are compared.
    * @see <a href="http://www.cev.ie/htm/tenders/pdf/1_2.pdf">Department of
    *      Environment and Local Government, Count Requirements and Commentary 
    *      on Count Rules, section 7, page 25</a>
@@ -682,7 +1543,6 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
    */
   /*@ also
     @   protected normal_behavior
-    @     requires countNumberValue < CountConfiguration.MAXCOUNT;
     @     requires firstCandidate.getStatus() == Candidate.CONTINUING;
     @     requires secondCandidate.getStatus() == Candidate.CONTINUING;
     @*/
@@ -690,17 +1550,17 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
       final/*@ non_null @*/Candidate firstCandidate,
       final/*@ non_null @*/Candidate secondCandidate) {
     
-    int firstNumberOfVotes = firstCandidate.getTotalVote();
-    int secondNumberOfVotes = secondCandidate.getTotalVote();
     int count = countNumberValue;
-    /*@ loop_invariant 0 <= firstNumberOfVotes;
-      @ loop_invariant 0 <= secondNumberOfVotes;
-      @ loop_invariant (count < countNumberValue) ==>
-      @   firstNumberOfVotes == secondNumberOfVotes;
-      @ loop_invariant 0 <= count;
+    /*@ loop_invariant (count < countNumberValue) ==>
+      @   firstCandidate.getTotalAtEndOfCount(count + 1) ==
+      @   secondCandidate.getTotalAtEndOfCount(count + 1);
       @ decreasing count;
       @*/
-    do {
+    while (0 <= count) {
+      final int firstNumberOfVotes =
+        firstCandidate.getTotalAtEndOfCount(count);
+      final int secondNumberOfVotes =
+        secondCandidate.getTotalAtEndOfCount(count);
       
       if (firstNumberOfVotes > secondNumberOfVotes) {
         return true;
@@ -708,11 +1568,11 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
       else if (secondNumberOfVotes > firstNumberOfVotes) {
         return false;
       }
-      firstNumberOfVotes -= firstCandidate.getVoteAtCount(count);
-      secondNumberOfVotes -= secondCandidate.getVoteAtCount(count);
-      count--;
+      
+      // Go back to the count before the last change to either total
+      count = Math.max(firstCandidate.getLastCountOfChange(count),
+          secondCandidate.getLastCountOfChange(count)) - 1;
     }
-    while (0 <= count);
     
     return secondCandidate.isAfter(firstCandidate);
   } 
@@ -761,7 +1621,7 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
       @*/
     for (int i = 0; i < totalNumberOfCandidates; i++) {
       if (candidates[i].getCandidateID() != toCandidate.getCandidateID()
-          && candidates[i].getStatus() == CandidateStatus.CONTINUING) {
+          && candidateStatus[i] == CandidateStatus.CONTINUING) {
         numberHigherThan += compareCandidates(fromCandidate, toCandidate,
             actualTransfers, transferRemainder, candidates[i]);
       }
@@ -822,18 +1682,8 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @*/
   protected/*@ pure spec_public @*/int getTotalTransferableVotes(
       final/*@ non_null @*/Candidate fromCandidate) {
-    int numberOfTransfers = 0;
-    /*@ loop_invariant numberOfTransfers == (\sum int j; 0 <= j && j <= i &&
-      @   candidates[j].getStatus() == CandidateStatus.CONTINUING;
-      @   getPotentialTransfers(fromCandidate, candidates[j].getCandidateID()));
-      @*/
-    for (int i = 0; i < totalNumberOfCandidates; i++) {
-      if (candidates[i].getStatus() == CandidateStatus.CONTINUING) {
-        numberOfTransfers +=
-          getPotentialTransfers(fromCandidate, candidates[i].getCandidateID());
-      }
-    }
-    return numberOfTransfers;
+    getTransferVector(fromCandidate);
+    return transferVectorTotal;
   }
   
   /**
@@ -884,10 +1734,10 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
       @   (\forall int j; 0 <= j && j < i && 
       @     mostVotes == countBallotsFor(candidates[i].getCandidateID());
       @     isHigherThan(candidateList[i],candidateList[j])));
-      @ decreasing Ballot.MAX_BALLOTS - mostVotes;
+      @ decreasing CountConfiguration.MAXVOTES - mostVotes;
       @*/
     for (int i = 0; i < totalNumberOfCandidates; i++) {
-      if (candidates[i].getStatus() == CandidateStatus.CONTINUING) {
+      if (candidateStatus[i] == CandidateStatus.CONTINUING) {
         final int votes = countBallotsFor(candidates[i].getCandidateID());
         if (votes > mostVotes) {
           mostVotes = votes;
@@ -935,7 +1785,7 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
       @ decreasing leastVotes; 
       @*/
     for (int i = 0; i < totalNumberOfCandidates; i++) {
-      if (candidates[i].getStatus() == CandidateStatus.CONTINUING) {
+      if (candidateStatus[i] == CandidateStatus.CONTINUING) {
         final int votes = countBallotsFor(candidates[i].getCandidateID());
         if (votes < leastVotes) {
           leastVotes = votes;
@@ -951,6 +1801,59 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     return lowest;
   }
   
+  /**
+   * Which of the lowest continuing candidates may be excluded together?
+   * 
+   * <p> Two or more of the lowest candidates may be excluded together when
+   * their combined votes are fewer than those of the next lowest candidate,
+   * so that the order in which they would otherwise be excluded cannot
+   * matter. Their combined votes must also be fewer than the deposit saving
+   * threshold, so that none of them could have reached it, and enough
+   * candidates must remain to fill the remaining seats.
+   * 
+   * @return The positions of the candidates to exclude, lowest first, which is
+   *         just the lowest candidate unless there are more to exclude with it
+   */
+  /*@ ensures (\result.length == 0) <==> (getNumberContinuing() == 0);
+    @ ensures (0 < \result.length) ==> \result[0] == findLowestCandidate();
+    @ ensures (1 < \result.length) ==>
+    @   \result.length <= getNumberContinuing() - totalRemainingSeats;
+    @*/
+  public/*@ pure non_null @*/int[] findLowestCandidates() {
+    
+    // Continuing candidates from the lowest to the highest
+    final int[] order = new int[totalNumberOfCandidates];
+    final int[] votes = new int[totalNumberOfCandidates];
+    int numberContinuing = 0;
+    for (int i = 0; i < totalNumberOfCandidates; i++) {
+      if (candidateStatus[i] == CandidateStatus.CONTINUING) {
+        votes[i] = countBallotsFor(candidates[i].getCandidateID());
+        int j = numberContinuing++;
+        while (0 < j && (votes[i] < votes[order[j - 1]]
+            || (votes[i] == votes[order[j - 1]]
+            && isHigherThan(candidates[order[j - 1]], candidates[i])))) {
+          order[j] = order[j - 1];
+          j--;
+        }
+        order[j] = i;
+      }
+    }
+    
+    int numberToExclude = Math.min(1, numberContinuing);
+    int combinedVotes = 0;
+    for (int k = 1; k < numberContinuing
+        && k <= numberContinuing - totalRemainingSeats; k++) {
+      combinedVotes += votes[order[k - 1]];
+      if (combinedVotes < votes[order[k]] && combinedVotes < savingThreshold) {
+        numberToExclude = k;
+      }
+    }
+    
+    final int[] losers = new int[numberToExclude];
+    System.arraycopy(order, 0, losers, 0, numberToExclude);
+    return losers;
+  }
+  
   /**
    * Exclude one candidate from the election.
    * 
@@ -963,7 +1866,6 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @ requires loser < totalCandidates;
     @ requires loser == findLowestCandidate();
     @ requires candidateList[loser].getCandidateID() != Ballot.NONTRANSFERABLE;
-    @ requires countNumber < CountConfiguration.MAXCOUNT;
     @ requires \nonnullelements (ballotsToCount);
     @ requires \nonnullelements (candidateList);
     @ requires candidateList[loser].getStatus() == Candidate.CONTINUING;
@@ -973,6 +1875,7 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @ assignable candidateList[loser], candidateList[*];
     @ assignable numberOfCandidatesEliminated;
     @ assignable candidateList[loser].state, ballotsToCount, ballots;
+    @ assignable candidateStatus[loser];
     @ ensures remainingSeats <= getNumberContinuing();
     @ ensures numberElected <= seats;
     @ ensures candidateList[loser].getStatus() == Candidate.ELIMINATED;
@@ -981,9 +1884,61 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @   candidateList[loser].getCandidateID());
     @*/
   public void eliminateCandidate(final int loser) {
+    final ExclusionEvent event = beginExclusion(loser);
     candidates[loser].declareEliminated(this.countNumberValue);
+    candidateStatus[loser] = CandidateStatus.ELIMINATED;
     redistributeBallots(candidates[loser].getCandidateID());
     numberOfCandidatesEliminated++;
+    event.commit();
+  }
+  
+  /**
+   * Exclude several candidates from the election together.
+   * 
+   * @design All of the candidates are excluded before any ballots are
+   *         moved, so that each ballot moves straight to its next continuing
+   *         preference.
+   * @param losers
+   *        The candidates to be excluded
+   */
+  /*@ requires state == COUNTING;
+    @ requires (\forall int i; 0 <= i && i < losers.length;
+    @   candidateStatus[losers[i]] == CandidateStatus.CONTINUING);
+    @ assignable candidates, candidateStatus, numberOfCandidatesEliminated,
+    @   ballots;
+    @ ensures (\forall int i; 0 <= i && i < losers.length;
+    @   candidateStatus[losers[i]] == CandidateStatus.ELIMINATED);
+    @*/
+  public void eliminateCandidates(final/*@ non_null @*/int[] losers) {
+    for (int i = 0; i < losers.length; i++) {
+      candidates[losers[i]].declareEliminated(this.countNumberValue);
+      candidateStatus[losers[i]] = CandidateStatus.ELIMINATED;
+      numberOfCandidatesEliminated++;
+    }
+    for (int i = 0; i < losers.length; i++) {
+      final ExclusionEvent event = beginExclusion(losers[i]);
+      redistributeBallots(candidates[losers[i]].getCandidateID());
+      event.commit();
+    }
+  }
+
+  /**
+   * Begin the flight recorder event for the exclusion of a candidate.
+   * 
+   * @param loser
+   *        The candidate being excluded
+   * @return The event, to be committed once their ballots have moved
+   */
+  //@ requires 0 <= loser && loser < totalNumberOfCandidates;
+  protected /*@ non_null @*/ ExclusionEvent beginExclusion(final int loser) {
+    final ExclusionEvent event = new ExclusionEvent();
+    if (event.isEnabled()) {
+      event.round = countNumberValue;
+      event.candidate = candidates[loser].getCandidateID();
+      event.votes = pileVotes[getPileIndex(event.candidate)];
+    }
+    event.begin();
+    return event;
   }
   
   /**
@@ -997,36 +1952,265 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     @ ensures 0 == countBallotsFor(candidateID);
     @*/
   protected void redistributeBallots(final int candidateID) {
+    final int source = getPileIndex(candidateID);
+    if (source == NONE_FOUND_YET) {
+      return;
+    }
+    final BallotMoveEvent event = new BallotMoveEvent();
+    event.begin();
+    final long transferredBefore = ballotsTransferred;
+    final int[] pile = piles[source];
+    final int size = pileSize[source];
+    int kept = 0;
+    int papersKept = 0;
+    ballotsScanned += size;
 
-    /*@ loop_invariant (0 < b) ==>
-      @   ((ballots[b].getCandidateID() == Ballot.NONTRANSFERABLE)
-      @   || (isContinuingCandidateID (ballots[b].getCandidateID()) 
-      @   && candidateID != ballots[b].getCandidateID()));
+    /*@ loop_invariant (0 < i) ==>
+      @   ((ballots.getCandidateID(pile[i-1]) == Ballot.NONTRANSFERABLE)
+      @   || (isContinuingCandidateID (ballots.getCandidateID(pile[i-1]))
+      @   && candidateID != ballots.getCandidateID(pile[i-1])));
       @*/
-    for (int b = 0; b < ballots.length; b++) {
-      if (ballots[b].getCandidateID() == candidateID) {
-        
-        transferBallot(ballots[b]);
+    for (int i = 0; i < size; i++) {
+      final int destination = advanceBallot(pile[i]);
+      if (destination == source) {
+        papersKept += ballots.getWeight(pile[i]);
+        pile[kept++] = pile[i];
+      }
+      else if (destination != NONE_FOUND_YET) {
+        appendToPile(source, destination, pile[i]);
       }
     }
+    pileSize[source] = kept;
+    pileVotes[source] = papersKept;
+    commitMove(event, source, NONE_FOUND_YET, size, transferredBefore);
+  }
+
+  /**
+   * Record a movement of ballots out of a pile, if the flight recorder wants
+   * it.
+   * 
+   * @param event
+   *        The event, begun before the ballots were moved
+   * @param source
+   *        The pile from which ballots were moved
+   * @param nextPreferenceID
+   *        The next preference of the ballots to move, or
+   *        <code>NONE_FOUND_YET</code> for any continuing preference
+   * @param size
+   *        The number of ballots in the pile before the move
+   * @param transferredBefore
+   *        The number of ballots transferred before the move
+   */
+  //@ requires 0 <= source && source < totalNumberOfCandidates;
+  protected void commitMove(final /*@ non_null @*/ BallotMoveEvent event,
+      final int source, final int nextPreferenceID, final int size,
+      final long transferredBefore) {
+    if (event.shouldCommit()) {
+      event.round = countNumberValue;
+      event.candidate = candidates[source].getCandidateID();
+      event.nextPreference = nextPreferenceID;
+      event.ballotsScanned = size;
+      event.ballotsMoved = (int) (ballotsTransferred - transferredBefore);
+      event.commit();
+    }
   }
   
   /**
-   * Transfer the ballot to the next preference continuing candidate unless 
+   * Move the earliest ballot papers, in ballot box order, whose next
+   * continuing preference is a given candidate, from one pile to the piles of
+   * their next continuing preferences.
+   *
+   * @design A weighted ballot is split when only some of its papers are
+   *         needed; the papers to move are those at or before the position in
+   *         the ballot box of the last paper needed.
+   * @param source
+   *        The pile from which to move the ballots
+   * @param nextPreferenceID
+   *        The next continuing preference of the ballots to move, or
+   *        <code>NONTRANSFERABLE</code>
+   * @param numberOfPapers
+   *        The number of papers to move, or zero to move all such papers
+   * @return The number of papers moved
+   */
+  /*@ protected normal_behavior
+    @   requires 0 <= numberOfPapers;
+    @   assignable ballots.*, piles, pileSize, pileVotes, pileInOrder,
+    @     ballotsTransferred;
+    @   ensures 0 < numberOfPapers ==> \result <= numberOfPapers;
+    @*/
+  protected int movePapers(final int source, final int nextPreferenceID,
+      final int numberOfPapers) {
+    if (source == NONE_FOUND_YET) {
+      return 0;
+    }
+    final BallotMoveEvent event = new BallotMoveEvent();
+    event.begin();
+    final long transferredBefore = ballotsTransferred;
+    final boolean vectorCurrent = isTransferVectorCurrent(source);
+    if (!ballots.isGrouped()) {
+      sortPile(source);
+    }
+    final int[] pile = piles[source];
+    final int size = pileSize[source];
+    final boolean[] selected = new boolean[size];
+    ballotsScanned += size;
+    int available = 0;
+    for (int j = 0; j < size; j++) {
+      if (getNextContinuingPreference(pile[j]) == nextPreferenceID) {
+        selected[j] = true;
+        available += ballots.getWeight(pile[j]);
+      }
+    }
+    int lastOrdinal = Integer.MAX_VALUE;
+    if (0 < numberOfPapers && numberOfPapers < available) {
+      lastOrdinal = findLastOrdinal(source, selected, numberOfPapers);
+    }
+
+    // Number of papers to take from each ballot
+    final int[] taken = new int[size];
+    int numberOfParts = 0;
+    for (int j = 0; j < size; j++) {
+      if (selected[j]) {
+        taken[j] = ballots.countPapersUpTo(pile[j], lastOrdinal);
+        if (0 < taken[j] && taken[j] < ballots.getWeight(pile[j])) {
+          numberOfParts++;
+        }
+      }
+    }
+    final int[] remaining = (0 < numberOfParts) ? new int[size + numberOfParts]
+      : pile;
+
+    int kept = 0;
+    int papersMoved = 0;
+    int papersLeft = 0;
+    /*@ loop_invariant (0 == numberOfParts) ==> kept <= j;
+      @*/
+    for (int j = 0; j < size; j++) {
+      int b = pile[j];
+      if (0 < taken[j] && taken[j] < ballots.getWeight(b)) {
+        remaining[kept++] = b;
+        b = ballots.split(b, taken[j]);
+      }
+      else if (0 == taken[j]) {
+        remaining[kept++] = b;
+        continue;
+      }
+      final int destination = advanceBallot(b);
+      if (destination == source) {
+        remaining[kept++] = b;
+      }
+      else {
+        if (destination != NONE_FOUND_YET) {
+          appendToPile(source, destination, b);
+        }
+        papersLeft += taken[j];
+      }
+      papersMoved += taken[j];
+    }
+    piles[source] = remaining;
+    pileSize[source] = kept;
+    pileVotes[source] -= papersLeft;
+    if (vectorCurrent) {
+      adjustTransferVector(getPileIndex(nextPreferenceID), papersLeft);
+    }
+    commitMove(event, source, nextPreferenceID, size, transferredBefore);
+    return papersMoved;
+  }
+
+  /**
+   * Find the position in the ballot box of the last paper needed for a
+   * partial transfer.
+   *
+   * @param source
+   *        The pile from which ballots are to be moved, which is in ballot
+   *        box order unless identical ballots have been grouped
+   * @param selected
+   *        Which ballots in the pile have the required next preference
+   * @param numberOfPapers
+   *        The number of papers to move, less than the number selected
+   * @return The position of the last paper to move
+   */
+  /*@ protected normal_behavior
+    @   requires ballots.isGrouped() || pileInOrder[source];
+    @   requires 0 < numberOfPapers;
+    @   ensures numberOfPapers == (\sum int j; 0 <= j && j < pileSize[source]
+    @     && selected[j]; ballots.countPapersUpTo(piles[source][j], \result));
+    @*/
+  protected/*@ pure @*/int findLastOrdinal(final int source,
+      final/*@ non_null @*/boolean[] selected, final int numberOfPapers) {
+    final int[] pile = piles[source];
+    final int size = pileSize[source];
+    if (!ballots.isGrouped()) {
+      int counted = 0;
+      for (int j = 0; j < size; j++) {
+        if (selected[j]) {
+          counted++;
+          if (counted == numberOfPapers) {
+            return pile[j];
+          }
+        }
+      }
+      return Integer.MAX_VALUE;
+    }
+
+    // Binary search for the position of the last paper needed
+    int low = 0;
+    int high = ballots.getNumberOfPositions() - 1;
+    /*@ loop_invariant low <= high;
+      @ decreasing high - low;
+      @*/
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      int counted = 0;
+      for (int j = 0; j < size; j++) {
+        if (selected[j]) {
+          counted += ballots.countPapersUpTo(pile[j], middle);
+        }
+      }
+      if (numberOfPapers <= counted) {
+        high = middle;
+      }
+      else {
+        low = middle + 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Transfer the ballot to the next preference continuing candidate unless
    * non-transferable. Each ballot has an internal ASM which requires the
    * ballot be transferred to the next continuing candidate.
-   * 
+   *
+   * @design The ballot paper is matched with the earliest stored paper with
+   *         the same preferences in the same pile, which is then moved from
+   *         its old pile to its new pile; this needs a search of the old
+   *         pile, so the counting algorithm itself moves ballots by position
+   *         while visiting a pile instead.
    * @param ballot The ballot
    */
   /*@ requires \nonnullelements (candidateList);
     @ requires candidateList != null;
-    @ assignable ballot.positionInList;
+    @ assignable ballot.positionInList, ballots.*, piles[*], pileSize[*],
+    @   pileVotes[*], pileInOrder[*];
     @ ensures ballot.getCandidateID() == Ballot.NONTRANSFERABLE
-    @   || (isContinuingCandidateID (ballot.getCandidateID()) 
+    @   || (isContinuingCandidateID (ballot.getCandidateID())
     @   && \old(ballot).getCandidateID() != ballot.getCandidateID());
     @*/
   public void transferBallot(final/*@ non_null @*/Ballot ballot) {
-    
+    final int source = getPileIndex(ballot.getCandidateID());
+    int match = NONE_FOUND_YET;
+    if (piles != null && source != NONE_FOUND_YET) {
+      if (!ballots.isGrouped()) {
+        sortPile(source);
+      }
+      for (int i = 0; i < pileSize[source] && match == NONE_FOUND_YET; i++) {
+        if (ballots.isSameAs(piles[source][i], ballot)) {
+          match = i;
+        }
+      }
+    }
+
     while ((ballot.getCandidateID() != Ballot.NONTRANSFERABLE)
         && (!isContinuingCandidateID(ballot.getCandidateID()))) {
       ballot.transfer();
@@ -1034,6 +2218,26 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
     /*@ assert ballot.getCandidateID() == Ballot.NONTRANSFERABLE
       @   || isContinuingCandidateID (ballot.getCandidateID());
       @*/
+
+    final int destination = getPileIndex(ballot.getCandidateID());
+    if (match == NONE_FOUND_YET || source == destination) {
+      return;
+    }
+    final int[] pile = piles[source];
+    int b = pile[match];
+    if (1 < ballots.getWeight(b)) {
+      b = ballots.split(b, 1);
+    }
+    else {
+      System.arraycopy(pile, match + 1, pile, match,
+          pileSize[source] - match - 1);
+      pileSize[source]--;
+    }
+    pileVotes[source]--;
+    advanceBallot(b);
+    if (destination != NONE_FOUND_YET) {
+      appendToPile(source, destination, b);
+    }
   }
   
   /**
@@ -1063,11 +2267,13 @@ public abstract class AbstractBallotCounting extends ElectionStatus {
   //@ assignable totalRemainingSeats;
   //@ assignable candidates[winner], candidates[winner].state;
   //@ assignable candidates[winner].lastCountNumber;
+  //@ assignable candidateStatus[winner];
   //@ ensures isElected (candidateList[winner]);
   public void electCandidate(final int winner) {
     //@ assert candidates != null && candidates[winner] != null;
     //@ assert 0 <= this.countNumberValue;
     candidates[winner].declareElected(this.countNumberValue);
+    candidateStatus[winner] = CandidateStatus.ELECTED;
     numberOfCandidatesElected++;
     totalRemainingSeats--;
   }
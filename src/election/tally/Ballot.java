@@ -74,6 +74,8 @@ public final class Ballot implements Serializable {
    * five seat constituency i.e. at most 30,000 people per elected
    * representative.
    * 
+   * @design This is not a limit on the size of a ballot box, which may hold
+   *         more ballots e.g. for a single seat election in a larger area.
    * @see "Constitution of Ireland, Article 16, Section 2"
    */
   public static final int MAX_BALLOTS = 150000;
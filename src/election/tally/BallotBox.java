@@ -38,16 +38,21 @@ public class BallotBox implements Serializable {
 
   private static final long serialVersionUID = 6555654720546373358L;
 
+  /** Initial capacity of a ballot box when the number of ballots is unknown */
+  public static final int DEFAULT_CAPACITY = 16;
+
   /**
    * List of valid ballot papers, already shuffled and mixed by the data loader
    * or returning officer.
+   * 
+   * @design The list grows as ballots are accepted, so that memory is in
+   *         proportion to the number of ballots rather than to the largest
+   *         possible constituency.
    */
-  /*@ invariant ballots.length <= Ballot.MAX_BALLOTS;
-    @ invariant (\forall int i; 0 <= i && i < numberOfBallots;
+  /*@ invariant (\forall int i; 0 <= i && i < numberOfBallots;
     @   ballots[i] != null);
     @*/
-  protected/*@ non_null spec_public*/Ballot[] ballots =
-    new Ballot[Ballot.MAX_BALLOTS];
+  protected/*@ non_null spec_public*/Ballot[] ballots;
 
   /**
    * Get the number of ballots in this box.
@@ -87,9 +92,22 @@ public class BallotBox implements Serializable {
    */
   //@ assignable index, numberOfBallots, ballots;
   public BallotBox() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create an empty ballot box with room for an expected number of ballots.
+   * 
+   * @param capacity
+   *        The expected number of ballots
+   */
+  //@ requires 0 <= capacity;
+  //@ assignable index, numberOfBallots, ballots;
+  //@ ensures ballots.length == capacity;
+  public BallotBox(final int capacity) {
     index = 0;
     numberOfBallots = 0;
-    ballots = new Ballot[Ballot.MAX_BALLOTS];
+    ballots = new Ballot[capacity];
   }
 
   /**
@@ -102,8 +120,6 @@ public class BallotBox implements Serializable {
    *        The list of candidate preferences
    */
   /*@ public normal_behavior
-    @   requires numberOfBallots < ballots.length;
-    @   requires numberOfBallots < Ballot.MAX_BALLOTS;
     @   requires (\forall int i; 0 <= i && i < preferences.length;
     @     preferences[i] != Ballot.NONTRANSFERABLE &&
     @     preferences[i] != Candidate.NO_CANDIDATE);
@@ -112,6 +128,12 @@ public class BallotBox implements Serializable {
     @   ensures ballots[lastBallotAdded] != null;
     @*/
   public void accept(final/*@ non_null @*/int[] preferences) {
+    if (numberOfBallots == ballots.length) {
+      final Ballot[] larger =
+        new Ballot[Math.max(2 * numberOfBallots, DEFAULT_CAPACITY)];
+      System.arraycopy(ballots, 0, larger, 0, numberOfBallots);
+      ballots = larger;
+    }
     //@ set lastBallotAdded = numberOfBallots;
     ballots[numberOfBallots] = new Ballot(preferences);
     numberOfBallots++;
@@ -134,7 +156,6 @@ public class BallotBox implements Serializable {
    */
   //@ requires 0 <= index;
   //@ requires isNextBallot();
-  //@ requires index + 1 < ballots.length;
   //@ assignable index;
   //@ ensures \result == ballots[\old(index)];
   //@ ensures \old(index) + 1 == index;
@@ -1,6 +1,18 @@
 package election.tally;
 
-
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
 
 /**
  * Ballot counting for elections to Dail Eireann - the lower house of the Irish
@@ -57,6 +69,307 @@ public class BallotCounting extends AbstractBallotCounting {
     /** Inner ASM */
   public /*@ non_null @*/ CountStatus countStatus;
   
+  /** Exclude two or more of the lowest candidates together when allowed */
+  protected /*@ spec_public @*/ boolean bulkExclusion;
+  
+  /**
+   * Choose whether to exclude two or more of the lowest candidates together,
+   * when their combined votes are fewer than those of the next lowest
+   * candidate.
+   * 
+   * @param bulkExclusion
+   *        <code>true</code> to exclude such candidates together
+   */
+  //@ assignable this.bulkExclusion;
+  //@ ensures this.bulkExclusion == bulkExclusion;
+  public void setBulkExclusion(final boolean bulkExclusion) {
+    this.bulkExclusion = bulkExclusion;
+  }
+  
+  /** Defer the distribution of surpluses which cannot affect the outcome */
+  protected /*@ spec_public @*/ boolean deferSurplus;
+  
+  /** Elected candidates with a surplus not yet distributed, in order */
+  protected /*@ spec_public nullable @*/ int[] deferredWinners;
+  
+  /** Number of surpluses not yet distributed */
+  protected /*@ spec_public @*/ int numberOfDeferredSurpluses;
+  
+  /** Total of the surpluses not yet distributed */
+  //@ public invariant 0 <= deferredSurplus;
+  protected /*@ spec_public @*/ int deferredSurplus;
+  
+  /**
+   * Choose whether to leave a surplus undistributed for as long as it could
+   * not change the outcome.
+   * 
+   * @param deferSurplus
+   *        <code>true</code> to defer such surpluses
+   */
+  //@ assignable this.deferSurplus;
+  //@ ensures this.deferSurplus == deferSurplus;
+  public void setDeferSurplus(final boolean deferSurplus) {
+    this.deferSurplus = deferSurplus;
+  }
+  
+  /** Where to keep a checkpoint at the start of each round, if anywhere */
+  protected transient /*@ spec_public nullable @*/ Checkpointer checkpointer;
+  
+  /**
+   * Keep a checkpoint of the count at the start of each round of counting.
+   * 
+   * @param checkpointer
+   *        Where to keep each checkpoint, or <code>null</code> for none
+   */
+  //@ assignable this.checkpointer;
+  //@ ensures this.checkpointer == checkpointer;
+  public void setCheckpointer(final /*@ nullable @*/ Checkpointer checkpointer) {
+    this.checkpointer = checkpointer;
+  }
+  
+  /*@ also
+    @   ensures \result == countStatus.getState();
+    @*/
+  protected /*@ pure @*/ int getCountState() {
+    return countStatus.substate;
+  }
+  
+  /** Publisher of the snapshots for each subscriber, if rounds are published */
+  protected transient /*@ spec_public nullable @*/
+    List<SubmissionPublisher<RoundResult>> roundPublishers;
+  
+  /** Publishers whose subscriber has not been given the latest snapshot */
+  protected transient /*@ spec_public nullable @*/
+    List<SubmissionPublisher<RoundResult>> lateRoundPublishers;
+  
+  /** Executor which delivers the snapshots to subscribers */
+  protected transient /*@ spec_public nullable @*/ Executor roundExecutor;
+  
+  /** Number of snapshots kept for each subscriber */
+  protected transient /*@ spec_public @*/ int roundBufferSize;
+  
+  /** The latest snapshot published */
+  protected transient /*@ spec_public nullable @*/ RoundResult latestRound;
+  
+  /** Whether the count has finished, and so no more rounds are coming */
+  protected transient /*@ spec_public @*/ boolean roundsClosed;
+  
+  /** The reason the count stopped, if it failed */
+  protected transient /*@ spec_public nullable @*/ Throwable roundsFailure;
+  
+  /** Status of each candidate in the last snapshot published */
+  protected transient /*@ spec_public nullable @*/ byte[] publishedStatus;
+  
+  /**
+   * Publish an immutable snapshot of the result at the end of each round of
+   * counting, and once more at the end of the count when the last seats
+   * have been filled; each subscriber is told when the count finishes.
+   * 
+   * @design The count offers each snapshot without waiting; each subscriber
+   *         receives snapshots as it requests them, from a buffer of its
+   *         own. A subscriber which falls a whole buffer behind misses the
+   *         transfers of some rounds, rather than holding up the count. Each
+   *         snapshot holds the status and votes of every candidate, so the
+   *         next snapshot it receives still shows who has been elected and
+   *         excluded. The last snapshot is never missed: if a subscriber's
+   *         buffer is full when the count finishes, the executor waits for
+   *         room before telling that subscriber the count has finished.
+   * @param executor
+   *        The executor which delivers the snapshots to subscribers
+   * @param bufferSize
+   *        The number of snapshots kept for each subscriber
+   * @return The publisher of the snapshots
+   * @throws IllegalStateException
+   *         If the candidates have not been set up
+   */
+  //@ requires 0 < bufferSize;
+  //@ assignable roundPublishers, lateRoundPublishers, publishedStatus;
+  //@ assignable roundExecutor, roundBufferSize, roundTransfers;
+  public /*@ non_null @*/ Flow.Publisher<RoundResult> publishRounds(
+      final /*@ non_null @*/ Executor executor, final int bufferSize) {
+    if (candidateStatus == null) {
+      throw new IllegalStateException(
+          "The candidates must be set up before rounds are published");
+    }
+    roundPublishers = new ArrayList<SubmissionPublisher<RoundResult>>();
+    lateRoundPublishers = new ArrayList<SubmissionPublisher<RoundResult>>();
+    roundExecutor = executor;
+    roundBufferSize = bufferSize;
+    publishedStatus = candidateStatus.clone();
+    roundTransfers = new int[totalNumberOfCandidates + 1]
+                            [totalNumberOfCandidates + 1];
+    return new Flow.Publisher<RoundResult>() {
+      public void subscribe(
+          final Flow.Subscriber<? super RoundResult> subscriber) {
+        subscribeToRounds(subscriber);
+      }
+    };
+  }
+  
+  /**
+   * Publish a snapshot of the result of each round, delivered by the common
+   * pool with the default buffer for each subscriber.
+   * 
+   * @return The publisher of the snapshots
+   * @throws IllegalStateException
+   *         If the candidates have not been set up
+   */
+  public /*@ non_null @*/ Flow.Publisher<RoundResult> publishRounds() {
+    return publishRounds(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+  }
+  
+  /**
+   * Give a new subscriber a publisher of its own, or tell it at once that
+   * the count has finished.
+   * 
+   * @param subscriber
+   *        The subscriber
+   */
+  protected void subscribeToRounds(
+      final /*@ non_null @*/ Flow.Subscriber<? super RoundResult> subscriber) {
+    final SubmissionPublisher<RoundResult> publisher =
+      new SubmissionPublisher<RoundResult>(roundExecutor, roundBufferSize);
+    publisher.subscribe(subscriber);
+    synchronized (roundPublishers) {
+      if (!roundsClosed) {
+        roundPublishers.add(publisher);
+        return;
+      }
+    }
+    if (roundsFailure == null) {
+      publisher.close();
+    }
+    else {
+      publisher.closeExceptionally(roundsFailure);
+    }
+  }
+  
+  /**
+   * Offer a snapshot of the result of this round to the subscribers.
+   */
+  protected void publishRound() {
+    if (roundPublishers == null || roundsClosed) {
+      return;
+    }
+    final int numberOfPiles = totalNumberOfCandidates + 1;
+    final int[] candidateIDs = new int[totalNumberOfCandidates];
+    final int[] votes = new int[numberOfPiles];
+    int numberElected = 0;
+    int numberExcluded = 0;
+    for (int i = 0; i < totalNumberOfCandidates; i++) {
+      candidateIDs[i] = candidates[i].getCandidateID();
+      votes[i] = pileVotes[i];
+      if (candidateStatus[i] != publishedStatus[i]) {
+        if (candidateStatus[i] == CandidateStatus.ELECTED) {
+          numberElected++;
+        }
+        else {
+          numberExcluded++;
+        }
+      }
+    }
+    votes[totalNumberOfCandidates] = pileVotes[totalNumberOfCandidates];
+    final int[] elected = new int[numberElected];
+    final int[] excluded = new int[numberExcluded];
+    numberElected = 0;
+    numberExcluded = 0;
+    for (int i = 0; i < totalNumberOfCandidates; i++) {
+      if (candidateStatus[i] != publishedStatus[i]) {
+        if (candidateStatus[i] == CandidateStatus.ELECTED) {
+          elected[numberElected++] = candidateIDs[i];
+        }
+        else {
+          excluded[numberExcluded++] = candidateIDs[i];
+        }
+        publishedStatus[i] = candidateStatus[i];
+      }
+    }
+    
+    // The snapshot takes the transfers of this round
+    final int[][] transfers = roundTransfers;
+    roundTransfers = new int[numberOfPiles][numberOfPiles];
+    latestRound = new RoundResult(countNumberValue, countStatus.substate,
+        getQuota(), candidateIDs, votes, transfers, publishedStatus.clone(),
+        elected, excluded);
+    synchronized (roundPublishers) {
+      for (SubmissionPublisher<RoundResult> publisher : roundPublishers) {
+        if (publisher.offer(latestRound, null) < 0) {
+          if (!lateRoundPublishers.contains(publisher)) {
+            lateRoundPublishers.add(publisher);
+          }
+        }
+        else {
+          lateRoundPublishers.remove(publisher);
+        }
+      }
+    }
+  }
+  
+  /** Keep what is needed to recount after ballot papers are corrected */
+  protected /*@ spec_public @*/ boolean recountable;
+  
+  /** What has been kept of the first count for recounting */
+  protected transient /*@ spec_public nullable @*/ RecountHistory
+    recountHistory;
+  
+  /**
+   * Keep a checkpoint of each round and the margin of each decision, so that
+   * the ballots can be recounted after some ballot papers are added or
+   * removed, without repeating rounds which those papers could not change.
+   * 
+   * @param recountable
+   *        <code>true</code> to keep what is needed for recounting
+   */
+  //@ requires state < COUNTING;
+  //@ assignable this.recountable;
+  //@ ensures this.recountable == recountable;
+  public void setRecountable(final boolean recountable) {
+    this.recountable = recountable;
+  }
+  
+  /**
+   * Defer the distribution of a winner's surplus, together with those already
+   * deferred, if none of them could yet change the outcome.
+   * 
+   * @param winner
+   *          The elected candidate
+   * @return <code>true</code> if the surplus is deferred
+   */
+  /*@ requires state == COUNTING;
+    @ assignable deferredWinners, numberOfDeferredSurpluses;
+    @*/
+  protected boolean deferSurplusOf(final int winner) {
+    if (deferredWinners == null) {
+      deferredWinners = new int[totalNumberOfCandidates];
+    }
+    deferredWinners[numberOfDeferredSurpluses] = winner;
+    if (isSurplusDeferrable(deferredWinners, numberOfDeferredSurpluses + 1)) {
+      numberOfDeferredSurpluses++;
+      return true;
+    }
+    return false;
+  }
+  
+  /**
+   * Distribute, in the order in which the candidates were elected, all
+   * surpluses whose distribution was deferred.
+   */
+  /*@ requires state == COUNTING;
+    @ assignable numberOfDeferredSurpluses, deferredSurplus, countStatus,
+    @   candidates, ballots;
+    @ ensures numberOfDeferredSurpluses == 0 && deferredSurplus == 0;
+    @*/
+  protected void distributeDeferredSurpluses() {
+    final int phase = metrics.enterPhase(CountMetrics.SURPLUS);
+    for (int i = 0; i < numberOfDeferredSurpluses; i++) {
+      updateCountStatus(AbstractCountStatus.SURPLUS_AVAILABLE);
+      distributeSurplus(deferredWinners[i]);
+    }
+    numberOfDeferredSurpluses = 0;
+    deferredSurplus = 0;
+    metrics.enterPhase(phase);
+  }
+  
   /**
    * Distribute the surplus of an elected candidate.
    * 
@@ -71,6 +384,8 @@ public class BallotCounting extends AbstractBallotCounting {
     @   requires 0 <= winner && winner < candidateList.length;
     @*/
   public void distributeSurplus(final int winner) {
+    final SurplusEvent event = new SurplusEvent();
+    event.begin();
     final int surplus = getSurplus(candidates[winner]);
     final int totalTransferableVotes =
         getTotalTransferableVotes(candidates[winner]);
@@ -92,6 +407,12 @@ public class BallotCounting extends AbstractBallotCounting {
     
     countStatus
         .changeState(AbstractCountStatus.READY_FOR_NEXT_ROUND_OF_COUNTING);
+    if (event.shouldCommit()) {
+      event.round = countNumberValue;
+      event.candidate = candidates[winner].getCandidateID();
+      event.surplus = surplus;
+      event.commit();
+    }
     //@ assert getSurplus (candidateList[winner]) == 0;
   }
   
@@ -106,7 +427,7 @@ public class BallotCounting extends AbstractBallotCounting {
   //@ requires \nonnullelements (candidateList);
   protected void moveSurplusBallots(final int winner, final int index) {
     if ((index != winner) &&
-        (candidates[index].getStatus() == CandidateStatus.CONTINUING)) {
+        (candidateStatus[index] == CandidateStatus.CONTINUING)) {
       final int numberOfTransfers = calculateNumberOfTransfers(winner, index);
       transferVotes(candidates[winner], candidates[index], numberOfTransfers);
     }
@@ -117,23 +438,11 @@ public class BallotCounting extends AbstractBallotCounting {
   protected void removeNonTransferableBallots(final int winner,
       final int surplus, final int totalTransferableVotes) {
     if (surplus > totalTransferableVotes) {
-      int numberToRemove = surplus - totalTransferableVotes;
+      final int numberToRemove = surplus - totalTransferableVotes;
       //@ assert 0 < numberToRemove;
       //@ assert candidateList[winner] != null;
-      final int fromCandidateID = candidates[winner].getCandidateID();
-      /*@ loop_invariant (0 < b) ==> 
-        @   !(ballots[b-1].isAssignedTo(fromCandidateID));
-        @ decreasing numberToRemove;
-        @*/
-      for (int b = 0; b < ballots.length; b++) {
-        if ((ballots[b].isAssignedTo(fromCandidateID))
-            && (0 < numberToRemove)
-            && (getNextContinuingPreference(ballots[b]) == 
-              Ballot.NONTRANSFERABLE)) {
-          transferBallot(ballots[b]);
-          numberToRemove--;
-        }
-      }
+      movePapers(getPileIndex(candidates[winner].getCandidateID()),
+          Ballot.NONTRANSFERABLE, numberToRemove);
     }
   }
   
@@ -169,26 +478,11 @@ public class BallotCounting extends AbstractBallotCounting {
     
     
     
-    // Transfer the required number of ballots
-    final int fromCandidateID = fromCandidate.getCandidateID();
-    final int toCandidateID = toCandidate.getCandidateID();
-    int ballotsMoved = 0;
-    /*@ loop_invariant (0 < b) ==>
-      @   ((ballotsMoved <= numberOfVotes) &&
-      @   (\old(ballots[b-1].isAssignedTo(fromCandidate.getCandidateID())) ==>
-      @     ballots[b-1].isAssignedTo(toCandidate.getCandidateID())));
-      @*/
-    for (int b = 0; b < ballots.length; b++) { 
-      if ((ballots[b].getCandidateID() == fromCandidateID) && 
-          (getNextContinuingPreference(ballots[b]) == toCandidateID)) {
-        transferBallot(ballots[b]); 
-        ballotsMoved++;
-        if (ballotsMoved == numberOfVotes) {
-          break;
-        }
-      }
-    }
-    
+    // Transfer the required number of ballots, in ballot box order
+    final int ballotsMoved =
+        movePapers(getPileIndex(fromCandidate.getCandidateID()),
+            toCandidate.getCandidateID(), numberOfVotes);
+
     // Update the totals for each candidate
     fromCandidate.removeVote(ballotsMoved, countNumberValue); 
     toCandidate.addVote(ballotsMoved, countNumberValue); 
@@ -216,35 +510,407 @@ public class BallotCounting extends AbstractBallotCounting {
     @   ensures state == ElectionStatus.FINISHED;
     @*/
   public void count() {
+    try {
+      countRounds();
+    }
+    catch (RuntimeException e) {
+      closeRounds(e);
+      throw e;
+    }
+    catch (Error e) {
+      closeRounds(e);
+      throw e;
+    }
+    closeRounds(null);
+  }
+  
+  /**
+   * Close the publisher of rounds, if there is one, so that its subscribers
+   * know that no more rounds are coming.
+   * 
+   * @param failure
+   *          The reason the count stopped, or <code>null</code> if it ended
+   */
+  protected void closeRounds(final /*@ nullable @*/ Throwable failure) {
+    if (roundPublishers == null || roundsClosed) {
+      return;
+    }
+    synchronized (roundPublishers) {
+      roundsClosed = true;
+      roundsFailure = failure;
+      for (final SubmissionPublisher<RoundResult> publisher : roundPublishers) {
+        if (failure != null) {
+          publisher.closeExceptionally(failure);
+        }
+        else if (lateRoundPublishers.contains(publisher)) {
+          // Wait for room for the last snapshot, but not on this thread
+          final RoundResult lastRound = latestRound;
+          roundExecutor.execute(new Runnable() {
+            public void run() {
+              publisher.submit(lastRound);
+              publisher.close();
+            }
+          });
+        }
+        else {
+          publisher.close();
+        }
+      }
+    }
+  }
+  
+  /**
+   * Count, or resume counting, from the current round to the end.
+   */
+  //@ requires state == PRECOUNT || state == COUNTING;
+  //@ ensures state == ElectionStatus.FINISHED;
+  protected void countRounds() {
     
     // Start or else resume the counting of ballots
     if (status < ElectionStatus.COUNTING) {
       startCounting(); 
+      if (recountable) {
+        recountHistory = new RecountHistory(ballots, totalNumberOfVotes);
+      }
+      if (journal != null) {
+        final int[] candidateIDs = new int[totalNumberOfCandidates];
+        for (int i = 0; i < totalNumberOfCandidates; i++) {
+          candidateIDs[i] = candidates[i].getCandidateID();
+        }
+        try {
+          journal.startCount(candidateIDs);
+        }
+        catch (IOException e) {
+          throw journalFailed(e);
+        }
+      }
     }
     
     while (getNumberContinuing() > totalRemainingSeats && 
-        0 < totalRemainingSeats && // infinite loop detected by Uilioch and fixed 2011.01.20
-        countNumberValue < CountConfiguration.MAXCOUNT) {
+        0 < totalRemainingSeats) { // infinite loop detected by Uilioch and fixed 2011.01.20
+      checkpoint();
+      final RoundEvent event = new RoundEvent();
+      event.begin();
       incrementCountNumber(); 
+      if (journal != null) {
+        try {
+          journal.startRound(countNumberValue);
+        }
+        catch (IOException e) {
+          throw journalFailed(e);
+        }
+      }
+      final int numberContinuing = getNumberContinuing();
       
       countStatus.changeState( 
           AbstractCountStatus.MORE_CONTINUING_CANDIDATES_THAN_REMAINING_SEATS);
       
       // Transfer surplus votes from winning candidates
+      metrics.enterPhase(CountMetrics.SURPLUS);
       electCandidatesWithSurplus(); 
       
       // Exclusion of lowest continuing candidates if no surplus
+      metrics.enterPhase(CountMetrics.EXCLUSION);
       excludeLowestCandidates(); 
+      metrics.enterPhase(CountMetrics.IDLE);
+      recordDecision(NONE_FOUND_YET, false);
+      publishRound();
+      if (event.shouldCommit()) {
+        event.round = countNumberValue;
+        event.continuing = getNumberContinuing();
+        event.remainingSeats = totalRemainingSeats;
+        event.commit();
+      }
+      
+      // Stop if no candidate could be elected or excluded in this round
+      if (getNumberContinuing() == numberContinuing) {
+        break;
+      }
+    }
+    
+    if (isKeepingHistory()) {
+      if (recountHistory.checkpoints.isEmpty()) {
+        keepCheckpoint();
+      }
+      recountHistory.finish(countNumberValue);
     }
     
     // Filling of last seats
     if (getNumberContinuing() == totalRemainingSeats) { 
+      metrics.enterPhase(CountMetrics.LAST_SEATS);
       fillLastSeats();
-      
+      metrics.enterPhase(CountMetrics.IDLE);
+    }
+    
+    if (journal != null) {
+      try {
+        journal.finishCount(countNumberValue);
+      }
+      catch (IOException e) {
+        throw journalFailed(e);
+      }
     }
     
     countStatus.changeState(AbstractCountStatus.END_OF_COUNT);
     status = ElectionStatus.FINISHED;
+    publishRound();
+  }
+  
+  /**
+   * Count the ballots again after some ballot papers have been added or
+   * removed, repeating only the rounds of counting which they could change.
+   * 
+   * @design The earlier rounds are not repeated, but the changed papers are
+   *         followed through them to where they would be at the start of the
+   *         first round repeated; the result is the same as counting the
+   *         corrected ballot box from the start. Every round is repeated if
+   *         the quota changes, or if lowest candidates are excluded together
+   *         or surpluses are deferred.
+   * @param addedBallots
+   *        The preferences of each ballot paper to add, which go after the
+   *        others in the ballot box
+   * @param removedPositions
+   *        The position in the ballot box of each ballot paper to remove;
+   *        papers added by earlier recounts follow the papers first loaded,
+   *        in the order in which they were added
+   * @return The first round of counting which was repeated
+   */
+  /*@ requires state == ElectionStatus.FINISHED;
+    @ requires recountHistory != null;
+    @ ensures state == ElectionStatus.FINISHED;
+    @ ensures 1 <= \result;
+    @*/
+  public int recount(final /*@ non_null @*/ int[][] addedBallots,
+      final /*@ non_null @*/ int[] removedPositions) {
+    if (recountHistory == null || !recountHistory.complete) {
+      throw new IllegalStateException("This count cannot be recounted");
+    }
+    recountHistory.correct(ballots, addedBallots, removedPositions);
+    final int[][] changedPapers = recountHistory.getChangedPapers();
+    final int seatsPlusOne = 1 + numberOfSeats;
+    int round = 1;
+    if (!bulkExclusion && !deferSurplus
+        && recountHistory.getTotalNumberOfVotes() / seatsPlusOne ==
+          recountHistory.totalNumberOfVotes / seatsPlusOne) {
+      round = recountHistory.findFirstAffectedRound(this, changedPapers);
+      round = Math.min(round, recountHistory.checkpoints.size());
+    }
+    
+    // Go back to the start of that round of the first count
+    ballots.truncate(recountHistory.numberOfLists);
+    totalNumberOfVotes = recountHistory.totalNumberOfVotes;
+    try {
+      readCheckpoint(new DataInputStream(new ByteArrayInputStream(
+          recountHistory.checkpoints.get(round - 1))));
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Checkpoint of count " + (round - 1)
+          + " is unreadable", e);
+    }
+    
+    // Put each changed paper where it would be at the start of that round
+    for (int i = 0; i < recountHistory.removedOrdinals.size(); i++) {
+      final int ordinal =
+        recountHistory.removedOrdinals.get(i).intValue();
+      final int b = ballots.remove(ordinal);
+      correctFirstPreferences(ballots.getFirstPreference(b), -1);
+    }
+    final int[] positions =
+      recountHistory.findPositions(this, changedPapers, round);
+    int changed = recountHistory.removedOrdinals.size();
+    for (int i = 0; i < recountHistory.addedPapers.size(); i++) {
+      final int[] paper = recountHistory.addedPapers.get(i);
+      if (recountHistory.addedPapersRemoved.get(i)) {
+        ballots.add(paper, paper.length, 0);
+        ballots.remove(recountHistory.numberOfPapers + i);
+      }
+      else {
+        ballots.add(paper, paper.length, positions[changed++]);
+        correctFirstPreferences(paper.length == 0 ? Ballot.NONTRANSFERABLE
+            : paper[0], 1);
+      }
+    }
+    if (round == 1) {
+      savingThreshold = getDepositSavingThreshold();
+    }
+    firstPreferenceVotes = null;
+    buildPiles();
+    
+    count();
+    return round;
+  }
+  
+  /**
+   * Correct the number of votes, and the first preferences of a candidate,
+   * for a ballot paper added or removed.
+   * 
+   * @param candidateID
+   *        The first preference of the ballot paper
+   * @param numberOfVotes
+   *        One for a paper added, or minus one for a paper removed
+   */
+  protected void correctFirstPreferences(final int candidateID,
+      final int numberOfVotes) {
+    totalNumberOfVotes += numberOfVotes;
+    if (candidateID != Ballot.NONTRANSFERABLE) {
+      final int index = getCandidateIndex(candidateID);
+      if (index != NONE_FOUND_YET) {
+        candidates[index].correctFirstPreferences(numberOfVotes);
+      }
+    }
+  }
+  
+  /**
+   * Is the first count being kept for recounting?
+   */
+  protected /*@ pure @*/ boolean isKeepingHistory() {
+    return recountHistory != null && !recountHistory.complete;
+  }
+  
+  /**
+   * Keep a checkpoint of the start of this round, for recounting.
+   */
+  protected void keepCheckpoint() {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      writeCheckpoint(new DataOutputStream(bytes));
+    }
+    catch (IOException e) {
+      throw checkpointFailed(e);
+    }
+    recountHistory.keepCheckpoint(countNumberValue, bytes.toByteArray());
+  }
+  
+  /**
+   * Remember the margin by which a candidate is about to be elected or
+   * excluded, or by which no candidate has a quota at the end of a round.
+   * 
+   * @design The margin is the fewest ballot papers which, added or removed,
+   *         could change whether any continuing candidate has a quota, or
+   *         which candidate has the most or fewest votes.
+   * @param candidate
+   *        The candidate to be elected or excluded, or
+   *        {@link #NONE_FOUND_YET} at the end of a round
+   * @param elected
+   *        <code>true</code> if the candidate is to be elected
+   */
+  protected void recordDecision(final int candidate, final boolean elected) {
+    if (!isKeepingHistory()) {
+      return;
+    }
+    final int quota = getQuota();
+    int margin = Integer.MAX_VALUE;
+    for (int i = 0; i < totalNumberOfCandidates; i++) {
+      if (candidateStatus[i] == CandidateStatus.CONTINUING) {
+        final int votes = pileVotes[i];
+        margin = Math.min(margin, (quota <= votes) ? votes - quota + 1
+          : quota - votes);
+        if (candidate != NONE_FOUND_YET && i != candidate) {
+          margin = Math.min(margin, elected ? pileVotes[candidate] - votes
+            : votes - pileVotes[candidate]);
+        }
+      }
+    }
+    if (candidate == NONE_FOUND_YET) {
+      recountHistory.addMargin(countNumberValue, margin);
+    }
+    else {
+      recountHistory.addDecision(countNumberValue, candidate, elected, margin);
+    }
+  }
+  
+  /**
+   * Resume a count from a checkpoint and count the rest of the ballots.
+   * 
+   * @param in
+   *        The checkpoint, which must be of the same candidates and ballots
+   *        as have been set up and loaded
+   * @throws IOException
+   *         If the checkpoint cannot be read, or is of another count
+   */
+  /*@ requires state == PRECOUNT;
+    @ ensures state == ElectionStatus.FINISHED;
+    @*/
+  public void resume(final /*@ non_null @*/ DataInput in) throws IOException {
+    readCheckpoint(in);
+    count();
+  }
+  
+  /**
+   * Write a checkpoint, if one is wanted, before the next round of counting.
+   */
+  protected void checkpoint() {
+    if (isKeepingHistory()) {
+      keepCheckpoint();
+    }
+    if (checkpointer == null) {
+      return;
+    }
+    try {
+      writeCheckpoint(checkpointer.startCheckpoint(countNumberValue));
+      checkpointer.finishCheckpoint(countNumberValue);
+    }
+    catch (IOException e) {
+      throw checkpointFailed(e);
+    }
+  }
+  
+  /**
+   * @param cause
+   *        The failure to write to the journal
+   * @return The error which stops this round of the count
+   */
+  private IllegalStateException journalFailed(
+      final /*@ non_null @*/ IOException cause) {
+    return new IllegalStateException("Journal of count " + countNumberValue
+        + " failed", cause);
+  }
+  
+  /**
+   * @param cause
+   *        The failure to write a checkpoint
+   * @return The error which stops this round of the count
+   */
+  private IllegalStateException checkpointFailed(
+      final /*@ non_null @*/ IOException cause) {
+    return new IllegalStateException("Checkpoint of count "
+        + countNumberValue + " failed", cause);
+  }
+  
+  /**
+   * Write a checkpoint of the count, including surpluses not yet distributed.
+   */
+  public void writeCheckpoint(final /*@ non_null @*/ DataOutput out)
+      throws IOException {
+    super.writeCheckpoint(out);
+    out.writeInt(countStatus.substate);
+    out.writeBoolean(bulkExclusion);
+    out.writeBoolean(deferSurplus);
+    out.writeInt(deferredSurplus);
+    out.writeInt(numberOfDeferredSurpluses);
+    for (int i = 0; i < numberOfDeferredSurpluses; i++) {
+      out.writeInt(deferredWinners[i]);
+    }
+  }
+  
+  /**
+   * Resume the count from a checkpoint, including surpluses not yet
+   * distributed.
+   */
+  public void readCheckpoint(final /*@ non_null @*/ DataInput in)
+      throws IOException {
+    super.readCheckpoint(in);
+    countStatus.changeState(in.readInt());
+    bulkExclusion = in.readBoolean();
+    deferSurplus = in.readBoolean();
+    deferredSurplus = in.readInt();
+    numberOfDeferredSurpluses = in.readInt();
+    if (0 < numberOfDeferredSurpluses) {
+      deferredWinners = new int[totalNumberOfCandidates];
+      for (int i = 0; i < numberOfDeferredSurpluses; i++) {
+        deferredWinners[i] = in.readInt();
+      }
+    }
   }
   
   /**
@@ -259,7 +925,6 @@ public class BallotCounting extends AbstractBallotCounting {
     @*/
   protected void electCandidatesWithSurplus() {
     while (candidatesWithQuota()
-        && countNumberValue < CountConfiguration.MAXCOUNT
         && getNumberContinuing() > totalRemainingSeats) {
       
       updateCountStatus(AbstractCountStatus.CANDIDATES_HAVE_QUOTA);
@@ -275,10 +940,18 @@ public class BallotCounting extends AbstractBallotCounting {
         @   || (winner == findHighestCandidate())
         @   || (getNumberContinuing() == totalRemainingSeats);
         @*/
+      recordDecision(winner, true);
       electCandidate(winner);
-      if (0 < getSurplus(candidates[winner])) {
-        updateCountStatus(AbstractCountStatus.SURPLUS_AVAILABLE);
-        distributeSurplus(winner);
+      final int surplus = getSurplus(candidates[winner]);
+      if (0 < surplus) {
+        if (deferSurplus && deferSurplusOf(winner)) {
+          deferredSurplus += surplus;
+        }
+        else {
+          distributeDeferredSurpluses();
+          updateCountStatus(AbstractCountStatus.SURPLUS_AVAILABLE);
+          distributeSurplus(winner);
+        }
       }
       
     }
@@ -302,7 +975,7 @@ public class BallotCounting extends AbstractBallotCounting {
       @   hasQuota(candidates[i])); 
       @*/
     for (int i = 0; i < totalNumberOfCandidates; i++) {
-      if ((candidates[i].getStatus() == CandidateStatus.CONTINUING)
+      if ((candidateStatus[i] == CandidateStatus.CONTINUING)
           && hasQuota(candidates[i])) {
         return true;
       }
@@ -317,15 +990,35 @@ public class BallotCounting extends AbstractBallotCounting {
     @*/
   protected void excludeLowestCandidates() {
     while (!candidatesWithQuota()
-        && getNumberContinuing() > totalRemainingSeats
-        && countNumberValue < CountConfiguration.MAXCOUNT) {
+        && getNumberContinuing() > totalRemainingSeats) {
       
+       if (0 < numberOfDeferredSurpluses && !isSurplusDeferrable(
+           deferredWinners, numberOfDeferredSurpluses)) {
+         distributeDeferredSurpluses();
+         continue;
+       }
        countStatus.changeState(AbstractCountStatus.NO_SURPLUS_AVAILABLE);  
+       if (bulkExclusion) {
+         final int[] losers = findLowestCandidates();
+         if (losers.length == 0) {
+           break;
+         }
+         if (1 < losers.length && 0 < numberOfDeferredSurpluses) {
+           // A deferred surplus could change which candidates go together
+           distributeDeferredSurpluses();
+           continue;
+         }
+         countStatus.changeState(AbstractCountStatus.CANDIDATE_EXCLUDED);
+         eliminateCandidates(losers);
+         countStatus.changeState(AbstractCountStatus.READY_TO_MOVE_BALLOTS);
+         continue;
+       }
        final int loser = findLowestCandidate();  
       
       if (loser != NONE_FOUND_YET) {
         
          countStatus.changeState(AbstractCountStatus.CANDIDATE_EXCLUDED); 
+         recordDecision(loser, false);
          eliminateCandidate(loser); //@ 
          countStatus.changeState(AbstractCountStatus.READY_TO_MOVE_BALLOTS); 
          redistributeBallots(candidates[loser].getCandidateID()); 
@@ -353,7 +1046,7 @@ public class BallotCounting extends AbstractBallotCounting {
   protected void fillLastSeats() {
     countStatus.changeState(AbstractCountStatus.LAST_SEAT_BEING_FILLED); 
     for (int c = 0; c < totalNumberOfCandidates; c++) {
-      if (isContinuingCandidateID(candidates[c].getCandidateID())) {
+      if (candidateStatus[c] == CandidateStatus.CONTINUING) {
         electCandidate(c); 
       }
     }
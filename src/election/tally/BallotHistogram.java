@@ -0,0 +1,131 @@
+package election.tally;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * The number of first preference votes for each candidate, counted in one
+ * pass over the ballot store, with ranges of ballots counted in parallel.
+ */
+class BallotHistogram extends RecursiveTask<int[]> {
+
+  private static final long serialVersionUID = -2893571040392187412L;
+
+  /** Number of ballots below which a range is counted without splitting */
+  protected static final int LEAF_SIZE = 8192;
+
+  /** The count to which the ballots belong */
+  protected final /*@ non_null @*/ AbstractBallotCounting ballotCounting;
+
+  /** First ballot in the range */
+  protected final int from;
+
+  /** End of the range */
+  protected final int to;
+
+  /**
+   * Count the first preferences in a range of ballots.
+   *
+   * @param ballotCounting
+   *        The count to which the ballots belong
+   * @param from
+   *        The first ballot in the range
+   * @param to
+   *        The end of the range
+   */
+  //@ requires 0 <= from && from <= to;
+  //@ requires to <= ballotCounting.ballots.size();
+  protected BallotHistogram(
+      final /*@ non_null @*/ AbstractBallotCounting ballotCounting,
+      final int from, final int to) {
+    this.ballotCounting = ballotCounting;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * Count the first preferences on all ballots.
+   *
+   * @param ballotCounting
+   *        The count to which the ballots belong
+   * @return The number of first preference votes for each candidate, by
+   *         position in the candidate list
+   */
+  /*@ ensures \result.length == ballotCounting.totalNumberOfCandidates;
+    @ ensures (\forall int c; 0 <= c && c < \result.length;
+    @   \result[c] == ballotCounting.countFirstPreferences(
+    @   ballotCounting.candidates[c].getCandidateID()));
+    @*/
+  public static /*@ pure non_null @*/ int[] countFirstPreferences(
+      final /*@ non_null @*/ AbstractBallotCounting ballotCounting) {
+    final BallotHistogram histogram =
+      new BallotHistogram(ballotCounting, 0, ballotCounting.ballots.size());
+    if (histogram.to <= LEAF_SIZE) {
+      return histogram.compute();
+    }
+    return ForkJoinPool.commonPool().invoke(histogram);
+  }
+
+  /**
+   * Count this range of ballots, splitting it in two if it is large.
+   *
+   * @return The number of first preference votes for each candidate
+   */
+  protected int[] compute() {
+    if (to - from <= LEAF_SIZE) {
+      return count();
+    }
+    final int middle = (from + to) >>> 1;
+    final BallotHistogram lower =
+      new BallotHistogram(ballotCounting, from, middle);
+    final BallotHistogram upper =
+      new BallotHistogram(ballotCounting, middle, to);
+    lower.fork();
+    final int[] votes = upper.compute();
+    final int[] lowerVotes = lower.join();
+    for (int c = 0; c < votes.length; c++) {
+      votes[c] += lowerVotes[c];
+    }
+    return votes;
+  }
+
+  /**
+   * Count this range of ballots.
+   *
+   * @return The number of first preference votes for each candidate
+   */
+  protected /*@ pure non_null @*/ int[] count() {
+    final BallotStore ballots = ballotCounting.ballots;
+    final int[] votes = new int[ballotCounting.totalNumberOfCandidates];
+    for (int b = from; b < to; b++) {
+      final int index =
+        ballotCounting.getCandidateIndex(ballots.getFirstPreference(b));
+      if (index != AbstractBallotCounting.NONE_FOUND_YET) {
+        votes[index] += ballots.getWeight(b);
+      }
+    }
+    return votes;
+  }
+}
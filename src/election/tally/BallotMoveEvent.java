@@ -0,0 +1,59 @@
+package election.tally;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * Flight recorder event spanning one movement of ballots out of a pile.
+ */
+@Name("election.tally.BallotMove")
+@Label("Ballot Move")
+@Category({ "Votail", "Count" })
+@Description("Moving ballots from the pile of one candidate to the piles of "
+    + "their next continuing preferences")
+final class BallotMoveEvent extends Event {
+
+  @Label("Round")
+  int round;
+
+  @Label("Candidate")
+  @Description("Identifier of the candidate whose pile was moved from")
+  int candidate;
+
+  @Label("Next Preference")
+  @Description("Identifier of the next preference of the ballots moved, zero "
+      + "if non-transferable, or -1 if each ballot moved to its own next "
+      + "continuing preference")
+  int nextPreference;
+
+  @Label("Ballots Scanned")
+  int ballotsScanned;
+
+  @Label("Ballots Moved")
+  int ballotsMoved;
+}
@@ -0,0 +1,1000 @@
+package election.tally;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * The ballots being counted, held column by column rather than as one
+ * {@link Ballot} object per paper.
+ *
+ * <p> The preferences of every ballot are kept one after another in a single
+ * array, with the start of each list of preferences in an offsets array; the
+ * position of each ballot within its list of preferences is kept in a cursor
+ * array, in place of {@link Ballot#positionInList}.
+ *
+ * <p> Identical ballot papers may be stored as one weighted ballot, which
+ * remembers the position in the ballot box of each of its papers.
+ *
+ * <p> The lists of preferences are never changed once added, so a loaded
+ * store may be shared by any number of counts; each count takes its own
+ * {@link #BallotStore(BallotStore) copy} of the cursor, which is all that
+ * changes as ballots are transferred.
+ */
+public class BallotStore implements Serializable {
+
+  private static final long serialVersionUID = 4316926375512093428L;
+
+  /** Initial room for weighted ballots, which are usually few */
+  protected static final int INITIAL_GROUPS = 64;
+
+  /** Approximate heap taken by an array apart from its elements, in bytes */
+  protected static final int ARRAY_HEADER_SIZE = 16;
+
+  /** Preferences of every list, one after another */
+  protected /*@ spec_public non_null @*/ int[] preferences;
+
+  /** Number of preferences in use */
+  //@ public invariant 0 <= preferencesUsed;
+  //@ public invariant preferencesUsed <= preferences.length;
+  protected /*@ spec_public @*/ int preferencesUsed;
+
+  /** Start of each list of preferences; the list ends at the next offset */
+  /*@ public invariant (\forall int r; 0 <= r && r < numberOfLists;
+    @   offsets[r] <= offsets[r+1] && offsets[r+1] <= preferencesUsed);
+    @*/
+  protected /*@ spec_public non_null @*/ int[] offsets;
+
+  /** Number of lists of preferences */
+  protected /*@ spec_public @*/ int numberOfLists;
+
+  /** List of preferences of each ballot */
+  protected /*@ spec_public non_null @*/ int[] list;
+
+  /** Position of each ballot within its list of preferences */
+  /*@ public invariant (\forall int b; 0 <= b && b < numberOfBallots;
+    @   0 <= cursor[b] && cursor[b] <= getNumberOfPreferences(b));
+    @*/
+  protected /*@ spec_public non_null @*/ int[] cursor;
+
+  /**
+   * Positions in the ballot box of the papers of each weighted ballot, in
+   * ballot box order, or <code>null</code> if each ballot is a single paper.
+   */
+  protected /*@ spec_public nullable @*/ int[][] paperOrdinals;
+
+  /**
+   * Number of papers of each weighted ballot, or of each ballot once any
+   * paper has been removed
+   */
+  protected /*@ spec_public nullable @*/ int[] weight;
+
+  /** Number of ballots in the store */
+  //@ public invariant 0 <= numberOfBallots;
+  //@ public invariant numberOfBallots <= list.length;
+  protected /*@ spec_public @*/ int numberOfBallots;
+
+  /** Number of ballot papers added to the store */
+  protected /*@ spec_public @*/ int numberOfPapers;
+
+  /** Number of ballot papers removed from the store */
+  //@ public invariant 0 <= numberOfPapersRemoved;
+  //@ public invariant numberOfPapersRemoved <= numberOfPapers;
+  protected /*@ spec_public @*/ int numberOfPapersRemoved;
+
+  /** Open addressing table of weighted ballots, while papers are added */
+  protected transient /*@ nullable @*/ int[] groupTable;
+
+  /**
+   * Are the preferences and offsets arrays shared with another store, so
+   * that they must be copied before anything more is written to them?
+   */
+  protected transient boolean sharesPreferences;
+
+  /**
+   * Are the arrays of paper ordinals shared with another store, so that each
+   * must be copied before a paper is added to it or removed from it?
+   */
+  protected transient boolean sharesOrdinals;
+
+  /**
+   * Create an empty ballot store.
+   *
+   * @param capacity
+   *        The expected number of ballot papers
+   * @param groupIdenticalBallots
+   *        Store identical ballot papers as one weighted ballot
+   */
+  //@ requires 0 <= capacity;
+  //@ ensures numberOfBallots == 0;
+  //@ ensures (paperOrdinals != null) <==> groupIdenticalBallots;
+  public BallotStore(final int capacity, final boolean groupIdenticalBallots) {
+    int initialCapacity = Math.max(capacity, 1);
+    if (groupIdenticalBallots) {
+      initialCapacity = Math.min(initialCapacity, INITIAL_GROUPS);
+    }
+    list = new int[initialCapacity];
+    cursor = new int[initialCapacity];
+    offsets = new int[initialCapacity + 1];
+    preferences = new int[4 * initialCapacity];
+    if (groupIdenticalBallots) {
+      paperOrdinals = new int[initialCapacity][];
+      weight = new int[initialCapacity];
+      groupTable = new int[4 * Integer.highestOneBit(initialCapacity)];
+      Arrays.fill(groupTable, AbstractBallotCounting.NONE_FOUND_YET);
+    }
+  }
+
+  /**
+   * Create a store holding the same ballots as another store, without
+   * copying their preferences, so that they can be counted again.
+   *
+   * <p> Each ballot starts from wherever it is in the other store, which
+   * should therefore be one that is not itself being counted.
+   *
+   * @param loadedBallots
+   *        The store to share
+   */
+  //@ ensures numberOfBallots == loadedBallots.numberOfBallots;
+  //@ ensures numberOfPapers == loadedBallots.numberOfPapers;
+  //@ ensures preferences == loadedBallots.preferences;
+  //@ ensures offsets == loadedBallots.offsets;
+  public BallotStore(final /*@ non_null @*/ BallotStore loadedBallots) {
+    loadedBallots.sharesPreferences = true;
+    sharesPreferences = true;
+    preferences = loadedBallots.preferences;
+    preferencesUsed = loadedBallots.preferencesUsed;
+    offsets = loadedBallots.offsets;
+    numberOfLists = loadedBallots.numberOfLists;
+    numberOfBallots = loadedBallots.numberOfBallots;
+    numberOfPapers = loadedBallots.numberOfPapers;
+    numberOfPapersRemoved = loadedBallots.numberOfPapersRemoved;
+    list = loadedBallots.list.clone();
+    cursor = loadedBallots.cursor.clone();
+    if (loadedBallots.paperOrdinals != null) {
+      // Papers are only ever split into new arrays, so these may be shared
+      paperOrdinals = loadedBallots.paperOrdinals.clone();
+      loadedBallots.sharesOrdinals = true;
+      sharesOrdinals = true;
+    }
+    if (loadedBallots.weight != null) {
+      weight = loadedBallots.weight.clone();
+    }
+  }
+
+  /**
+   * Add the next ballot paper from the ballot box.
+   *
+   * @param ballot
+   *        The ballot paper
+   * @return The position in the store of the ballot holding this paper
+   */
+  /*@ public normal_behavior
+    @   assignable preferences, preferencesUsed, offsets, numberOfLists, list,
+    @     cursor, paperOrdinals, weight, numberOfBallots, numberOfPapers,
+    @     groupTable;
+    @   ensures \old(numberOfPapers) + 1 == numberOfPapers;
+    @   ensures isSameAs(\result, ballot);
+    @*/
+  public int add(final /*@ non_null @*/ Ballot ballot) {
+    return add(ballot.preferenceList, ballot.numberOfPreferences,
+        ballot.positionInList);
+  }
+
+  /**
+   * Add the next ballot paper from a list of preferences, without first
+   * making a ballot paper from it.
+   *
+   * @param preferenceList
+   *        The preferences in order, which are copied so that the array may
+   *        be reused for the next ballot paper
+   * @return The position in the store of the ballot holding this paper
+   */
+  /*@ public normal_behavior
+    @   assignable preferences, preferencesUsed, offsets, numberOfLists, list,
+    @     cursor, paperOrdinals, weight, numberOfBallots, numberOfPapers,
+    @     groupTable;
+    @   ensures \old(numberOfPapers) + 1 == numberOfPapers;
+    @   ensures cursor[\result] == 0;
+    @*/
+  public int add(final /*@ non_null @*/ int[] preferenceList) {
+    return add(preferenceList, preferenceList.length, 0);
+  }
+
+  /**
+   * Add the next ballot paper.
+   *
+   * @param values
+   *        The preferences of the ballot paper
+   * @param length
+   *        The number of preferences
+   * @param position
+   *        The position of the ballot paper in its list of preferences
+   * @return The position in the store of the ballot holding this paper
+   */
+  //@ requires 0 <= length && length <= values.length;
+  //@ requires 0 <= position && position <= length;
+  protected int add(final /*@ non_null @*/ int[] values, final int length,
+      final int position) {
+    final int ordinal = numberOfPapers++;
+    if (paperOrdinals == null) {
+      return addBallot(values, length, position);
+    }
+
+    if (groupTable == null) {
+      rehash(4 * Integer.highestOneBit(numberOfBallots + 1));
+    }
+    else if (groupTable.length < 2 * (numberOfBallots + 1)) {
+      rehash(2 * groupTable.length);
+    }
+    final int slot = findSlot(values, length, position);
+    int b = groupTable[slot];
+    if (b == AbstractBallotCounting.NONE_FOUND_YET) {
+      b = addBallot(values, length, position);
+      groupTable[slot] = b;
+      paperOrdinals[b] = new int[1];
+    }
+    else if (sharesOrdinals || weight[b] == paperOrdinals[b].length) {
+      final int[] larger = new int[Math.max(2 * weight[b], 1)];
+      System.arraycopy(paperOrdinals[b], 0, larger, 0, weight[b]);
+      paperOrdinals[b] = larger;
+    }
+    paperOrdinals[b][weight[b]++] = ordinal;
+    return b;
+  }
+
+  /**
+   * Add a new ballot with its own list of preferences.
+   *
+   * @param values
+   *        The preferences of the ballot paper
+   * @param length
+   *        The number of preferences
+   * @param position
+   *        The position of the ballot paper in its list of preferences
+   * @return The position of the new ballot in the store
+   */
+  protected int addBallot(final /*@ non_null @*/ int[] values,
+      final int length, final int position) {
+    if (sharesPreferences || preferences.length < preferencesUsed + length) {
+      final int[] larger =
+        new int[Math.max(2 * preferences.length, preferencesUsed + length)];
+      System.arraycopy(preferences, 0, larger, 0, preferencesUsed);
+      preferences = larger;
+    }
+    System.arraycopy(values, 0, preferences, preferencesUsed, length);
+    if (sharesPreferences || offsets.length < numberOfLists + 2) {
+      final int[] larger = new int[2 * offsets.length];
+      System.arraycopy(offsets, 0, larger, 0, numberOfLists + 1);
+      offsets = larger;
+      sharesPreferences = false;
+    }
+    offsets[numberOfLists] = preferencesUsed;
+    preferencesUsed += length;
+    offsets[numberOfLists + 1] = preferencesUsed;
+
+    final int b = newBallot();
+    list[b] = numberOfLists++;
+    cursor[b] = position;
+    return b;
+  }
+
+  /**
+   * Make room for one more ballot.
+   *
+   * @return The position of the new ballot in the store
+   */
+  protected int newBallot() {
+    if (numberOfBallots == list.length) {
+      final int capacity = 2 * numberOfBallots;
+      final int[] largerList = new int[capacity];
+      System.arraycopy(list, 0, largerList, 0, numberOfBallots);
+      list = largerList;
+      final int[] largerCursor = new int[capacity];
+      System.arraycopy(cursor, 0, largerCursor, 0, numberOfBallots);
+      cursor = largerCursor;
+      if (paperOrdinals != null) {
+        final int[][] largerOrdinals = new int[capacity][];
+        System.arraycopy(paperOrdinals, 0, largerOrdinals, 0, numberOfBallots);
+        paperOrdinals = largerOrdinals;
+      }
+      if (weight != null) {
+        final int[] largerWeight = new int[capacity];
+        System.arraycopy(weight, 0, largerWeight, 0, numberOfBallots);
+        weight = largerWeight;
+      }
+    }
+    if (weight != null) {
+      // Papers are added to a grouped ballot after it is made
+      weight[numberOfBallots] = (paperOrdinals == null) ? 1 : 0;
+    }
+    return numberOfBallots++;
+  }
+
+  /**
+   * Find the slot in the group table for this ballot paper.
+   *
+   * @param values
+   *        The preferences of the ballot paper
+   * @param length
+   *        The number of preferences
+   * @param position
+   *        The position of the ballot paper in its list of preferences
+   * @return The slot holding the identical weighted ballot, or else the empty
+   *         slot in which to put it
+   */
+  protected /*@ pure @*/ int findSlot(final /*@ non_null @*/ int[] values,
+      final int length, final int position) {
+    final int mask = groupTable.length - 1;
+    final int hash = 31 * hashPreferences(values, 0, length) + position;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (groupTable[slot] != AbstractBallotCounting.NONE_FOUND_YET
+        && !isSameAs(groupTable[slot], values, length, position)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Make the group table larger.
+   *
+   * @param size
+   *        The new size of the table, which is a power of two
+   */
+  protected void rehash(final int size) {
+    groupTable = new int[size];
+    Arrays.fill(groupTable, AbstractBallotCounting.NONE_FOUND_YET);
+    final int mask = size - 1;
+    for (int b = 0; b < numberOfBallots; b++) {
+      final int r = list[b];
+      final int hash = 31 * hashPreferences(preferences, offsets[r],
+          offsets[r + 1]) + cursor[b];
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while (groupTable[slot] != AbstractBallotCounting.NONE_FOUND_YET) {
+        slot = (slot + 1) & mask;
+      }
+      groupTable[slot] = b;
+    }
+  }
+
+  /**
+   * Hash code for a list of preferences.
+   */
+  protected static /*@ pure @*/ int hashPreferences(final int[] values,
+      final int from, final int to) {
+    int hash = 1;
+    for (int i = from; i < to; i++) {
+      hash = 31 * hash + values[i];
+    }
+    return hash;
+  }
+
+  /**
+   * Is this stored ballot indistinguishable from a ballot paper?
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @param ballot
+   *        The ballot paper
+   * @return <code>true</code> if both have the same preferences and are at
+   *         the same position in their preference lists
+   */
+  public /*@ pure @*/ boolean isSameAs(final int b,
+      final /*@ non_null @*/ Ballot ballot) {
+    return isSameAs(b, ballot.preferenceList, ballot.numberOfPreferences,
+        ballot.positionInList);
+  }
+
+  /**
+   * Is this stored ballot indistinguishable from a list of preferences?
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @param values
+   *        The preferences of the ballot paper
+   * @param length
+   *        The number of preferences
+   * @param position
+   *        The position of the ballot paper in its list of preferences
+   * @return <code>true</code> if both have the same preferences and are at
+   *         the same position in their preference lists
+   */
+  protected /*@ pure @*/ boolean isSameAs(final int b,
+      final /*@ non_null @*/ int[] values, final int length,
+      final int position) {
+    final int start = offsets[list[b]];
+    if (cursor[b] != position || offsets[list[b] + 1] - start != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (preferences[start + i] != values[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remove a ballot paper, as when it should not have been counted.
+   *
+   * @design The ballot which held the paper keeps its place in the store, so
+   *         that the other ballots do not move; if it has no papers left, it
+   *         has a weight of zero and belongs on no pile.
+   * @param ordinal
+   *        The position of the paper in the ballot box
+   * @return The position in the store of the ballot which held the paper
+   */
+  /*@ public normal_behavior
+    @   requires 0 <= findBallot(ordinal);
+    @   assignable paperOrdinals[*], weight, numberOfPapersRemoved;
+    @   ensures \old(numberOfPapersRemoved) + 1 == numberOfPapersRemoved;
+    @   ensures findBallot(ordinal) == AbstractBallotCounting.NONE_FOUND_YET;
+    @*/
+  public int remove(final int ordinal) {
+    final int b = findBallot(ordinal);
+    if (b == AbstractBallotCounting.NONE_FOUND_YET) {
+      throw new IllegalArgumentException("No ballot paper at " + ordinal);
+    }
+    if (paperOrdinals == null) {
+      if (weight == null) {
+        weight = new int[list.length];
+        Arrays.fill(weight, 0, numberOfBallots, 1);
+      }
+      weight[b] = 0;
+    }
+    else {
+      final int[] ordinals = paperOrdinals[b];
+      final int position = Arrays.binarySearch(ordinals, 0, weight[b], ordinal);
+      final int[] remaining = new int[weight[b] - 1];
+      System.arraycopy(ordinals, 0, remaining, 0, position);
+      System.arraycopy(ordinals, position + 1, remaining, position,
+          remaining.length - position);
+      paperOrdinals[b] = remaining;
+      weight[b]--;
+    }
+    numberOfPapersRemoved++;
+    return b;
+  }
+
+  /**
+   * Find the ballot which holds a ballot paper.
+   *
+   * @param ordinal
+   *        The position of the paper in the ballot box
+   * @return The position of the ballot in the store, or
+   *         {@link AbstractBallotCounting#NONE_FOUND_YET} if there is no such
+   *         paper in the store
+   */
+  public /*@ pure @*/ int findBallot(final int ordinal) {
+    if (ordinal < 0 || numberOfPapers <= ordinal) {
+      return AbstractBallotCounting.NONE_FOUND_YET;
+    }
+    if (paperOrdinals == null) {
+      // Each ballot is the paper at the same position in the ballot box
+      return (getWeight(ordinal) == 0) ? AbstractBallotCounting.NONE_FOUND_YET
+        : ordinal;
+    }
+    for (int b = 0; b < numberOfBallots; b++) {
+      if (0 <= Arrays.binarySearch(paperOrdinals[b], 0, weight[b], ordinal)) {
+        return b;
+      }
+    }
+    return AbstractBallotCounting.NONE_FOUND_YET;
+  }
+
+  /**
+   * Forget every list of preferences after the first few, so that a
+   * checkpoint taken before they were added can be read again.
+   *
+   * @param numberOfListsToKeep
+   *        The number of lists of preferences to keep
+   */
+  //@ requires 0 <= numberOfListsToKeep;
+  //@ requires numberOfListsToKeep <= numberOfLists;
+  //@ assignable numberOfLists, preferencesUsed, numberOfBallots, groupTable;
+  //@ ensures numberOfLists == numberOfListsToKeep;
+  public void truncate(final int numberOfListsToKeep) {
+    numberOfLists = numberOfListsToKeep;
+    preferencesUsed = offsets[numberOfListsToKeep];
+    numberOfBallots = Math.min(numberOfBallots, numberOfListsToKeep);
+    groupTable = null;
+  }
+
+  /**
+   * Release the group table once all ballot papers have been added; it is
+   * rebuilt if any more papers are added.
+   */
+  //@ assignable groupTable;
+  //@ ensures groupTable == null;
+  public void close() {
+    groupTable = null;
+  }
+
+  /**
+   * Write the position of each ballot, and how the papers of weighted ballots
+   * have been split, to a checkpoint of the count.
+   *
+   * @design The lists of preferences are not written, as they never change;
+   *         the same ballots are loaded again before the checkpoint is read.
+   *         Positions and paper ordinals are written as variable length
+   *         numbers, most of which take one byte.
+   * @param out
+   *        The checkpoint
+   * @throws IOException
+   *         If the checkpoint cannot be written
+   */
+  public void writeCheckpoint(final /*@ non_null @*/ DataOutput out)
+      throws IOException {
+    writeNumber(out, numberOfLists);
+    writeNumber(out, numberOfBallots);
+    writeNumber(out, numberOfPapers);
+    writeNumber(out, numberOfPapersRemoved);
+    final boolean weighted = paperOrdinals == null && weight != null;
+    out.writeBoolean(weighted);
+    for (int b = 0; b < numberOfBallots; b++) {
+      // Only the parts split from weighted ballots share a list
+      if (numberOfLists <= b) {
+        writeNumber(out, list[b]);
+      }
+      writeNumber(out, cursor[b]);
+      if (paperOrdinals != null) {
+        writeNumber(out, weight[b]);
+        int previous = 0;
+        for (int i = 0; i < weight[b]; i++) {
+          writeNumber(out, paperOrdinals[b][i] - previous);
+          previous = paperOrdinals[b][i];
+        }
+      }
+      else if (weighted) {
+        writeNumber(out, weight[b]);
+      }
+    }
+  }
+
+  /**
+   * Restore the position of each ballot from a checkpoint of the count.
+   *
+   * @param in
+   *        The checkpoint
+   * @throws IOException
+   *         If the checkpoint cannot be read, or is of other ballots
+   */
+  /*@ public normal_behavior
+    @   assignable list, cursor, paperOrdinals, weight, numberOfBallots;
+    @*/
+  public void readCheckpoint(final /*@ non_null @*/ DataInput in)
+      throws IOException {
+    if (readNumber(in) != numberOfLists) {
+      throw new IOException("Checkpoint is not of these ballots");
+    }
+    final int size = readNumber(in);
+    if (size < numberOfLists) {
+      throw new IOException("Checkpoint is not of these ballots");
+    }
+    final int papers = readNumber(in);
+    final int papersRemoved = readNumber(in);
+    if (papers < numberOfLists || papers < papersRemoved) {
+      throw new IOException("Checkpoint is not of these ballots");
+    }
+    final boolean weighted = in.readBoolean();
+    while (numberOfBallots < size) {
+      newBallot();
+    }
+    numberOfBallots = size;
+    numberOfPapers = papers;
+    numberOfPapersRemoved = papersRemoved;
+    if (paperOrdinals == null) {
+      weight = weighted ? new int[list.length] : null;
+    }
+    groupTable = null;
+    for (int b = 0; b < numberOfBallots; b++) {
+      list[b] = (numberOfLists <= b) ? readNumber(in) : b;
+      cursor[b] = readNumber(in);
+      if (list[b] < 0 || numberOfLists <= list[b] || cursor[b] < 0
+          || getNumberOfPreferences(b) < cursor[b]) {
+        throw new IOException("Checkpoint is not of these ballots");
+      }
+      if (paperOrdinals != null) {
+        weight[b] = readNumber(in);
+        paperOrdinals[b] = new int[weight[b]];
+        int ordinal = 0;
+        for (int i = 0; i < weight[b]; i++) {
+          ordinal += readNumber(in);
+          paperOrdinals[b][i] = ordinal;
+        }
+      }
+      else if (weighted) {
+        weight[b] = readNumber(in);
+      }
+    }
+  }
+
+  /**
+   * Write a number which is not negative in as few bytes as it needs, seven
+   * bits at a time.
+   */
+  //@ requires 0 <= value;
+  protected static void writeNumber(final /*@ non_null @*/ DataOutput out,
+      final int value) throws IOException {
+    int rest = value;
+    while (0x7F < rest) {
+      out.writeByte((rest & 0x7F) | 0x80);
+      rest >>>= 7;
+    }
+    out.writeByte(rest);
+  }
+
+  /**
+   * Read a number written by {@link #writeNumber}.
+   */
+  //@ ensures 0 <= \result;
+  protected static int readNumber(final /*@ non_null @*/ DataInput in)
+      throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final int next = in.readUnsignedByte();
+      value |= (next & 0x7F) << shift;
+      if (next < 0x80) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new IOException("Checkpoint is corrupt");
+  }
+
+  /**
+   * Get the number of ballots in the store.
+   *
+   * @return The number of ballots, each of which may be weighted
+   */
+  //@ ensures \result == numberOfBallots;
+  public /*@ pure @*/ int size() {
+    return numberOfBallots;
+  }
+
+  /**
+   * Estimate the heap used by this store.
+   *
+   * @design Each array is counted as its elements and a header; arrays shared
+   *         with another store are counted in full by each of them. This
+   *         may be called from another thread while the store changes, when
+   *         the estimate is of one moment or another.
+   * @return The approximate number of bytes used
+   */
+  //@ ensures 0 < \result;
+  public /*@ pure @*/ long getFootprint() {
+    long bytes = ARRAY_HEADER_SIZE * 4 + 4L * (preferences.length
+        + offsets.length + list.length + cursor.length);
+    final int[] weights = weight;
+    if (weights != null) {
+      bytes += ARRAY_HEADER_SIZE + 4L * weights.length;
+    }
+    final int[][] ordinals = paperOrdinals;
+    if (ordinals != null) {
+      bytes += ARRAY_HEADER_SIZE + 4L * ordinals.length;
+      for (int b = 0; b < ordinals.length; b++) {
+        final int[] papers = ordinals[b];
+        if (papers != null) {
+          bytes += ARRAY_HEADER_SIZE + 4L * papers.length;
+        }
+      }
+    }
+    final int[] table = groupTable;
+    if (table != null) {
+      bytes += ARRAY_HEADER_SIZE + 4L * table.length;
+    }
+    return bytes;
+  }
+
+  /**
+   * Get the number of positions in the ballot box of the papers added to the
+   * store, including the positions of any papers since removed.
+   *
+   * @return The number of ballot papers added
+   */
+  //@ ensures \result == numberOfPapers;
+  public /*@ pure @*/ int getNumberOfPositions() {
+    return numberOfPapers;
+  }
+
+  /**
+   * Get the number of ballot papers in the store.
+   *
+   * @return The number of ballot papers added and not removed
+   */
+  //@ ensures \result == numberOfPapers - numberOfPapersRemoved;
+  public /*@ pure @*/ int getNumberOfPapers() {
+    return numberOfPapers - numberOfPapersRemoved;
+  }
+
+  /**
+   * Are identical ballot papers stored as one weighted ballot?
+   *
+   * @return <code>true</code> if ballots are weighted
+   */
+  //@ ensures \result <==> (paperOrdinals != null);
+  public /*@ pure @*/ boolean isGrouped() {
+    return paperOrdinals != null;
+  }
+
+  /**
+   * Get the number of ballot papers represented by a ballot.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @return The number of papers, which is one unless identical ballot papers
+   *         are grouped, or zero once all its papers have been removed
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  //@ ensures 0 <= \result;
+  public /*@ pure @*/ int getWeight(final int b) {
+    if (weight == null) {
+      return 1;
+    }
+    return weight[b];
+  }
+
+  /**
+   * Get the position in the ballot box of one of the papers of a ballot.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @param i
+   *        Which of its papers, in ballot box order
+   * @return The position in the ballot box of that paper
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  //@ requires 0 <= i && i < getWeight(b);
+  public /*@ pure @*/ int getPaperOrdinal(final int b, final int i) {
+    if (paperOrdinals == null) {
+      return b;
+    }
+    return paperOrdinals[b][i];
+  }
+
+  /**
+   * Count the papers of a ballot which are at or before a position in the
+   * ballot box.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @param ordinal
+   *        The position in the ballot box
+   * @return The number of papers of this ballot up to that position
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  //@ ensures 0 <= \result && \result <= getWeight(b);
+  public /*@ pure @*/ int countPapersUpTo(final int b, final int ordinal) {
+    if (paperOrdinals == null) {
+      return (b <= ordinal) ? 1 : 0;
+    }
+    final int position =
+      Arrays.binarySearch(paperOrdinals[b], 0, weight[b], ordinal);
+    if (position < 0) {
+      return -(position + 1);
+    }
+    return position + 1;
+  }
+
+  /**
+   * Split the first papers of a weighted ballot into a new ballot.
+   *
+   * @param b
+   *        The position of the weighted ballot in the store
+   * @param numberOfPapersToSplit
+   *        The number of papers to split from the weighted ballot
+   * @return The position of the new ballot in the store
+   */
+  /*@ public normal_behavior
+    @   requires paperOrdinals != null;
+    @   requires 0 < numberOfPapersToSplit;
+    @   requires numberOfPapersToSplit < getWeight(b);
+    @   assignable list, cursor, paperOrdinals, weight, numberOfBallots;
+    @   ensures getWeight(\result) == numberOfPapersToSplit;
+    @   ensures list[\result] == list[b] && cursor[\result] == cursor[b];
+    @*/
+  public int split(final int b, final int numberOfPapersToSplit) {
+    final int part = newBallot();
+    list[part] = list[b];
+    cursor[part] = cursor[b];
+
+    final int[] ordinals = paperOrdinals[b];
+    final int remainder = weight[b] - numberOfPapersToSplit;
+    paperOrdinals[part] = new int[numberOfPapersToSplit];
+    System.arraycopy(ordinals, 0, paperOrdinals[part], 0,
+        numberOfPapersToSplit);
+    weight[part] = numberOfPapersToSplit;
+    paperOrdinals[b] = new int[remainder];
+    System.arraycopy(ordinals, numberOfPapersToSplit, paperOrdinals[b], 0,
+        remainder);
+    weight[b] = remainder;
+    return part;
+  }
+
+  /**
+   * Get the number of preferences on a ballot.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @return The length of its list of preferences
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  public /*@ pure @*/ int getNumberOfPreferences(final int b) {
+    return offsets[list[b] + 1] - offsets[list[b]];
+  }
+
+  /**
+   * Get a copy of the preferences on a ballot.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @return The preferences, in order
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  //@ ensures \result.length == getNumberOfPreferences(b);
+  public /*@ pure non_null @*/ int[] getPreferenceList(final int b) {
+    final int[] preferenceList = new int[getNumberOfPreferences(b)];
+    System.arraycopy(preferences, offsets[list[b]], preferenceList, 0,
+        preferenceList.length);
+    return preferenceList;
+  }
+
+  /**
+   * Get candidate ID to which the ballot is assigned
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @return The candidate ID to which the ballot is assigned
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  public /*@ pure @*/ int getCandidateID(final int b) {
+    final int index = offsets[list[b]] + cursor[b];
+    if (index < offsets[list[b] + 1]) {
+      return preferences[index];
+    }
+    return Ballot.NONTRANSFERABLE;
+  }
+
+  /**
+   * Get next preference candidate ID
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @param offset
+   *        The number of preferences to look ahead
+   * @return The next preference candidate ID
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  //@ requires 0 <= cursor[b] + offset;
+  public /*@ pure @*/ int getNextPreference(final int b, final int offset) {
+    final int index = offsets[list[b]] + cursor[b] + offset;
+    if (index < offsets[list[b] + 1]) {
+      return preferences[index];
+    }
+    return Ballot.NONTRANSFERABLE;
+  }
+
+  /**
+   * Gets the remaining number of preferences.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @return The number of preferences remaining
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  //@ ensures \result == getNumberOfPreferences(b) - cursor[b];
+  public /*@ pure @*/ int remainingPreferences(final int b) {
+    return getNumberOfPreferences(b) - cursor[b];
+  }
+
+  /**
+   * Transfer this ballot to the next preference.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   */
+  /*@ public normal_behavior
+    @   requires 0 <= b && b < numberOfBallots;
+    @   assignable cursor[b];
+    @   ensures (\old(cursor[b]) < getNumberOfPreferences(b)) ==>
+    @     \old(cursor[b]) + 1 == cursor[b];
+    @*/
+  public void transfer(final int b) {
+    if (cursor[b] < getNumberOfPreferences(b)) {
+      cursor[b]++;
+    }
+  }
+
+  /**
+   * Get the first preference on a ballot.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @return The <code>candidateID</code> of the first preference, or
+   *         <code>NONTRANSFERABLE</code> if there are no preferences
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  public /*@ pure @*/ int getFirstPreference(final int b) {
+    if (offsets[list[b]] < offsets[list[b] + 1]) {
+      return preferences[offsets[list[b]]];
+    }
+    return Ballot.NONTRANSFERABLE;
+  }
+
+  /**
+   * Query: Is this the first preference on the ballot?
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @param candidateID
+   *        The <code>candidateID</code> for the first preference
+   * @return <code>true</code> if this is the first preference on the ballot
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  public /*@ pure @*/ boolean isFirstPreference(final int b,
+      final int candidateID) {
+    return offsets[list[b]] < offsets[list[b] + 1]
+      && candidateID == preferences[offsets[list[b]]];
+  }
+
+  /**
+   * This method checks if this ballot is assigned to this candidate.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @param candidateIDToCheck
+   *        The unique identifier for this candidate
+   * @return <code>true</code> if this ballot is assigned to this candidate
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  //@ ensures \result <==> (getCandidateID(b) == candidateIDToCheck);
+  public /*@ pure @*/ boolean isAssignedTo(final int b,
+      final int candidateIDToCheck) {
+    return getCandidateID(b) == candidateIDToCheck;
+  }
+
+  /**
+   * Get a copy of a stored ballot, in the form of a ballot paper.
+   *
+   * @param b
+   *        The position of the ballot in the store
+   * @return A ballot paper with the same preferences and position
+   */
+  //@ requires 0 <= b && b < numberOfBallots;
+  //@ ensures isSameAs(b, \result);
+  public /*@ pure non_null @*/ Ballot getBallot(final int b) {
+    final int start = offsets[list[b]];
+    final int[] preferenceList = new int[getNumberOfPreferences(b)];
+    System.arraycopy(preferences, start, preferenceList, 0,
+        preferenceList.length);
+    final Ballot ballot = new Ballot(preferenceList);
+    ballot.positionInList = cursor[b];
+    return ballot;
+  }
+}
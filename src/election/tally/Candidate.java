@@ -1,5 +1,8 @@
 package election.tally;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -37,36 +40,41 @@ public class Candidate extends CandidateStatus implements Serializable {
     @*/
   protected transient/*@ spec_public @*/int candidateID;
   
-  /** Number of votes added at each count */
-  /*@ public invariant (\forall int i; 0 < i && i < votesAdded.length;
-    @   0 <= votesAdded[i]);
-    @ public initially (\forall int i; 0 < i && i < votesAdded.length;
-    @   votesAdded[i] == 0);
-    @ public invariant votesAdded.length <= CountConfiguration.MAXCOUNT;
+  /** Initial room for the counts at which votes are added or removed */
+  protected static final int INITIAL_HISTORY = 4;
+  
+  /**
+   * Counts at which votes were added or removed, in order; most candidates
+   * gain or lose votes at only a few of the counts.
+   */
+  /*@ public invariant (\forall int i; 0 < i && i < historySize;
+    @   countsOfChange[i-1] < countsOfChange[i]);
     @*/
-  protected/*@ spec_public non_null @*/int[] votesAdded =
-      new int[CountConfiguration.MAXCOUNT];
-  
-  /** Number of votes removed at each count */
-  /*@ public invariant (\forall int i; 0 <= i && i < votesRemoved.length;
-    @                                  0 <= votesRemoved[i]);
-    @ public initially (\forall int i; 0 <= i && i < votesRemoved.length;
-    @                                  votesRemoved[i] == 0);
-    @ public invariant votesRemoved.length <= CountConfiguration.MAXCOUNT;
+  protected/*@ spec_public non_null @*/int[] countsOfChange =
+      new int[INITIAL_HISTORY];
+  
+  /** Net number of votes added at each of those counts */
+  protected/*@ spec_public non_null @*/int[] netVoteAtCount =
+      new int[INITIAL_HISTORY];
+  
+  /** Net number of votes added up to and including each of those counts */
+  /*@ public invariant (\forall int i; 0 <= i && i < historySize;
+    @   netVoteToCount[i] == (\sum int j; 0 <= j && j <= i;
+    @   netVoteAtCount[j]));
     @*/
-  protected/*@ spec_public non_null @*/int[] votesRemoved =
-      new int[CountConfiguration.MAXCOUNT];
+  protected/*@ spec_public non_null @*/int[] netVoteToCount =
+      new int[INITIAL_HISTORY];
   
-  //@ public invariant votesAdded != votesRemoved;
-  //@ public invariant votesRemoved != votesAdded;
+  /** Number of counts at which votes were added or removed */
+  //@ public initially historySize == 0;
+  //@ public invariant 0 <= historySize;
+  //@ public invariant historySize <= countsOfChange.length;
+  protected /*@ spec_public @*/ int historySize = 0;
   
   /** The number of rounds of counting so far */
   //@ public invariant 0 <= lastCountNumber;
   //@ public initially lastCountNumber == 0;
   //@ public constraint \old(lastCountNumber) <= lastCountNumber;
-  //@ public invariant lastCountNumber < CountConfiguration.MAXCOUNT;
-  //@ public invariant lastCountNumber < votesAdded.length;
-  //@ public invariant lastCountNumber < votesRemoved.length;
   protected /*@ spec_public @*/ int lastCountNumber = 0;
 
   
@@ -102,12 +110,238 @@ public class Candidate extends CandidateStatus implements Serializable {
    */
   /*@ protected normal_behavior
     @   requires 0 <= count;
-    @   requires count < votesAdded.length;
-    @   requires count < votesRemoved.length;
-    @   ensures \result == votesAdded[count] - votesRemoved[count];
+    @   ensures (\forall int i; 0 <= i && i < historySize;
+    @     countsOfChange[i] != count) ==> \result == 0;
     @*/
   protected/*@ pure spec_public @*/int getVoteAtCount(final int count) {
-    return (votesAdded[count] - votesRemoved[count]);
+    final int index = findCountOfChange(count);
+    if (0 <= index && countsOfChange[index] == count) {
+      return netVoteAtCount[index];
+    }
+    return 0;
+  }
+  
+  /**
+   * Find the last count, at or before a given count, at which votes were
+   * added or removed.
+   * 
+   * @param count
+   *          The count number
+   * @return The position of that count in the history, or <code>-1</code> if
+   *         there was none
+   */
+  /*@ protected normal_behavior
+    @   ensures -1 <= \result && \result < historySize;
+    @   ensures (0 <= \result) ==> countsOfChange[\result] <= count;
+    @   ensures (\result + 1 < historySize) ==>
+    @     count < countsOfChange[\result + 1];
+    @*/
+  protected/*@ pure @*/int findCountOfChange(final int count) {
+    int low = 0;
+    int high = historySize - 1;
+    /*@ loop_invariant -1 <= high && high < historySize;
+      @ decreasing high - low;
+      @*/
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      if (countsOfChange[middle] <= count) {
+        low = middle + 1;
+      }
+      else {
+        high = middle - 1;
+      }
+    }
+    return high;
+  }
+  
+  /**
+   * Gets the last count, at or before a given count, at which this candidate
+   * gained or lost votes.
+   * 
+   * @param count
+   *          The count number
+   * @return The count number, or <code>-1</code> if there was none
+   */
+  /*@ public normal_behavior
+    @   ensures \result <= count;
+    @   ensures (0 <= \result) ==> getVoteAtCount(\result) != 0;
+    @*/
+  public/*@ pure @*/int getLastCountOfChange(final int count) {
+    final int index = findCountOfChange(count);
+    if (0 <= index) {
+      return countsOfChange[index];
+    }
+    return -1;
+  }
+  
+  /**
+   * Gets the total vote, less the net number of votes added or removed after a
+   * given count; this is compared count by count to break ties.
+   * 
+   * @param count
+   *          The count number
+   * @return The total vote as it stood at the end of that count
+   */
+  /*@ public normal_behavior
+    @   requires 0 <= count;
+    @   ensures \result == totalVote - (\sum int i; 0 <= i && i < historySize
+    @     && count < countsOfChange[i]; netVoteAtCount[i]);
+    @*/
+  public/*@ pure @*/int getTotalAtEndOfCount(final int count) {
+    if (historySize == 0) {
+      return totalVote;
+    }
+    final int index = findCountOfChange(count);
+    final int netVoteUpToCount = (0 <= index) ? netVoteToCount[index] : 0;
+    return totalVote - (netVoteToCount[historySize - 1] - netVoteUpToCount);
+  }
+  
+  /**
+   * Record the net number of votes added at a count.
+   * 
+   * @param count
+   *          The count number
+   * @param numberOfVotes
+   *          The number of votes added, or minus the number removed
+   */
+  /*@ protected normal_behavior
+    @   requires 0 <= count;
+    @   assignable countsOfChange, netVoteAtCount, netVoteToCount, historySize;
+    @   ensures getVoteAtCount(count) ==
+    @     \old(getVoteAtCount(count)) + numberOfVotes;
+    @*/
+  protected void recordChange(final int count, final int numberOfVotes) {
+    if (numberOfVotes == 0) {
+      return;
+    }
+    int index = findCountOfChange(count);
+    if (index < 0 || countsOfChange[index] != count) {
+      
+      // Make room for a new count, which is usually the last
+      if (historySize == countsOfChange.length) {
+        final int capacity = 2 * historySize;
+        countsOfChange = copyOf(countsOfChange, capacity);
+        netVoteAtCount = copyOf(netVoteAtCount, capacity);
+        netVoteToCount = copyOf(netVoteToCount, capacity);
+      }
+      index++;
+      final int after = historySize - index;
+      System.arraycopy(countsOfChange, index, countsOfChange, index + 1, after);
+      System.arraycopy(netVoteAtCount, index, netVoteAtCount, index + 1, after);
+      System.arraycopy(netVoteToCount, index, netVoteToCount, index + 1, after);
+      countsOfChange[index] = count;
+      netVoteAtCount[index] = 0;
+      netVoteToCount[index] = (0 < index) ? netVoteToCount[index - 1] : 0;
+      historySize++;
+    }
+    netVoteAtCount[index] += numberOfVotes;
+    for (int i = index; i < historySize; i++) {
+      netVoteToCount[i] += numberOfVotes;
+    }
+  }
+  
+  /**
+   * Copy an array into a larger one.
+   * 
+   * @param values
+   *          The array to copy
+   * @param capacity
+   *          The length of the new array
+   * @return The new array
+   */
+  //@ requires values.length <= capacity;
+  //@ ensures \result.length == capacity;
+  private static/*@ pure non_null @*/int[] copyOf(
+      final/*@ non_null @*/int[] values, final int capacity) {
+    final int[] larger = new int[capacity];
+    System.arraycopy(values, 0, larger, 0, values.length);
+    return larger;
+  }
+  
+  /**
+   * Correct the number of first preferences, when ballot papers are added to
+   * or removed from a count which has already started.
+   * 
+   * @param numberOfVotes
+   *          The number of first preferences added, or minus the number
+   *          removed
+   */
+  /*@ protected normal_behavior
+    @   assignable countsOfChange, netVoteAtCount, netVoteToCount, historySize,
+    @     totalVote;
+    @   ensures totalVote == \old(totalVote) + numberOfVotes;
+    @   ensures getVoteAtCount(0) == \old(getVoteAtCount(0)) + numberOfVotes;
+    @*/
+  public void correctFirstPreferences(final int numberOfVotes) {
+    recordChange(0, numberOfVotes);
+    totalVote += numberOfVotes;
+    
+    // Forget the first count if no first preferences are left
+    if (0 < historySize && countsOfChange[0] == 0 && netVoteAtCount[0] == 0) {
+      historySize--;
+      System.arraycopy(countsOfChange, 1, countsOfChange, 0, historySize);
+      System.arraycopy(netVoteAtCount, 1, netVoteAtCount, 0, historySize);
+      System.arraycopy(netVoteToCount, 1, netVoteToCount, 0, historySize);
+    }
+  }
+  
+  /**
+   * Write the votes, status and history of this candidate to a checkpoint of
+   * the count.
+   * 
+   * @param out
+   *          The checkpoint
+   * @throws IOException
+   *           If the checkpoint cannot be written
+   */
+  public void writeCheckpoint(final/*@ non_null @*/DataOutput out)
+      throws IOException {
+    out.writeInt(candidateID);
+    out.writeByte(state);
+    out.writeInt(totalVote);
+    out.writeInt(removedVote);
+    out.writeInt(lastCountNumber);
+    out.writeInt(historySize);
+    for (int i = 0; i < historySize; i++) {
+      out.writeInt(countsOfChange[i]);
+      out.writeInt(netVoteAtCount[i]);
+    }
+  }
+  
+  /**
+   * Restore the votes, status and history of this candidate from a
+   * checkpoint of the count.
+   * 
+   * @param in
+   *          The checkpoint
+   * @throws IOException
+   *           If the checkpoint cannot be read, or is of another candidate
+   */
+  /*@ protected normal_behavior
+    @   assignable state, totalVote, removedVote, lastCountNumber,
+    @     countsOfChange, netVoteAtCount, netVoteToCount, historySize;
+    @*/
+  public void readCheckpoint(final/*@ non_null @*/DataInput in)
+      throws IOException {
+    if (in.readInt() != candidateID) {
+      throw new IOException("Checkpoint is not of candidate " + candidateID);
+    }
+    state = in.readByte();
+    totalVote = in.readInt();
+    removedVote = in.readInt();
+    lastCountNumber = in.readInt();
+    historySize = in.readInt();
+    final int capacity = Math.max(historySize, INITIAL_HISTORY);
+    countsOfChange = new int[capacity];
+    netVoteAtCount = new int[capacity];
+    netVoteToCount = new int[capacity];
+    int netVote = 0;
+    for (int i = 0; i < historySize; i++) {
+      countsOfChange[i] = in.readInt();
+      netVoteAtCount[i] = in.readInt();
+      netVote += netVoteAtCount[i];
+      netVoteToCount[i] = netVote;
+    }
   }
   
   /**
@@ -152,20 +386,13 @@ public class Candidate extends CandidateStatus implements Serializable {
    * @param theCandidateID
    */
   /*@ requires 0 < theCandidateID;
-    @ assignable candidateID, votesAdded, votesRemoved;
+    @ assignable candidateID;
     @ ensures this.candidateID == theCandidateID;
-    @ ensures (\forall int i; 0 <= i && i < CountConfiguration.MAXCOUNT;
-    @   getTotalAtCount() == 0);
+    @ ensures getTotalAtCount() == 0;
     @*/
   public Candidate(final int theCandidateID) {
     super();
     this.candidateID = theCandidateID;
-    
-    //@ loop_invariant (0 < i) ==> getVoteAtCount(i-1) == 0;
-    for (int i = 0; i < CountConfiguration.MAXCOUNT; i++) {
-      this.votesAdded[i] = 0;
-      this.votesRemoved[i] = 0;
-    }
   }
   
   /**
@@ -182,15 +409,16 @@ public class Candidate extends CandidateStatus implements Serializable {
     @   requires state == CONTINUING;
     @   requires lastCountNumber <= count;
     @   requires 0 <= count;
-    @   requires count < votesAdded.length;
     @   requires 0 <= numberOfVotes;
-    @   assignable lastCountNumber, votesAdded[count], totalVote;
-    @   ensures \old(votesAdded[count]) + numberOfVotes == votesAdded[count];
+    @   assignable lastCountNumber, countsOfChange, netVoteAtCount,
+    @     netVoteToCount, historySize, totalVote;
+    @   ensures \old(getVoteAtCount(count)) + numberOfVotes ==
+    @     getVoteAtCount(count);
     @   ensures \old(totalVote) + numberOfVotes == totalVote;
     @   ensures count == lastCountNumber;
     @*/
   public void addVote(final int numberOfVotes, final int count) {
-    votesAdded[count] += numberOfVotes;
+    recordChange(count, numberOfVotes);
     totalVote += numberOfVotes;
     updateCountNumber(count);
   }
@@ -202,9 +430,6 @@ public class Candidate extends CandidateStatus implements Serializable {
    *          The number of the most recent count
    */
   /*@ protected normal_behavior
-    @   requires count < CountConfiguration.MAXCOUNT;
-    @   requires count < votesAdded.length;
-    @   requires count < votesRemoved.length;
     @   requires lastCountNumber <= count;
     @   assignable lastCountNumber;
     @   ensures lastCountNumber == count;
@@ -227,18 +452,17 @@ public class Candidate extends CandidateStatus implements Serializable {
     @   requires state == ELIMINATED || state == ELECTED;
     @   requires lastCountNumber <= count;
     @   requires 0 <= count;
-    @   requires count < votesRemoved.length;
-    @   requires count < votesAdded.length;
-    @   requires count < CountConfiguration.MAXCOUNT;
     @   requires 0 <= numberOfVotes;
     @   requires numberOfVotes <= getTotalAtCount();
-    @   assignable lastCountNumber, votesRemoved[count], removedVote;
-    @   ensures \old(votesRemoved[count]) + numberOfVotes == votesRemoved[count];
+    @   assignable lastCountNumber, countsOfChange, netVoteAtCount,
+    @     netVoteToCount, historySize, removedVote;
+    @   ensures \old(getVoteAtCount(count)) - numberOfVotes ==
+    @     getVoteAtCount(count);
     @   ensures \old(removedVote) + numberOfVotes == removedVote;
     @   ensures count == lastCountNumber;
     @*/
   public void removeVote(final int numberOfVotes, final int count) {
-    votesRemoved[count] += numberOfVotes;
+    recordChange(count, -numberOfVotes);
     removedVote += numberOfVotes;
     updateCountNumber(count);
   }
@@ -247,9 +471,7 @@ public class Candidate extends CandidateStatus implements Serializable {
   /*@ public normal_behavior
     @   requires this.state == CONTINUING;
     @   requires this.lastCountNumber <= countNumber;
-    @   requires 0 <= countNumber && countNumber < CountConfiguration.MAXCOUNT;
-    @   requires countNumber < votesAdded.length;
-    @   requires countNumber < votesRemoved.length;
+    @   requires 0 <= countNumber;
     @   assignable state, lastCountNumber;
     @   ensures state == ELECTED;
     @*/
@@ -260,9 +482,7 @@ public class Candidate extends CandidateStatus implements Serializable {
   
   /** Declares the candidate to be eliminated */
   /*@ public normal_behavior
-    @   requires 0 <= countNumber && countNumber < CountConfiguration.MAXCOUNT;
-    @   requires countNumber < votesAdded.length;
-    @   requires countNumber < votesRemoved.length;
+    @   requires 0 <= countNumber;
     @   requires this.lastCountNumber <= countNumber;
     @   requires this.state == CONTINUING;
     @   assignable state, lastCountNumber;
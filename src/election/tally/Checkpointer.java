@@ -0,0 +1,59 @@
+package election.tally;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+/**
+ * Somewhere to keep a checkpoint of a count at the start of each round, so
+ * that the count can be resumed from there instead of from the beginning.
+ * 
+ * <p> Each checkpoint replaces the one before it.
+ */
+public interface Checkpointer {
+
+  /**
+   * Open the output for a new checkpoint.
+   * 
+   * @param countNumber
+   *        The number of rounds of counting finished so far
+   * @return The output to which the checkpoint is written
+   * @throws IOException
+   *         If the checkpoint cannot be opened
+   */
+  /*@ non_null @*/ DataOutput startCheckpoint(int countNumber)
+      throws IOException;
+
+  /**
+   * The whole checkpoint has been written, and may now replace the one
+   * before it.
+   * 
+   * @param countNumber
+   *        The number of rounds of counting finished so far
+   * @throws IOException
+   *         If the checkpoint cannot be kept
+   */
+  void finishCheckpoint(int countNumber) throws IOException;
+}
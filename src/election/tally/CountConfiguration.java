@@ -6,14 +6,19 @@ public class CountConfiguration {
    * Article 16 of the constitution of the Republic or Ireland specifies a
    * maximum of 30,000 people per seat, and the current electoral laws specify a
    * maximum of five seats per national constituency, so the maximum possible
-   * number of ballots is 150,000.
+   * number of ballots in a Dail election is 150,000.
+   * 
+   * @design Other elections, such as a single seat election in a larger area,
+   *         may have many more ballots, so the only limit on the number of
+   *         votes is the range of an <code>int</code>.
    */
-  public static final int MAXVOTES = election.tally.Ballot.MAX_BALLOTS;
+  public static final int MAXVOTES = Integer.MAX_VALUE;
   /**
    * Maximum possible number of counts
    * 
-   * @design This value is not set by the legislation; it is chosen so that
-   *         fixed length arrays can be used in the specification.
+   * @deprecated The count is no longer limited to a number of rounds; it
+   *             stops when a round neither elects nor excludes anyone.
    */
-  public static final int MAXCOUNT = 50;
+  @Deprecated
+  public static final int MAXCOUNT = Integer.MAX_VALUE;
 }
\ No newline at end of file
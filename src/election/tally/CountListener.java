@@ -0,0 +1,66 @@
+package election.tally;
+
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+/**
+ * Progress of the counts in a general election, reported as each count
+ * starts and finishes.
+ * 
+ * <p> Counts run concurrently, so these methods may be called from more than
+ * one thread at once.
+ */
+public interface CountListener {
+
+  /**
+   * A count has been admitted and is about to load its ballots.
+   * 
+   * @param name
+   *        The name of the constituency
+   */
+  void countStarted(/*@ non_null @*/ String name);
+
+  /**
+   * A count has finished.
+   * 
+   * @param name
+   *        The name of the constituency
+   * @param ballotCounting
+   *        The finished count, from which the results may be taken
+   */
+  void countFinished(/*@ non_null @*/ String name,
+      /*@ non_null @*/ BallotCounting ballotCounting);
+
+  /**
+   * A count has stopped because of an error, or was interrupted while
+   * waiting to start.
+   * 
+   * @param name
+   *        The name of the constituency
+   * @param cause
+   *        The error which stopped the count
+   */
+  void countFailed(/*@ non_null @*/ String name,
+      /*@ non_null @*/ Throwable cause);
+}
@@ -0,0 +1,211 @@
+package election.tally;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+/**
+ * Live metrics of a count, which may be registered as a JMX MBean.
+ * 
+ * @design The counters are the plain fields which the count already keeps,
+ *         read without locking, so that keeping them costs nothing; a value
+ *         read while the count is running may be slightly out of date. The
+ *         time of each phase is only taken when the phase changes, a few
+ *         times in each round.
+ */
+public class CountMetrics implements CountMetricsMBean {
+
+  /** No phase of the count is running */
+  public static final int IDLE = AbstractBallotCounting.NONE_FOUND_YET;
+
+  /** Loading ballots */
+  public static final int LOAD = 0;
+
+  /** Allocating first preferences */
+  public static final int FIRST_PREFERENCES = 1;
+
+  /** Electing candidates and distributing surpluses */
+  public static final int SURPLUS = 2;
+
+  /** Excluding candidates */
+  public static final int EXCLUSION = 3;
+
+  /** Filling the last seats */
+  public static final int LAST_SEATS = 4;
+
+  /** Name of each phase */
+  protected static final String[] PHASE_NAMES = { "load",
+      "first preferences", "surplus", "exclusion", "last seats" };
+
+  /** Nanoseconds per millisecond */
+  protected static final long NANOS_PER_MILLI = 1000000L;
+
+  /** The count */
+  protected final /*@ non_null @*/ AbstractBallotCounting ballotCounting;
+
+  /** Time spent in each finished part of each phase, in nanoseconds */
+  protected final /*@ non_null @*/ AtomicLongArray phaseNanos =
+    new AtomicLongArray(PHASE_NAMES.length);
+
+  /** The phase which is running */
+  protected volatile int phase = IDLE;
+
+  /** When the running phase started, from {@link System#nanoTime()} */
+  protected volatile long phaseStart;
+
+  /** Name under which these metrics are registered, if any */
+  protected /*@ nullable @*/ ObjectName objectName;
+
+  /**
+   * Keep the metrics of a count.
+   * 
+   * @param ballotCounting
+   *        The count
+   */
+  public CountMetrics(
+      final /*@ non_null @*/ AbstractBallotCounting ballotCounting) {
+    this.ballotCounting = ballotCounting;
+  }
+
+  /**
+   * Start a phase of the count, which finishes the phase before it.
+   * 
+   * @param nextPhase
+   *        The phase which is starting, or {@link #IDLE}
+   * @return The phase which was running, so that it can be resumed
+   */
+  //@ requires IDLE <= nextPhase && nextPhase <= LAST_SEATS;
+  public int enterPhase(final int nextPhase) {
+    final long now = System.nanoTime();
+    final int previous = phase;
+    if (previous != IDLE) {
+      phaseNanos.addAndGet(previous, now - phaseStart);
+    }
+    phaseStart = now;
+    phase = nextPhase;
+    return previous;
+  }
+
+  /**
+   * Register these metrics with the platform MBean server.
+   * 
+   * @param name
+   *        The name of the count, such as the name of the constituency
+   * @return The name under which the metrics are registered
+   * @throws JMException
+   *         If the metrics cannot be registered, as when another count of
+   *         the same name is registered
+   */
+  public /*@ non_null @*/ ObjectName register(
+      final /*@ non_null @*/ String name) throws JMException {
+    final ObjectName newName = new ObjectName("election.tally:type=Count,name="
+        + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+    objectName = newName;
+    return newName;
+  }
+
+  /**
+   * Remove these metrics from the platform MBean server, if registered.
+   * 
+   * @throws JMException
+   *         If the metrics cannot be removed
+   */
+  public void unregister() throws JMException {
+    if (objectName != null) {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      objectName = null;
+    }
+  }
+
+  public int getCountNumber() {
+    return ballotCounting.countNumberValue;
+  }
+
+  public int getCountStatus() {
+    return ballotCounting.getCountState();
+  }
+
+  public String getPhase() {
+    final int running = phase;
+    return (running == IDLE) ? "idle" : PHASE_NAMES[running];
+  }
+
+  public long getBallotsScanned() {
+    return ballotCounting.ballotsScanned;
+  }
+
+  public long getBallotsTransferred() {
+    return ballotCounting.ballotsTransferred;
+  }
+
+  public long getLoadMillis() {
+    return getPhaseNanos(LOAD) / NANOS_PER_MILLI;
+  }
+
+  public long getFirstPreferencesMillis() {
+    return getPhaseNanos(FIRST_PREFERENCES) / NANOS_PER_MILLI;
+  }
+
+  public long getSurplusMillis() {
+    return getPhaseNanos(SURPLUS) / NANOS_PER_MILLI;
+  }
+
+  public long getExclusionMillis() {
+    return getPhaseNanos(EXCLUSION) / NANOS_PER_MILLI;
+  }
+
+  public long getLastSeatsMillis() {
+    return getPhaseNanos(LAST_SEATS) / NANOS_PER_MILLI;
+  }
+
+  public long getBallotStoreBytes() {
+    final BallotStore ballots = ballotCounting.ballots;
+    return (ballots == null) ? 0 : ballots.getFootprint();
+  }
+
+  /**
+   * Get the time spent in a phase, including the time so far if it is
+   * running.
+   * 
+   * @param p
+   *        The phase
+   * @return The time in nanoseconds
+   */
+  public /*@ pure @*/ long getPhaseNanos(final int p) {
+    long nanos = phaseNanos.get(p);
+    if (phase == p) {
+      nanos += Math.max(0, System.nanoTime() - phaseStart);
+    }
+    return nanos;
+  }
+}
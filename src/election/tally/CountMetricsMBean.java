@@ -0,0 +1,90 @@
+package election.tally;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+/**
+ * What a count is doing while it runs, for monitoring through JMX.
+ * 
+ * @see CountMetrics
+ */
+public interface CountMetricsMBean {
+
+  /**
+   * Get the number of the round being counted.
+   */
+  int getCountNumber();
+
+  /**
+   * Get the state of the count within the round.
+   * 
+   * @return One of the states of {@link AbstractCountStatus}
+   */
+  int getCountStatus();
+
+  /**
+   * Get the name of the phase of the count which is running.
+   */
+  /*@ non_null @*/ String getPhase();
+
+  /**
+   * Get the number of times a ballot has been examined.
+   */
+  long getBallotsScanned();
+
+  /**
+   * Get the number of times a ballot has moved from one pile to another.
+   */
+  long getBallotsTransferred();
+
+  /**
+   * Get the time spent loading ballots, in milliseconds.
+   */
+  long getLoadMillis();
+
+  /**
+   * Get the time spent allocating first preferences, in milliseconds.
+   */
+  long getFirstPreferencesMillis();
+
+  /**
+   * Get the time spent electing candidates and distributing surpluses, in
+   * milliseconds.
+   */
+  long getSurplusMillis();
+
+  /**
+   * Get the time spent excluding candidates, in milliseconds.
+   */
+  long getExclusionMillis();
+
+  /**
+   * Get the time spent filling the last seats, in milliseconds.
+   */
+  long getLastSeatsMillis();
+
+  /**
+   * Get the approximate number of bytes of heap used by the ballot store.
+   */
+  long getBallotStoreBytes();
+}
@@ -0,0 +1,330 @@
+package election.tally;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+/**
+ * The counts for all constituencies in a general election, each of which is
+ * independent of the others and so may run at the same time.
+ * 
+ * <p> Counts run on a fixed number of threads. A count is only admitted once
+ * there is room for its ballots within a limit on the total number of ballots
+ * being counted at once, so that memory stays within bounds no matter how
+ * many constituencies there are.
+ * 
+ * <p> The constituencies, and their candidates, should all be set up before
+ * the first count is submitted.
+ */
+public class GeneralElection {
+
+  /** Threads on which the counts run */
+  protected final /*@ spec_public non_null @*/ ExecutorService executor;
+
+  /** One permit for each ballot that may be counted at once */
+  protected final /*@ spec_public non_null @*/ Semaphore admission;
+
+  /** Largest number of ballots that may be counted at once */
+  //@ public invariant 0 < maxBallotsInProgress;
+  protected final /*@ spec_public @*/ int maxBallotsInProgress;
+
+  /** Listener to which progress is reported */
+  protected final /*@ spec_public nullable @*/ CountListener listener;
+
+  /** Number of counts submitted */
+  protected final /*@ spec_public non_null @*/ AtomicInteger submitted =
+    new AtomicInteger();
+
+  /** Number of counts finished, whether or not successfully */
+  protected final /*@ spec_public non_null @*/ AtomicInteger finished =
+    new AtomicInteger();
+
+  /**
+   * Prepare to count a general election.
+   * 
+   * @param numberOfThreads
+   *        The number of counts which may run at the same time
+   * @param maxBallotsInProgress
+   *        The largest total number of ballots in the counts which are
+   *        running, except that a single count larger than this may run on
+   *        its own
+   * @param listener
+   *        Listener to which progress is reported, or <code>null</code>
+   */
+  //@ requires 0 < numberOfThreads;
+  //@ requires 0 < maxBallotsInProgress;
+  public GeneralElection(final int numberOfThreads,
+      final int maxBallotsInProgress,
+      final /*@ nullable @*/ CountListener listener) {
+    this.executor = Executors.newFixedThreadPool(numberOfThreads);
+    this.admission = new Semaphore(maxBallotsInProgress, true);
+    this.maxBallotsInProgress = maxBallotsInProgress;
+    this.listener = listener;
+  }
+
+  /**
+   * Count the ballots in a ballot box for one constituency.
+   * 
+   * @param name
+   *        The name of the constituency
+   * @param constituency
+   *        The seats and candidates in the constituency
+   * @param ballotBox
+   *        The ballots to be counted, already "shuffled and mixed"
+   * @return The count, once it has finished
+   */
+  public /*@ non_null @*/ Future<BallotCounting> submit(
+      final /*@ non_null @*/ String name,
+      final /*@ non_null @*/ Constituency constituency,
+      final /*@ non_null @*/ BallotBox ballotBox) {
+    return submit(name, constituency, ballotBox.size(), new Loader() {
+      public void load(final BallotCounting ballotCounting) {
+        ballotCounting.load(ballotBox);
+      }
+    });
+  }
+
+  /**
+   * Count the ballot papers for one constituency as they are read.
+   * 
+   * @param name
+   *        The name of the constituency
+   * @param constituency
+   *        The seats and candidates in the constituency
+   * @param preferenceLists
+   *        The preferences of each ballot paper, already "shuffled and mixed"
+   * @param numberOfBallots
+   *        The number of ballot papers expected
+   * @return The count, once it has finished
+   */
+  //@ requires 0 <= numberOfBallots;
+  public /*@ non_null @*/ Future<BallotCounting> submit(
+      final /*@ non_null @*/ String name,
+      final /*@ non_null @*/ Constituency constituency,
+      final /*@ non_null @*/ Iterator<int[]> preferenceLists,
+      final int numberOfBallots) {
+    return submit(name, constituency, numberOfBallots, new Loader() {
+      public void load(final BallotCounting ballotCounting) {
+        ballotCounting.load(preferenceLists, false);
+      }
+    });
+  }
+
+  /**
+   * Count the ballot papers for one constituency as they are read from a
+   * source which may know how many there are.
+   * 
+   * @param name
+   *        The name of the constituency
+   * @param constituency
+   *        The seats and candidates in the constituency
+   * @param preferenceLists
+   *        The preferences of each ballot paper, already "shuffled and mixed"
+   * @return The count, once it has finished
+   */
+  public /*@ non_null @*/ Future<BallotCounting> submit(
+      final /*@ non_null @*/ String name,
+      final /*@ non_null @*/ Constituency constituency,
+      final /*@ non_null @*/ Spliterator<int[]> preferenceLists) {
+    final long size = preferenceLists.estimateSize();
+    return submit(name, constituency, (int) Math.min(size, Integer.MAX_VALUE),
+        new Loader() {
+          public void load(final BallotCounting ballotCounting) {
+            ballotCounting.load(preferenceLists, false);
+          }
+        });
+  }
+
+  /**
+   * Count ballots already loaded into a ballot store, which may be shared
+   * with other counts.
+   * 
+   * @param name
+   *        The name of the count
+   * @param constituency
+   *        The seats and candidates in the constituency
+   * @param loadedBallots
+   *        The ballots to be counted, already "shuffled and mixed"
+   * @return The count, once it has finished
+   */
+  public /*@ non_null @*/ Future<BallotCounting> submit(
+      final /*@ non_null @*/ String name,
+      final /*@ non_null @*/ Constituency constituency,
+      final /*@ non_null @*/ BallotStore loadedBallots) {
+    return submit(name, constituency, loadedBallots.size(), new Loader() {
+      public void load(final BallotCounting ballotCounting) {
+        ballotCounting.load(loadedBallots);
+      }
+    });
+  }
+
+  /**
+   * Count the ballots for one constituency, once there is room for them.
+   * 
+   * @param name
+   *        The name of the constituency
+   * @param constituency
+   *        The seats and candidates in the constituency
+   * @param numberOfBallots
+   *        The number of ballots to be counted
+   * @param loader
+   *        Source of the ballots
+   * @return The count, once it has finished
+   */
+  protected /*@ non_null @*/ Future<BallotCounting> submit(
+      final /*@ non_null @*/ String name,
+      final /*@ non_null @*/ Constituency constituency,
+      final int numberOfBallots, final /*@ non_null @*/ Loader loader) {
+    final int permits =
+      Math.max(1, Math.min(numberOfBallots, maxBallotsInProgress));
+    submitted.incrementAndGet();
+    return executor.submit(new Callable<BallotCounting>() {
+      public BallotCounting call() throws InterruptedException {
+        try {
+          admission.acquire(permits);
+        }
+        catch (InterruptedException e) {
+          // Cancelled while waiting for room, so the count never started
+          failed(name, e);
+          throw e;
+        }
+        final BallotCounting ballotCounting = new BallotCounting();
+        try {
+          if (listener != null) {
+            listener.countStarted(name);
+          }
+          ballotCounting.setup(constituency);
+          try {
+            ballotCounting.getMetrics().register(name);
+          }
+          catch (JMException e) {
+            // The count goes ahead without live metrics
+          }
+          loader.load(ballotCounting);
+          ballotCounting.count();
+        }
+        catch (RuntimeException e) {
+          failed(name, e);
+          throw e;
+        }
+        catch (Error e) {
+          failed(name, e);
+          throw e;
+        }
+        finally {
+          try {
+            ballotCounting.getMetrics().unregister();
+          }
+          catch (JMException e) {
+            // Nothing more can be done about it
+          }
+          admission.release(permits);
+        }
+        // The count has succeeded, even if the listener then fails
+        finished.incrementAndGet();
+        if (listener != null) {
+          listener.countFinished(name, ballotCounting);
+        }
+        return ballotCounting;
+      }
+    });
+  }
+
+  /**
+   * Report a count which stopped because of an error.
+   * 
+   * @param name
+   *        The name of the constituency
+   * @param cause
+   *        The error which stopped the count
+   */
+  protected void failed(final /*@ non_null @*/ String name,
+      final /*@ non_null @*/ Throwable cause) {
+    finished.incrementAndGet();
+    if (listener != null) {
+      listener.countFailed(name, cause);
+    }
+  }
+
+  /**
+   * Get the number of counts submitted so far.
+   * 
+   * @return The number of counts submitted
+   */
+  public /*@ pure @*/ int getNumberOfCounts() {
+    return submitted.get();
+  }
+
+  /**
+   * Get the number of counts which have finished, whether or not
+   * successfully.
+   * 
+   * @return The number of counts finished
+   */
+  public /*@ pure @*/ int getNumberFinished() {
+    return finished.get();
+  }
+
+  /**
+   * Accept no more counts, and wait for those already submitted to finish.
+   * 
+   * @param timeout
+   *        The longest time to wait
+   * @param unit
+   *        The unit of the timeout
+   * @return <code>true</code> if all counts finished in time
+   * @throws InterruptedException
+   *         If interrupted while waiting
+   */
+  public boolean finish(final long timeout,
+      final /*@ non_null @*/ TimeUnit unit) throws InterruptedException {
+    executor.shutdown();
+    return executor.awaitTermination(timeout, unit);
+  }
+
+  /**
+   * Source of the ballots for one count.
+   */
+  protected interface Loader {
+
+    /**
+     * Load the ballots.
+     * 
+     * @param ballotCounting
+     *        The count into which the ballots are loaded
+     */
+    void load(/*@ non_null @*/ BallotCounting ballotCounting);
+  }
+}
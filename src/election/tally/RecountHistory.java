@@ -0,0 +1,435 @@
+package election.tally;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * What is kept of a count so that its ballots can be recounted after some
+ * ballot papers are added or removed, without repeating the rounds of
+ * counting which those papers could not have changed.
+ * 
+ * <p> A checkpoint is kept at the start of each round of the first count,
+ * along with each candidate elected or excluded, and the margin of each round:
+ * the fewest ballot papers which, added or removed, could have changed any
+ * comparison of votes made in that round.
+ */
+class RecountHistory {
+
+  /** Initial room for rounds and decisions */
+  protected static final int INITIAL_ROUNDS = 16;
+
+  /** Checkpoint at the start of each round of the first count */
+  protected final /*@ non_null @*/ List<byte[]> checkpoints =
+    new ArrayList<byte[]>();
+
+  /** Margin of the decisions made in each round, by count number */
+  protected /*@ non_null @*/ int[] margins = newMargins(INITIAL_ROUNDS);
+
+  /** Count number at which each candidate was elected or excluded */
+  protected /*@ non_null @*/ int[] decisionCount = new int[INITIAL_ROUNDS];
+
+  /** Candidate elected or excluded by each decision */
+  protected /*@ non_null @*/ int[] decisionCandidate = new int[INITIAL_ROUNDS];
+
+  /** Was the candidate elected, rather than excluded? */
+  protected /*@ non_null @*/ boolean[] decisionElected =
+    new boolean[INITIAL_ROUNDS];
+
+  /** Number of candidates elected or excluded in rounds of counting */
+  protected int numberOfDecisions;
+
+  /** Number of rounds of counting in the first count */
+  protected int numberOfRounds;
+
+  /** Has the first count finished? */
+  protected boolean complete;
+
+  /** Number of lists of preferences in the ballot store of the first count */
+  protected int numberOfLists;
+
+  /** Number of ballot papers added to the ballot store of the first count */
+  protected int numberOfPapers;
+
+  /** Number of votes in the first count */
+  protected int totalNumberOfVotes;
+
+  /** Ballot papers added since the first count, in ballot box order */
+  protected final /*@ non_null @*/ List<int[]> addedPapers =
+    new ArrayList<int[]>();
+
+  /** Which of the added ballot papers have since been removed */
+  protected final /*@ non_null @*/ BitSet addedPapersRemoved = new BitSet();
+
+  /** Positions in the ballot box of papers of the first count now removed */
+  protected final /*@ non_null @*/ List<Integer> removedOrdinals =
+    new ArrayList<Integer>();
+
+  /** Preferences of each paper of the first count now removed */
+  protected final /*@ non_null @*/ List<int[]> removedPapers =
+    new ArrayList<int[]>();
+
+  /**
+   * Start keeping the history of a count.
+   * 
+   * @param ballots
+   *        The ballots loaded for the first count
+   * @param numberOfVotes
+   *        The number of votes in the first count
+   */
+  protected RecountHistory(final /*@ non_null @*/ BallotStore ballots,
+      final int numberOfVotes) {
+    numberOfLists = ballots.numberOfLists;
+    numberOfPapers = ballots.numberOfPapers;
+    totalNumberOfVotes = numberOfVotes;
+  }
+
+  /**
+   * Keep the checkpoint taken at the start of a round of the first count.
+   * 
+   * @param countNumber
+   *        The number of rounds finished
+   * @param checkpoint
+   *        The checkpoint
+   */
+  //@ requires countNumber == checkpoints.size();
+  protected void keepCheckpoint(final int countNumber,
+      final /*@ non_null @*/ byte[] checkpoint) {
+    checkpoints.add(checkpoint);
+  }
+
+  /**
+   * Remember that a candidate was elected or excluded.
+   * 
+   * @param countNumber
+   *        The round of counting
+   * @param candidate
+   *        The position of the candidate
+   * @param elected
+   *        <code>true</code> if elected, or <code>false</code> if excluded
+   * @param margin
+   *        The margin by which the candidate was chosen
+   */
+  protected void addDecision(final int countNumber, final int candidate,
+      final boolean elected, final int margin) {
+    if (numberOfDecisions == decisionCount.length) {
+      final int capacity = 2 * numberOfDecisions;
+      final int[] largerCount = new int[capacity];
+      System.arraycopy(decisionCount, 0, largerCount, 0, numberOfDecisions);
+      decisionCount = largerCount;
+      final int[] largerCandidate = new int[capacity];
+      System.arraycopy(decisionCandidate, 0, largerCandidate, 0,
+          numberOfDecisions);
+      decisionCandidate = largerCandidate;
+      final boolean[] largerElected = new boolean[capacity];
+      System.arraycopy(decisionElected, 0, largerElected, 0,
+          numberOfDecisions);
+      decisionElected = largerElected;
+    }
+    decisionCount[numberOfDecisions] = countNumber;
+    decisionCandidate[numberOfDecisions] = candidate;
+    decisionElected[numberOfDecisions] = elected;
+    numberOfDecisions++;
+    addMargin(countNumber, margin);
+  }
+
+  /**
+   * Remember the margin of a comparison of votes made in a round.
+   * 
+   * @param countNumber
+   *        The round of counting
+   * @param margin
+   *        The fewest papers which could have changed the comparison
+   */
+  //@ requires 0 <= countNumber;
+  protected void addMargin(final int countNumber, final int margin) {
+    if (margins.length <= countNumber) {
+      final int[] larger = newMargins(Math.max(2 * margins.length,
+          countNumber + 1));
+      System.arraycopy(margins, 0, larger, 0, margins.length);
+      margins = larger;
+    }
+    margins[countNumber] = Math.min(margins[countNumber], margin);
+  }
+
+  /**
+   * Make room for the margins of more rounds.
+   */
+  protected static /*@ pure non_null @*/ int[] newMargins(final int capacity) {
+    final int[] values = new int[capacity];
+    Arrays.fill(values, Integer.MAX_VALUE);
+    return values;
+  }
+
+  /**
+   * The first count has finished.
+   * 
+   * @param countNumber
+   *        The number of rounds of counting
+   */
+  protected void finish(final int countNumber) {
+    numberOfRounds = countNumber;
+    complete = true;
+  }
+
+  /**
+   * Add and remove ballot papers, in addition to any already added or
+   * removed since the first count.
+   * 
+   * @param ballots
+   *        The ballots now being counted
+   * @param added
+   *        The preferences of each ballot paper to add
+   * @param removed
+   *        The position in the ballot box of each ballot paper to remove; the
+   *        papers added since the first count follow the others, in the order
+   *        in which they were added
+   */
+  protected void correct(final /*@ non_null @*/ BallotStore ballots,
+      final /*@ non_null @*/ int[][] added,
+      final /*@ non_null @*/ int[] removed) {
+    final int numberOfPositions = numberOfPapers + addedPapers.size()
+      + added.length;
+    final BitSet toRemove = new BitSet();
+    for (int i = 0; i < removed.length; i++) {
+      final int ordinal = removed[i];
+      if (ordinal < 0 || numberOfPositions <= ordinal || toRemove.get(ordinal)
+          || isRemoved(ordinal)) {
+        throw new IllegalArgumentException("No ballot paper at " + ordinal);
+      }
+      toRemove.set(ordinal);
+    }
+    for (int i = 0; i < added.length; i++) {
+      addedPapers.add(added[i].clone());
+    }
+    for (int ordinal = toRemove.nextSetBit(0); 0 <= ordinal;
+        ordinal = toRemove.nextSetBit(ordinal + 1)) {
+      if (numberOfPapers <= ordinal) {
+        addedPapersRemoved.set(ordinal - numberOfPapers);
+      }
+      else {
+        removedOrdinals.add(Integer.valueOf(ordinal));
+        removedPapers.add(ballots.getPreferenceList(ballots
+            .findBallot(ordinal)));
+      }
+    }
+  }
+
+  /**
+   * Has this ballot paper been removed since the first count?
+   */
+  protected /*@ pure @*/ boolean isRemoved(final int ordinal) {
+    if (numberOfPapers <= ordinal) {
+      return addedPapersRemoved.get(ordinal - numberOfPapers);
+    }
+    return removedOrdinals.contains(Integer.valueOf(ordinal));
+  }
+
+  /**
+   * Get the ballot papers which differ from the first count.
+   * 
+   * @return The preferences of each paper removed from the first count, and
+   *         of each paper added since and not removed
+   */
+  protected /*@ pure non_null @*/ int[][] getChangedPapers() {
+    final int[][] papers =
+      new int[removedPapers.size() + addedPapers.size()
+        - addedPapersRemoved.cardinality()][];
+    int n = 0;
+    for (int i = 0; i < removedPapers.size(); i++) {
+      papers[n++] = removedPapers.get(i);
+    }
+    for (int i = 0; i < addedPapers.size(); i++) {
+      if (!addedPapersRemoved.get(i)) {
+        papers[n++] = addedPapers.get(i);
+      }
+    }
+    return papers;
+  }
+
+  /**
+   * Get the number of votes once the changed papers are counted.
+   */
+  protected /*@ pure @*/ int getTotalNumberOfVotes() {
+    return totalNumberOfVotes - removedPapers.size() + addedPapers.size()
+      - addedPapersRemoved.cardinality();
+  }
+
+  /**
+   * Find the first round of the first count in which some decision could
+   * have been different had the changed papers been counted too.
+   * 
+   * @design A changed paper moves with the other papers on its pile when a
+   *         candidate is excluded, so it can be followed through the rounds
+   *         without counting again. A round is affected if a changed paper is
+   *         on the pile of a candidate elected in it, since the surplus would
+   *         not be the same, or if there are as many changed papers as the
+   *         margin of the round.
+   * @param ballotCounting
+   *        The count
+   * @param papers
+   *        The preferences of each changed paper
+   * @return The first round affected, or one more than the number of rounds
+   *         if none was
+   */
+  //@ ensures 1 <= \result && \result <= numberOfRounds + 1;
+  protected int findFirstAffectedRound(
+      final /*@ non_null @*/ AbstractBallotCounting ballotCounting,
+      final /*@ non_null @*/ int[][] papers) {
+    final int[] positions = new int[papers.length];
+    return followPapers(ballotCounting, papers, positions,
+        numberOfRounds + 1, true);
+  }
+
+  /**
+   * Find the position of each changed paper at the start of a round, when
+   * no earlier round is affected by them.
+   * 
+   * @param ballotCounting
+   *        The count
+   * @param papers
+   *        The preferences of each changed paper
+   * @param round
+   *        The round of counting
+   * @return The position of each paper within its preferences
+   */
+  protected /*@ non_null @*/ int[] findPositions(
+      final /*@ non_null @*/ AbstractBallotCounting ballotCounting,
+      final /*@ non_null @*/ int[][] papers, final int round) {
+    final int[] positions = new int[papers.length];
+    followPapers(ballotCounting, papers, positions, round, false);
+    return positions;
+  }
+
+  /**
+   * Follow the changed papers through the decisions of the first count.
+   * 
+   * @param ballotCounting
+   *        The count
+   * @param papers
+   *        The preferences of each changed paper
+   * @param positions
+   *        The position of each paper within its preferences
+   * @param lastRound
+   *        The round at which to stop
+   * @param stopIfAffected
+   *        Stop at the first round affected by the changed papers
+   * @return The round at which the papers were last followed
+   */
+  protected int followPapers(
+      final /*@ non_null @*/ AbstractBallotCounting ballotCounting,
+      final /*@ non_null @*/ int[][] papers,
+      final /*@ non_null @*/ int[] positions, final int lastRound,
+      final boolean stopIfAffected) {
+    final byte[] status =
+      new byte[ballotCounting.totalNumberOfCandidates];
+    int decision = 0;
+    for (int round = 1; round < lastRound; round++) {
+      if (stopIfAffected && round < margins.length
+          && margins[round] <= papers.length) {
+        return round;
+      }
+      for (; decision < numberOfDecisions
+          && decisionCount[decision] == round; decision++) {
+        final int candidate = decisionCandidate[decision];
+        if (decisionElected[decision]) {
+          if (stopIfAffected
+              && isOnPile(ballotCounting, papers, positions, candidate)) {
+            return round;
+          }
+          status[candidate] = CandidateStatus.ELECTED;
+          continue;
+        }
+        status[candidate] = CandidateStatus.ELIMINATED;
+        for (int i = 0; i < papers.length; i++) {
+          if (getCandidate(ballotCounting, papers[i], positions[i])
+              == candidate) {
+            positions[i] =
+              findNextContinuing(ballotCounting, papers[i], positions[i],
+                  status);
+          }
+        }
+      }
+    }
+    return lastRound;
+  }
+
+  /**
+   * Is any of the changed papers on the pile of this candidate?
+   */
+  protected /*@ pure @*/ boolean isOnPile(
+      final /*@ non_null @*/ AbstractBallotCounting ballotCounting,
+      final /*@ non_null @*/ int[][] papers,
+      final /*@ non_null @*/ int[] positions, final int candidate) {
+    for (int i = 0; i < papers.length; i++) {
+      if (getCandidate(ballotCounting, papers[i], positions[i]) == candidate) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the position of the candidate to which a paper is assigned.
+   * 
+   * @return The position of the candidate, or
+   *         {@link AbstractBallotCounting#NONE_FOUND_YET} if the paper is
+   *         non-transferable or not assigned to any candidate
+   */
+  protected static /*@ pure @*/ int getCandidate(
+      final /*@ non_null @*/ AbstractBallotCounting ballotCounting,
+      final /*@ non_null @*/ int[] preferences, final int position) {
+    if (position < preferences.length
+        && preferences[position] != Ballot.NONTRANSFERABLE) {
+      return ballotCounting.getCandidateIndex(preferences[position]);
+    }
+    return AbstractBallotCounting.NONE_FOUND_YET;
+  }
+
+  /**
+   * Find the next preference of a paper for a continuing candidate, as when
+   * it is transferred from an excluded candidate.
+   * 
+   * @return The position of that preference, or of the end of the paper
+   */
+  protected static /*@ pure @*/ int findNextContinuing(
+      final /*@ non_null @*/ AbstractBallotCounting ballotCounting,
+      final /*@ non_null @*/ int[] preferences, final int position,
+      final /*@ non_null @*/ byte[] status) {
+    int next = position;
+    while (next < preferences.length
+        && preferences[next] != Ballot.NONTRANSFERABLE) {
+      final int candidate =
+        ballotCounting.getCandidateIndex(preferences[next]);
+      if (candidate != AbstractBallotCounting.NONE_FOUND_YET
+          && status[candidate] == CandidateStatus.CONTINUING) {
+        break;
+      }
+      next++;
+    }
+    return next;
+  }
+}
@@ -0,0 +1,159 @@
+package election.tally;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+/**
+ * An immutable snapshot of a count at the end of a round of counting, for
+ * displaying results while the count continues on another thread.
+ * 
+ * <p> Candidates and their piles are in the order of the candidate list,
+ * with one more pile at the end for the non-transferable papers.
+ */
+public final class RoundResult {
+
+  /** The number of the round */
+  private final int countNumber;
+
+  /** Status of the count at the end of the round */
+  private final int countStatus;
+
+  /** Number of votes needed to be elected */
+  private final int quota;
+
+  /** ID of each candidate */
+  private final /*@ non_null @*/ int[] candidateIDs;
+
+  /** Number of papers in each pile */
+  private final /*@ non_null @*/ int[] votes;
+
+  /** Number of papers moved from each pile to each pile in this round */
+  private final /*@ non_null @*/ int[][] transfers;
+
+  /** Status of each candidate at the end of the round */
+  private final /*@ non_null @*/ byte[] statuses;
+
+  /** Candidates elected in this round */
+  private final /*@ non_null @*/ int[] elected;
+
+  /** Candidates excluded in this round */
+  private final /*@ non_null @*/ int[] excluded;
+
+  /**
+   * Take a snapshot of the end of a round; the arrays are not copied, and
+   * must not be changed afterwards.
+   */
+  RoundResult(final int countNumber, final int countStatus, final int quota,
+      final /*@ non_null @*/ int[] candidateIDs,
+      final /*@ non_null @*/ int[] votes,
+      final /*@ non_null @*/ int[][] transfers,
+      final /*@ non_null @*/ byte[] statuses,
+      final /*@ non_null @*/ int[] elected,
+      final /*@ non_null @*/ int[] excluded) {
+    this.countNumber = countNumber;
+    this.countStatus = countStatus;
+    this.quota = quota;
+    this.candidateIDs = candidateIDs;
+    this.votes = votes;
+    this.transfers = transfers;
+    this.statuses = statuses;
+    this.elected = elected;
+    this.excluded = excluded;
+  }
+
+  /**
+   * Get the number of the round.
+   */
+  public /*@ pure @*/ int getCountNumber() {
+    return countNumber;
+  }
+
+  /**
+   * Get the status of the count at the end of the round.
+   * 
+   * @return One of the states of {@link AbstractCountStatus}
+   */
+  public /*@ pure @*/ int getCountStatus() {
+    return countStatus;
+  }
+
+  /**
+   * Get the number of votes needed to be elected.
+   */
+  public /*@ pure @*/ int getQuota() {
+    return quota;
+  }
+
+  /**
+   * Get the ID of each candidate.
+   */
+  public /*@ pure non_null @*/ int[] getCandidateIDs() {
+    return candidateIDs.clone();
+  }
+
+  /**
+   * Get the number of papers in each pile at the end of the round.
+   * 
+   * @return The votes of each candidate, then the non-transferable papers
+   */
+  public /*@ pure non_null @*/ int[] getVotes() {
+    return votes.clone();
+  }
+
+  /**
+   * Get the number of papers moved between each pair of piles in the round.
+   * 
+   * @return The number of papers moved from each pile to each pile
+   */
+  public /*@ pure non_null @*/ int[][] getTransfers() {
+    final int[][] copy = new int[transfers.length][];
+    for (int i = 0; i < transfers.length; i++) {
+      copy[i] = transfers[i].clone();
+    }
+    return copy;
+  }
+
+  /**
+   * Get the status of each candidate at the end of the round, which is
+   * complete even if earlier rounds were missed.
+   * 
+   * @return One of the states of {@link CandidateStatus} for each candidate
+   */
+  public /*@ pure non_null @*/ byte[] getStatuses() {
+    return statuses.clone();
+  }
+
+  /**
+   * Get the IDs of the candidates elected in the round.
+   */
+  public /*@ pure non_null @*/ int[] getElected() {
+    return elected.clone();
+  }
+
+  /**
+   * Get the IDs of the candidates excluded in the round.
+   */
+  public /*@ pure non_null @*/ int[] getExcluded() {
+    return excluded.clone();
+  }
+}
@@ -0,0 +1,298 @@
+package election.tally;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+/**
+ * An append-only record of every movement of ballot papers from one pile to
+ * another during a count, for audit and for publishing count sheets.
+ * 
+ * <p> The journal starts with the candidate IDs, then for each round of
+ * counting has the round number followed by one transfer record for each
+ * pair of piles between which papers moved: the source and destination
+ * piles, the number of papers, and the ranges of positions in the ballot
+ * box of those papers. Piles are numbered by position in the candidate
+ * list, with the last pile for non-transferable papers. All numbers are
+ * written seven bits at a time, so that most take one byte.
+ * 
+ * <p> A round which is counted again, as when resuming or recounting, is
+ * appended again; {@link TransferJournalReader} keeps the last copy.
+ * 
+ * @design Moves are gathered in memory by destination while papers leave
+ *         the same pile, and only then encoded into a direct buffer which is
+ *         written to the channel when full, so that journalling adds little
+ *         to the cost of a transfer.
+ */
+public class TransferJournal {
+
+  /** Identifies a transfer journal */
+  public static final int MAGIC = 0x566F744A;
+
+  /** Version of the journal format */
+  public static final int VERSION = 1;
+
+  /** Record of the candidates, at the start of a count */
+  public static final int START = 1;
+
+  /** Record of the start of a round of counting */
+  public static final int ROUND = 2;
+
+  /** Record of papers moved from one pile to another */
+  public static final int TRANSFER = 3;
+
+  /** Record of the end of a count */
+  public static final int FINISH = 4;
+
+  /** Size of the buffer between the journal and the channel */
+  protected static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Most bytes taken by one number */
+  protected static final int MAX_NUMBER_SIZE = 5;
+
+  /** Where the journal is written */
+  protected final /*@ non_null @*/ WritableByteChannel channel;
+
+  /** Records not yet written to the channel */
+  protected final /*@ non_null @*/ ByteBuffer buffer;
+
+  /** Pile from which the gathered papers moved */
+  protected int source = AbstractBallotCounting.NONE_FOUND_YET;
+
+  /** Ballot box positions of the papers gathered for each destination */
+  protected /*@ nullable @*/ int[][] moved;
+
+  /** Number of papers gathered for each destination */
+  protected /*@ nullable @*/ int[] numberMoved;
+
+  /** Are the papers gathered for each destination in ballot box order? */
+  protected /*@ nullable @*/ boolean[] movedInOrder;
+
+  /** Error in writing to the channel, not yet reported */
+  protected /*@ nullable @*/ IOException failure;
+
+  /**
+   * Start a journal.
+   * 
+   * @param channel
+   *        Where the journal is written, which is left open
+   */
+  public TransferJournal(final /*@ non_null @*/ WritableByteChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+  }
+
+  /**
+   * Record the candidates of a count which is starting.
+   * 
+   * @param candidateIDs
+   *        The ID of each candidate, in the order of their piles
+   * @throws IOException
+   *         If the journal cannot be written
+   */
+  public void startCount(final /*@ non_null @*/ int[] candidateIDs)
+      throws IOException {
+    finishTransfer();
+    putNumber(START);
+    putNumber(candidateIDs.length);
+    for (int i = 0; i < candidateIDs.length; i++) {
+      putNumber(candidateIDs[i]);
+    }
+    moved = new int[candidateIDs.length + 1][];
+    numberMoved = new int[candidateIDs.length + 1];
+    movedInOrder = new boolean[candidateIDs.length + 1];
+    Arrays.fill(movedInOrder, true);
+    checkFailure();
+  }
+
+  /**
+   * Record the start of a round of counting.
+   * 
+   * @param countNumber
+   *        The number of the round
+   * @throws IOException
+   *         If the journal cannot be written
+   */
+  //@ requires 0 < countNumber;
+  public void startRound(final int countNumber) throws IOException {
+    finishTransfer();
+    putNumber(ROUND);
+    putNumber(countNumber);
+    checkFailure();
+  }
+
+  /**
+   * Record the move of a ballot from one pile to another.
+   * 
+   * @design An error in writing is reported by the next round or count
+   *         recorded, so that moving ballots does not have to handle it.
+   * @param from
+   *        The pile from which the ballot moved
+   * @param to
+   *        The pile to which the ballot moved
+   * @param ballots
+   *        The ballot store
+   * @param b
+   *        The position of the ballot in the store
+   */
+  //@ requires moved != null;
+  public void move(final int from, final int to,
+      final /*@ non_null @*/ BallotStore ballots, final int b) {
+    if (from != source) {
+      finishTransfer();
+      source = from;
+    }
+    final int weight = ballots.getWeight(b);
+    int[] ordinals = moved[to];
+    if (ordinals == null || ordinals.length < numberMoved[to] + weight) {
+      final int[] larger =
+        new int[Math.max(2 * numberMoved[to] + 16, numberMoved[to] + weight)];
+      if (ordinals != null) {
+        System.arraycopy(ordinals, 0, larger, 0, numberMoved[to]);
+      }
+      ordinals = larger;
+      moved[to] = ordinals;
+    }
+    int size = numberMoved[to];
+    if (0 < size && ballots.getPaperOrdinal(b, 0) < ordinals[size - 1]) {
+      movedInOrder[to] = false;
+    }
+    for (int i = 0; i < weight; i++) {
+      ordinals[size++] = ballots.getPaperOrdinal(b, i);
+    }
+    numberMoved[to] = size;
+  }
+
+  /**
+   * Record the end of a count, and write everything recorded so far.
+   * 
+   * @param countNumber
+   *        The number of rounds of counting
+   * @throws IOException
+   *         If the journal cannot be written
+   */
+  public void finishCount(final int countNumber) throws IOException {
+    finishTransfer();
+    putNumber(FINISH);
+    putNumber(countNumber);
+    drain();
+    checkFailure();
+  }
+
+  /**
+   * Write a transfer record for each destination of the papers gathered.
+   */
+  protected void finishTransfer() {
+    if (source == AbstractBallotCounting.NONE_FOUND_YET) {
+      return;
+    }
+    for (int to = 0; to < numberMoved.length; to++) {
+      final int size = numberMoved[to];
+      if (size == 0) {
+        continue;
+      }
+      final int[] ordinals = moved[to];
+      if (!movedInOrder[to]) {
+        Arrays.sort(ordinals, 0, size);
+        movedInOrder[to] = true;
+      }
+      int numberOfRanges = 1;
+      for (int i = 1; i < size; i++) {
+        if (ordinals[i - 1] + 1 != ordinals[i]) {
+          numberOfRanges++;
+        }
+      }
+      putNumber(TRANSFER);
+      putNumber(source);
+      putNumber(to);
+      putNumber(size);
+      putNumber(numberOfRanges);
+
+      // Each range as the gap after the last range, and its length
+      int end = 0;
+      int start = 0;
+      for (int i = 1; i <= size; i++) {
+        if (i == size || ordinals[i - 1] + 1 != ordinals[i]) {
+          putNumber(ordinals[start] - end);
+          putNumber(i - start);
+          end = ordinals[i - 1] + 1;
+          start = i;
+        }
+      }
+      numberMoved[to] = 0;
+    }
+    source = AbstractBallotCounting.NONE_FOUND_YET;
+  }
+
+  /**
+   * Put a number which is not negative into the buffer, seven bits at a
+   * time.
+   */
+  //@ requires 0 <= value;
+  protected void putNumber(final int value) {
+    if (buffer.remaining() < MAX_NUMBER_SIZE) {
+      drain();
+    }
+    int rest = value;
+    while (0x7F < rest) {
+      buffer.put((byte) ((rest & 0x7F) | 0x80));
+      rest >>>= 7;
+    }
+    buffer.put((byte) rest);
+  }
+
+  /**
+   * Write the buffer to the channel.
+   */
+  protected void drain() {
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+    catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Report an error in writing to the channel.
+   */
+  protected void checkFailure() throws IOException {
+    if (failure != null) {
+      final IOException e = failure;
+      failure = null;
+      throw e;
+    }
+  }
+}
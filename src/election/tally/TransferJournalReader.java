@@ -0,0 +1,268 @@
+package election.tally;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Votail, (c) Dermot Cochran, 2005-2011
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+/**
+ * Replay of a {@link TransferJournal} into a table for each round of
+ * counting, of the number of papers moved from each pile to each other pile.
+ */
+public class TransferJournalReader {
+
+  /** Size of the buffer between the channel and the reader */
+  protected static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Where the journal is read from */
+  protected final /*@ non_null @*/ ReadableByteChannel channel;
+
+  /** Bytes read from the channel and not yet replayed */
+  protected final /*@ non_null @*/ ByteBuffer buffer =
+    ByteBuffer.allocate(BUFFER_SIZE);
+
+  /** Has the whole channel been read? */
+  protected boolean endOfChannel;
+
+  /** ID of each candidate, in the order of their piles */
+  protected /*@ non_null @*/ int[] candidateIDs = new int[0];
+
+  /**
+   * Transfer records of each round, with the number of papers followed by
+   * the start and length of each range of ballot box positions
+   */
+  protected final /*@ non_null @*/ List<List<int[]>> rounds =
+    new ArrayList<List<int[]>>();
+
+  /** Was the end of the count recorded? */
+  protected boolean finished;
+
+  /**
+   * Read a whole journal.
+   * 
+   * @param channel
+   *        Where the journal is read from, which is left open
+   * @throws IOException
+   *         If the journal cannot be read, or is not a transfer journal
+   */
+  public TransferJournalReader(
+      final /*@ non_null @*/ ReadableByteChannel channel) throws IOException {
+    this.channel = channel;
+    buffer.flip();
+    if (!fill(8) || buffer.getInt() != TransferJournal.MAGIC
+        || buffer.getInt() != TransferJournal.VERSION) {
+      throw new IOException("Not a transfer journal of this version");
+    }
+    replay();
+  }
+
+  /**
+   * Replay each record of the journal.
+   */
+  protected void replay() throws IOException {
+    List<int[]> round = null;
+    while (fill(1)) {
+      final int type = readNumber();
+      if (type == TransferJournal.START) {
+        candidateIDs = new int[readNumber()];
+        for (int i = 0; i < candidateIDs.length; i++) {
+          candidateIDs[i] = readNumber();
+        }
+        rounds.clear();
+        round = null;
+        finished = false;
+      }
+      else if (type == TransferJournal.ROUND) {
+        final int countNumber = readNumber();
+        if (countNumber == 0 || rounds.size() + 1 < countNumber) {
+          throw new IOException("Round " + countNumber + " is out of order");
+        }
+        // A round counted again replaces what was counted before
+        while (countNumber <= rounds.size()) {
+          rounds.remove(rounds.size() - 1);
+        }
+        round = new ArrayList<int[]>();
+        rounds.add(round);
+        finished = false;
+      }
+      else if (type == TransferJournal.TRANSFER && round != null) {
+        final int from = readPile();
+        final int to = readPile();
+        final int numberOfPapers = readNumber();
+        final int numberOfRanges = readNumber();
+        final int[] transfer = new int[3 + 2 * numberOfRanges];
+        transfer[0] = from;
+        transfer[1] = to;
+        transfer[2] = numberOfPapers;
+        int end = 0;
+        for (int r = 0; r < numberOfRanges; r++) {
+          transfer[3 + 2 * r] = end + readNumber();
+          transfer[4 + 2 * r] = readNumber();
+          end = transfer[3 + 2 * r] + transfer[4 + 2 * r];
+        }
+        round.add(transfer);
+      }
+      else if (type == TransferJournal.FINISH) {
+        readNumber();
+        finished = true;
+      }
+      else {
+        throw new IOException("Unexpected record of type " + type);
+      }
+    }
+  }
+
+  /**
+   * Get the ID of each candidate, in the order of their piles.
+   */
+  public /*@ pure non_null @*/ int[] getCandidateIDs() {
+    return candidateIDs.clone();
+  }
+
+  /**
+   * Get the number of rounds of counting recorded.
+   */
+  public /*@ pure @*/ int getNumberOfRounds() {
+    return rounds.size();
+  }
+
+  /**
+   * Was the end of the count recorded?
+   */
+  public /*@ pure @*/ boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Get the number of papers moved between each pair of piles in a round.
+   * 
+   * @param countNumber
+   *        The number of the round
+   * @return The number of papers moved from each pile to each pile; the last
+   *         pile holds the non-transferable papers
+   */
+  //@ requires 0 < countNumber && countNumber <= getNumberOfRounds();
+  public /*@ pure non_null @*/ int[][] getTransfers(final int countNumber) {
+    final int[][] table =
+      new int[candidateIDs.length + 1][candidateIDs.length + 1];
+    final List<int[]> round = rounds.get(countNumber - 1);
+    for (int i = 0; i < round.size(); i++) {
+      final int[] transfer = round.get(i);
+      table[transfer[0]][transfer[1]] += transfer[2];
+    }
+    return table;
+  }
+
+  /**
+   * Get the ballot box positions of the papers moved from one pile to another
+   * in a round.
+   * 
+   * @param countNumber
+   *        The number of the round
+   * @param from
+   *        The pile from which the papers moved
+   * @param to
+   *        The pile to which the papers moved
+   * @return The start and length of each range of positions, in the order
+   *         in which the papers were moved
+   */
+  //@ requires 0 < countNumber && countNumber <= getNumberOfRounds();
+  public /*@ pure non_null @*/ int[] getRanges(final int countNumber,
+      final int from, final int to) {
+    final List<int[]> round = rounds.get(countNumber - 1);
+    int length = 0;
+    for (int i = 0; i < round.size(); i++) {
+      final int[] transfer = round.get(i);
+      if (transfer[0] == from && transfer[1] == to) {
+        length += transfer.length - 3;
+      }
+    }
+    final int[] ranges = new int[length];
+    length = 0;
+    for (int i = 0; i < round.size(); i++) {
+      final int[] transfer = round.get(i);
+      if (transfer[0] == from && transfer[1] == to) {
+        System.arraycopy(transfer, 3, ranges, length, transfer.length - 3);
+        length += transfer.length - 3;
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Read the number of a pile.
+   */
+  protected int readPile() throws IOException {
+    final int pile = readNumber();
+    if (candidateIDs.length < pile) {
+      throw new IOException("No pile " + pile);
+    }
+    return pile;
+  }
+
+  /**
+   * Read a number written seven bits at a time.
+   */
+  //@ ensures 0 <= \result;
+  protected int readNumber() throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (!fill(1)) {
+        throw new EOFException("Journal ends within a record");
+      }
+      final int next = buffer.get() & 0xFF;
+      value |= (next & 0x7F) << shift;
+      if (next < 0x80) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new IOException("Number out of range");
+  }
+
+  /**
+   * Read from the channel until the buffer holds some number of bytes.
+   * 
+   * @param size
+   *        The number of bytes needed
+   * @return <code>false</code> if the channel ends first
+   */
+  protected boolean fill(final int size) throws IOException {
+    if (size <= buffer.remaining()) {
+      return true;
+    }
+    buffer.compact();
+    while (!endOfChannel && buffer.position() < size) {
+      endOfChannel = channel.read(buffer) < 0;
+    }
+    buffer.flip();
+    return size <= buffer.remaining();
+  }
+}
@@ -31,8 +31,6 @@ public class ElectionConfiguration extends BallotBox implements Serializable {
   /* The null value for a candidate ID */
   public static final int NO_CANDIDATE_ID = 0;
   
-  public static final int MAX_VOTES = Ballot.MAX_BALLOTS;
-  
   protected int numberOfWinners;
   
   protected int numberOfSeats;
@@ -50,11 +48,13 @@ public class ElectionConfiguration extends BallotBox implements Serializable {
   protected transient int currentBallotID = 0;
   
   /**
-   * Create an Election Configuration by deserialisation
+   * Create an empty Election Configuration with room for a number of ballots
    * 
+   * @param capacity
+   *          The number of ballots expected
    */
-  protected ElectionConfiguration() {
-    super();
+  protected ElectionConfiguration(final int capacity) {
+    super(capacity);
   }
   
   /**
@@ -241,9 +241,9 @@ public class ElectionConfiguration extends BallotBox implements Serializable {
    * @return The minimal ballot configuration
    */
   public/*@ pure @*/ElectionConfiguration trim() {
-    final ElectionConfiguration copy = new ElectionConfiguration();
+    final ElectionConfiguration copy =
+      new ElectionConfiguration(this.numberOfBallots);
     
-    copy.ballots = new Ballot[this.numberOfBallots];
     for (int i = 0; i < this.numberOfBallots; i++) {
       copy.ballots[i] = this.ballots[i];
     }
@@ -14,11 +14,23 @@ package ie.votail.model.factory;
 import ie.votail.model.ElectionConfiguration;
 import ie.votail.model.ElectoralScenario;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import edu.mit.csail.sdg.alloy4.A4Reporter;
 import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorFatal;
 import edu.mit.csail.sdg.alloy4.ErrorSyntax;
 import edu.mit.csail.sdg.alloy4compiler.ast.Command;
 import edu.mit.csail.sdg.alloy4compiler.ast.Expr;
@@ -46,6 +58,25 @@ public class BallotBoxFactory {
   protected ScenarioList impossibleScenarios;
   protected final Map<String, String> loaded;
   
+  /** Order in which scopes are tried */
+  protected /*@ non_null @*/ ScopeSearch scopeSearch = ScopeSearch.LINEAR;
+  
+  /** Scope at which each scenario was solved */
+  protected /*@ non_null @*/ ScopeHistory scopeHistory = new ScopeHistory();
+  
+  /** Runs the scopes being raced against each other */
+  protected /*@ nullable @*/ ExecutorService scopeExecutor;
+  
+  /** Number of scopes of one scenario to try at once when racing */
+  //@ protected invariant 0 < raceWidth;
+  protected int raceWidth = 1;
+  
+  /**
+   * Parsed Alloy models by file name, shared by every factory and thread.
+   */
+  protected static final Map<String, ParsedModel> parsedModels =
+    new HashMap<String, ParsedModel>();
+  
   /**
    *
    */
@@ -56,6 +87,53 @@ public class BallotBoxFactory {
     loaded = null;
   }
   
+  /**
+   * Choose the order in which scopes are tried.
+   * 
+   * @param scopeSearch
+   *          The order in which to try scopes
+   */
+  public void setScopeSearch(final /*@ non_null @*/ ScopeSearch scopeSearch) {
+    this.scopeSearch = scopeSearch;
+  }
+  
+  /**
+   * Try several scopes of each scenario at once, instead of one after
+   * another.
+   * 
+   * @param executor
+   *          Runs each scope, and may be shared by several factories
+   * @param width
+   *          The number of scopes of one scenario to try at once
+   */
+  //@ requires 0 < width;
+  //@ ensures scopeSearch == ScopeSearch.RACING;
+  public void setScopeRacing(final /*@ non_null @*/ ExecutorService executor,
+      final int width) {
+    this.scopeExecutor = executor;
+    this.raceWidth = width;
+    this.scopeSearch = ScopeSearch.RACING;
+  }
+  
+  /**
+   * Use the scopes at which scenarios were solved by earlier runs, and record
+   * the scopes found by this factory.
+   * 
+   * @param scopeHistory
+   *          The scopes of solved scenarios, which may be shared
+   */
+  public void setScopeHistory(
+      final /*@ non_null @*/ ScopeHistory scopeHistory) {
+    this.scopeHistory = scopeHistory;
+  }
+  
+  /**
+   * @return The scopes of solved scenarios
+   */
+  public /*@ pure non_null @*/ ScopeHistory getScopeHistory() {
+    return scopeHistory;
+  }
+  
   /**
    * Generate Ballots for an Election Configuration from an Electoral Scenario
    * 
@@ -89,21 +167,36 @@ public class BallotBoxFactory {
       final int upperBound) {
     
     // Find a ballot box which creates this scenario
-    for (int i=scope; i < upperBound; i++) {
-      try {
-        final A4Solution solution = findSolution(scenario, i);
-        if (solution != null && solution.satisfiable()) {
-          return parseSolution(scenario, scope, solution);
-        }
+    try {
+      final ScopedSolution found;
+      if (scopeSearch == ScopeSearch.RACING && scopeExecutor != null) {
+        found = race(scenario, scope, upperBound);
       }
-      catch (Err e) {
-        // Log failure to find scenario
-        logger.severe("Unable to find ballot box for this scenario "
-          + scenario.toString() + " with scope " + scope + " and predicate "
-          + scenario.toPredicate() + " because " + e.toString());
-        return null;
+      else if (scopeSearch == ScopeSearch.GALLOPING) {
+        found = gallop(scenario, scope, upperBound);
+      }
+      else if (scopeSearch == ScopeSearch.PREDICTED) {
+        final int predicted = predictScope(scenario, scope, upperBound);
+        final A4Solution solution = solve(scenario, predicted);
+        found = (solution != null)
+          ? gallopDown(scenario, scope, new ScopedSolution(predicted, solution))
+          : gallop(scenario, predicted + 1, upperBound);
+      }
+      else {
+        found = searchLinearly(scenario, scope, upperBound);
+      }
+      if (found != null) {
+        scopeHistory.record(scenario, found.scope);
+        return parseSolution(scenario, found.scope, found.solution);
       }
     }
+    catch (Err e) {
+      // Log failure to find scenario
+      logger.severe("Unable to find ballot box for this scenario "
+        + scenario.toString() + " with scope " + scope + " and predicate "
+        + scenario.toPredicate() + " because " + e.toString());
+      return null;
+    }
       
     // No solution found implies that scenario might be impossible
     logger.info(
@@ -117,6 +210,380 @@ public class BallotBoxFactory {
     return null;
   }
 
+  /**
+   * Try each scope in turn.
+   * 
+   * @param scenario
+   *          The electoral scenario
+   * @param scope
+   *          The first scope to try
+   * @param upperBound
+   *          The scope above the last to try
+   * @return The smallest satisfiable scope and its solution, or null
+   * @throws Err
+   */
+  protected /*@ nullable @*/ ScopedSolution searchLinearly(
+      final /*@ non_null @*/ ElectoralScenario scenario, final int scope,
+      final int upperBound) throws Err {
+    for (int i = scope; i < upperBound; i++) {
+      final A4Solution solution = solve(scenario, i);
+      if (solution != null) {
+        return new ScopedSolution(i, solution);
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Try scopes at doubling distances apart until one is satisfiable, then
+   * bisect for the smallest satisfiable scope.
+   * 
+   * @design Every scope above a satisfiable scope is also satisfiable, since
+   *         a scope is only an upper bound on the size of the solution.
+   * @param scenario
+   *          The electoral scenario
+   * @param scope
+   *          The first scope to try, above any known to be unsatisfiable
+   * @param upperBound
+   *          The scope above the last to try
+   * @return The smallest satisfiable scope from the first scope, and its
+   *         solution, or null
+   * @throws Err
+   */
+  protected /*@ nullable @*/ ScopedSolution gallop(
+      final /*@ non_null @*/ ElectoralScenario scenario, final int scope,
+      final int upperBound) throws Err {
+    int unsatisfiable = scope - 1;
+    int next = scope;
+    int step = 1;
+    while (next < upperBound) {
+      final A4Solution solution = solve(scenario, next);
+      if (solution != null) {
+        return bisect(scenario, unsatisfiable,
+          new ScopedSolution(next, solution));
+      }
+      unsatisfiable = next;
+      if (next == upperBound - 1) {
+        break;
+      }
+      next = Math.min(next + step, upperBound - 1);
+      step *= 2;
+    }
+    return null;
+  }
+  
+  /**
+   * Try scopes at doubling distances below a satisfiable scope until one is
+   * unsatisfiable, then bisect for the smallest satisfiable scope.
+   * 
+   * @param scenario
+   *          The electoral scenario
+   * @param scope
+   *          The smallest scope to try
+   * @param satisfiable
+   *          A satisfiable scope and its solution
+   * @return The smallest satisfiable scope from the smallest scope, and its
+   *         solution
+   * @throws Err
+   */
+  //@ requires scope <= satisfiable.scope;
+  protected /*@ non_null @*/ ScopedSolution gallopDown(
+      final /*@ non_null @*/ ElectoralScenario scenario, final int scope,
+      ScopedSolution satisfiable) throws Err {
+    int step = 1;
+    while (scope < satisfiable.scope) {
+      final int next = Math.max(scope, satisfiable.scope - step);
+      final A4Solution solution = solve(scenario, next);
+      if (solution == null) {
+        return bisect(scenario, next, satisfiable);
+      }
+      satisfiable = new ScopedSolution(next, solution);
+      step *= 2;
+    }
+    return satisfiable;
+  }
+  
+  /**
+   * Find the smallest satisfiable scope between two scopes.
+   * 
+   * @param scenario
+   *          The electoral scenario
+   * @param unsatisfiable
+   *          A scope which is not satisfiable, or is below those to search
+   * @param satisfiable
+   *          A satisfiable scope and its solution
+   * @return The smallest satisfiable scope and its solution
+   * @throws Err
+   */
+  //@ requires unsatisfiable < satisfiable.scope;
+  protected /*@ non_null @*/ ScopedSolution bisect(
+      final /*@ non_null @*/ ElectoralScenario scenario, int unsatisfiable,
+      ScopedSolution satisfiable) throws Err {
+    while (unsatisfiable + 1 < satisfiable.scope) {
+      final int middle = (unsatisfiable + satisfiable.scope) >>> 1;
+      final A4Solution solution = solve(scenario, middle);
+      if (solution != null) {
+        satisfiable = new ScopedSolution(middle, solution);
+      }
+      else {
+        unsatisfiable = middle;
+      }
+    }
+    return satisfiable;
+  }
+  
+  /**
+   * Predict the scope at which a scenario will be satisfiable.
+   * 
+   * @design Without any history, each candidate is taken to need at least
+   *         one ballot of their own, and each winner at least one more.
+   * @param scenario
+   *          The electoral scenario
+   * @param scope
+   *          The smallest scope to predict
+   * @param upperBound
+   *          The scope above the largest to predict
+   * @return The scope at which the scenario was solved before, or else an
+   *         estimate from the number of candidates and winners
+   */
+  //@ requires 0 < scope && scope < upperBound;
+  //@ ensures scope <= \result && \result < upperBound;
+  protected /*@ pure @*/ int predictScope(
+      final /*@ non_null @*/ ElectoralScenario scenario, final int scope,
+      final int upperBound) {
+    int predicted = scopeHistory.getScope(scenario);
+    if (predicted == 0) {
+      predicted =
+        scenario.getNumberOfCandidates() + scenario.numberOfWinners();
+    }
+    return Math.max(scope, Math.min(predicted, upperBound - 1));
+  }
+
+  /**
+   * Estimate the relative cost of finding a ballot box for a scenario, so
+   * that the most expensive scenarios can be started first.
+   *
+   * @design The translation has a variable for each preference of each
+   *         ballot for each candidate, so the cost grows with the expected
+   *         scope times the square of the number of candidates. A tie needs
+   *         the tie-breaking constraints as well, and a scenario not solved
+   *         before may need several scopes to be searched.
+   * @param scenario
+   *          The electoral scenario
+   * @param scope
+   *          The smallest scope to be searched
+   * @param upperBound
+   *          The scope above the largest to be searched
+   * @return The estimated cost, in arbitrary units
+   */
+  //@ requires 0 < scope && scope < upperBound;
+  //@ ensures 0 < \result;
+  public /*@ pure @*/ long estimateCost(
+      final /*@ non_null @*/ ElectoralScenario scenario, final int scope,
+      final int upperBound) {
+    final long candidates = Math.max(1, scenario.getNumberOfCandidates());
+    long cost = predictScope(scenario, scope, upperBound)
+      * candidates * candidates;
+    if (scenario.isTied()) {
+      cost *= 2;
+    }
+    if (scopeHistory.getScope(scenario) == 0) {
+      cost *= 2;
+    }
+    return cost;
+  }
+
+  /**
+   * Find a solution for a scenario at one scope.
+   * 
+   * @param scenario
+   *          The electoral scenario
+   * @param scope
+   *          The scope of the search
+   * @return The solution, or null if the scenario is not satisfiable
+   * @throws Err
+   */
+  //@ requires 0 < scope;
+  protected /*@ nullable @*/ A4Solution solve(
+      final /*@ non_null @*/ ElectoralScenario scenario, final int scope)
+      throws Err {
+    final A4Solution solution = findSolution(scenario, scope);
+    if (solution != null && solution.satisfiable()) {
+      return solution;
+    }
+    return null;
+  }
+  
+  /**
+   * Try the next few scopes at once, and take the smallest which is
+   * satisfiable.
+   * 
+   * @design Results are taken in order of scope, and a new scope is started
+   *         as each one is found unsatisfiable, so that there are always
+   *         <code>raceWidth</code> scopes running. Once any scope is found
+   *         satisfiable, no larger scope is started, and those already running
+   *         give up at the next stage of translation; a SAT solver which has
+   *         already started cannot be stopped, and its result is ignored.
+   * @param scenario
+   *          The electoral scenario
+   * @param scope
+   *          The first scope to try
+   * @param upperBound
+   *          The scope above the last to try
+   * @return The smallest satisfiable scope and its solution, or null
+   * @throws Err
+   */
+  protected /*@ nullable @*/ ScopedSolution race(
+      final /*@ non_null @*/ ElectoralScenario scenario, final int scope,
+      final int upperBound) throws Err {
+    final AtomicInteger smallestSatisfiable = new AtomicInteger(upperBound);
+    final List<Future<A4Solution>> attempts =
+      new ArrayList<Future<A4Solution>>();
+    int started = scope;
+    try {
+      for (int i = scope; i < upperBound; i++) {
+        while (started < upperBound && started < i + raceWidth
+            && started < smallestSatisfiable.get()) {
+          attempts.add(scopeExecutor.submit(new ScopeAttempt(scenario,
+            started, smallestSatisfiable)));
+          started++;
+        }
+        if (started <= i) {
+          break;
+        }
+        final A4Solution solution = await(attempts.get(i - scope));
+        if (solution != null) {
+          return new ScopedSolution(i, solution);
+        }
+      }
+      return null;
+    }
+    finally {
+      smallestSatisfiable.set(scope - 1);
+      for (Future<A4Solution> attempt : attempts) {
+        attempt.cancel(true);
+      }
+    }
+  }
+  
+  /**
+   * Wait for an attempt at one scope to finish.
+   * 
+   * @param attempt
+   *          The attempt
+   * @return The solution, or null if not satisfiable
+   * @throws Err
+   *          If the attempt failed, or this thread was interrupted
+   */
+  protected /*@ nullable @*/ A4Solution await(
+      final /*@ non_null @*/ Future<A4Solution> attempt) throws Err {
+    try {
+      return attempt.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ErrorFatal("Interrupted while racing scopes", e);
+    }
+    catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof Err) {
+        throw (Err) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new ErrorFatal(cause.toString(), cause);
+    }
+  }
+  
+  /**
+   * An attempt to solve a scenario at one scope, which gives up if a smaller
+   * scope is found to be satisfiable first.
+   */
+  protected class ScopeAttempt implements Callable<A4Solution> {
+    protected final /*@ non_null @*/ ElectoralScenario scenario;
+    protected final int scope;
+    protected final /*@ non_null @*/ AtomicInteger smallestSatisfiable;
+    
+    /**
+     * @param scenario
+     *          The electoral scenario
+     * @param scope
+     *          The scope to try
+     * @param smallestSatisfiable
+     *          The smallest scope found satisfiable so far, shared by every
+     *          attempt for the scenario
+     */
+    protected ScopeAttempt(final /*@ non_null @*/ ElectoralScenario scenario,
+        final int scope,
+        final /*@ non_null @*/ AtomicInteger smallestSatisfiable) {
+      this.scenario = scenario;
+      this.scope = scope;
+      this.smallestSatisfiable = smallestSatisfiable;
+    }
+    
+    public A4Solution call() throws Err {
+      if (isOvertaken()) {
+        return null;
+      }
+      final A4Reporter reporter = new RecordingReporter(scenario, scope) {
+        @Override
+        protected void checkCancelled() {
+          super.checkCancelled();
+          if (isOvertaken()) {
+            throw new CancellationException();
+          }
+        }
+      };
+      try {
+        final A4Solution solution = findSolution(scenario, scope, reporter);
+        if (solution != null && solution.satisfiable()) {
+          int smallest = smallestSatisfiable.get();
+          while (scope < smallest
+              && !smallestSatisfiable.compareAndSet(smallest, scope)) {
+            smallest = smallestSatisfiable.get();
+          }
+          return solution;
+        }
+        return null;
+      }
+      catch (CancellationException e) {
+        return null;
+      }
+      catch (Err e) {
+        // Alloy wraps the cancellation of a translation
+        if (isOvertaken()) {
+          return null;
+        }
+        throw e;
+      }
+    }
+    
+    /**
+     * @return Is there no need to try this scope any more?
+     */
+    protected boolean isOvertaken() {
+      return smallestSatisfiable.get() < scope;
+    }
+  }
+  
+  /**
+   * A satisfiable scope and the solution found there.
+   */
+  protected static class ScopedSolution {
+    protected final int scope;
+    protected final /*@ non_null @*/ A4Solution solution;
+    
+    protected ScopedSolution(final int scope,
+        final /*@ non_null @*/ A4Solution solution) {
+      this.scope = scope;
+      this.solution = solution;
+    }
+  }
+
   /**
    * @param scenario
    * @param scope
@@ -203,28 +670,228 @@ public class BallotBoxFactory {
   protected A4Solution findSolution(
       final /*@ non_null @*/ ElectoralScenario scenario, 
       final int scope) throws Err, ErrorSyntax {
-    final A4Reporter reporter = new A4Reporter();
+    return findSolution(scenario, scope,
+      new RecordingReporter(scenario, scope));
+  }
+  
+  /**
+   * Find the Alloy solution for an electoral scenario
+   * 
+   * @param scenario
+   *          The electoral scenario
+   * @param scope
+   *          The scope of the search
+   * @param reporter
+   *          Follows the progress of the search
+   * @return The Alloy solution
+   * @throws Err
+   * @throws ErrorSyntax
+   */
+  //@ requires 0 < scope;
+  protected A4Solution findSolution(
+      final /*@ non_null @*/ ElectoralScenario scenario, 
+      final int scope, final /*@ non_null @*/ A4Reporter reporter)
+      throws Err, ErrorSyntax {
     final A4Options options = new A4Options();
     // Its not clear if MiniSat is thread safe or not:
     // see http://alloy.mit.edu/community/node/1080
     options.solver = A4Options.SatSolver.SAT4J;
-    CompModule world;
+    final ModelParseEvent parseEvent = new ModelParseEvent();
+    parseEvent.begin();
+    final ParsedModel model;
     try {
-      world = CompUtil.parseEverything_fromFile(reporter, loaded, modelName);
+      model = getParsedModel(reporter);
     }
     catch (Exception e) {
       logger.severe (e.toString());
       
       return null;
     }
-    final Expr predicate =
-        CompUtil.parseOneExpression_fromString(world, scenario.toPredicate());
+    final Expr predicate = model.getPredicate(scenario.toPredicate());
+    if (parseEvent.shouldCommit()) {
+      parseEvent.scenario = scenario.toString();
+      parseEvent.scope = scope;
+      parseEvent.commit();
+    }
     logger.info("Trying scope " + scope + " for scenario " + scenario);
     final Command command =
         new Command(false, scope, BIT_WIDTH, scope, predicate);
     final A4Solution solution =
-        TranslateAlloyToKodkod.execute_command(reporter, world
-            .getAllReachableSigs(), command, options);
+        TranslateAlloyToKodkod.execute_command(reporter, model.sigs, command,
+            options);
     return solution;
   }
+  
+  /**
+   * Get the parsed model, parsing the model file only if it has not been
+   * parsed before or has changed since.
+   * 
+   * @param reporter
+   *          Receives any warnings from the parser
+   * @return The parsed model
+   * @throws Err
+   *          If the model cannot be parsed
+   */
+  protected /*@ non_null @*/ ParsedModel getParsedModel(
+      final A4Reporter reporter) throws Err {
+    final long lastModified = new File(modelName).lastModified();
+    synchronized (parsedModels) {
+      ParsedModel model = parsedModels.get(modelName);
+      if (model == null || model.lastModified != lastModified) {
+        logger.info("Parsing model " + modelName);
+        model = new ParsedModel(
+          CompUtil.parseEverything_fromFile(reporter, loaded, modelName),
+          lastModified);
+        parsedModels.put(modelName, model);
+      }
+      return model;
+    }
+  }
+  
+  /**
+   * An Alloy model parsed from a file, with the predicate of each scenario
+   * parsed against it.
+   * 
+   * @design Once parsed, the model is only read by each translation, so
+   *         that it can be shared between threads. Parsing a predicate
+   *         resolves it against the model, so predicates are parsed one at a
+   *         time while holding the model's lock.
+   */
+  protected static class ParsedModel {
+    
+    /** The parsed model */
+    protected final /*@ non_null @*/ CompModule world;
+    
+    /** All signatures reachable from the model */
+    protected final /*@ non_null @*/ Iterable<Sig> sigs;
+    
+    /** When the model file was last changed */
+    protected final long lastModified;
+    
+    /** Parsed predicates by text */
+    protected final /*@ non_null @*/ Map<String, Expr> predicates =
+      new ConcurrentHashMap<String, Expr>();
+    
+    /**
+     * @param world
+     *          The parsed model
+     * @param lastModified
+     *          When the model file was last changed
+     */
+    protected ParsedModel(final /*@ non_null @*/ CompModule world,
+        final long lastModified) {
+      this.world = world;
+      this.sigs = world.getAllReachableSigs();
+      this.lastModified = lastModified;
+    }
+    
+    /**
+     * Get a predicate over this model, parsing it only once.
+     * 
+     * @param text
+     *          The predicate
+     * @return The parsed predicate
+     * @throws Err
+     *          If the predicate cannot be parsed
+     */
+    protected /*@ non_null @*/ Expr getPredicate(
+        final /*@ non_null @*/ String text) throws Err {
+      Expr predicate = predicates.get(text);
+      if (predicate == null) {
+        synchronized (world) {
+          predicate = predicates.get(text);
+          if (predicate == null) {
+            predicate = CompUtil.parseOneExpression_fromString(world, text);
+            predicates.put(text, predicate);
+          }
+        }
+      }
+      return predicate;
+    }
+  }
+  
+  /**
+   * Reports the translation and solving of a scenario at one scope to the
+   * flight recorder, as Alloy reaches each stage.
+   */
+  protected static class RecordingReporter extends A4Reporter {
+    
+    protected final /*@ non_null @*/ ElectoralScenario scenario;
+    protected final int scope;
+    protected /*@ nullable @*/ TranslationEvent translation;
+    protected /*@ nullable @*/ SolveEvent solving;
+    
+    /**
+     * @param scenario
+     *          The electoral scenario being searched for
+     * @param scope
+     *          The scope of the search
+     */
+    public RecordingReporter(final /*@ non_null @*/ ElectoralScenario scenario,
+        final int scope) {
+      this.scenario = scenario;
+      this.scope = scope;
+    }
+    
+    @Override
+    public void translate(final String solver, final int bitwidth,
+        final int maxseq, final int skolemDepth, final int symmetry) {
+      checkCancelled();
+      translation = new TranslationEvent();
+      translation.begin();
+    }
+    
+    @Override
+    public void solve(final int primaryVars, final int totalVars,
+        final int clauses) {
+      checkCancelled();
+      if (translation != null && translation.shouldCommit()) {
+        translation.scenario = scenario.toString();
+        translation.scope = scope;
+        translation.variables = totalVars;
+        translation.clauses = clauses;
+        translation.commit();
+      }
+      translation = null;
+      solving = new SolveEvent();
+      solving.begin();
+    }
+    
+    @Override
+    public void resultSAT(final Object command, final long solvingTime,
+        final Object solution) {
+      finishSolving(true);
+    }
+    
+    @Override
+    public void resultUNSAT(final Object command, final long solvingTime,
+        final Object solution) {
+      finishSolving(false);
+    }
+    
+    /**
+     * Give up the search if it is no longer needed, by throwing
+     * <code>CancellationException</code>, as when this thread has been
+     * interrupted.
+     */
+    protected void checkCancelled() {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new CancellationException();
+      }
+    }
+    
+    /**
+     * @param satisfiable
+     *          Whether the solver found a ballot box for the scenario
+     */
+    protected void finishSolving(final boolean satisfiable) {
+      if (solving != null && solving.shouldCommit()) {
+        solving.scenario = scenario.toString();
+        solving.scope = scope;
+        solving.satisfiable = satisfiable;
+        solving.commit();
+      }
+      solving = null;
+    }
+  }
 }
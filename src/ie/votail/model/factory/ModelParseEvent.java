@@ -0,0 +1,25 @@
+/**
+ * Flight recorder event spanning the parsing of the Alloy model.
+ */
+
+package ie.votail.model.factory;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ie.votail.ModelParse")
+@Label("Model Parse")
+@Category({ "Votail", "Ballot Box Factory" })
+@Description("Finding the parsed Alloy model and predicate for a scenario, "
+    + "parsing them if not already parsed")
+final class ModelParseEvent extends Event {
+
+  @Label("Scenario")
+  String scenario;
+
+  @Label("Scope")
+  int scope;
+}
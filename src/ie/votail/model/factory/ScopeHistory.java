@@ -0,0 +1,126 @@
+/**
+ * The scope at which each electoral scenario was last solved, so that later
+ * runs can start searching there.
+ */
+
+package ie.votail.model.factory;
+
+import ie.votail.model.ElectoralScenario;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ScopeHistory {
+  
+  /** Scope found for each scenario, by key */
+  protected final /*@ non_null @*/ Map<String, Integer> scopes =
+    new ConcurrentHashMap<String, Integer>();
+  
+  /**
+   * Get the scope at which a scenario was solved.
+   * 
+   * @param scenario
+   *          The electoral scenario
+   * @return The scope, or zero if the scenario has not been solved
+   */
+  //@ ensures 0 <= \result;
+  public /*@ pure @*/ int getScope(
+      final /*@ non_null @*/ ElectoralScenario scenario) {
+    final Integer scope = scopes.get(key(scenario));
+    return (scope == null) ? 0 : scope.intValue();
+  }
+  
+  /**
+   * Record the scope at which a scenario was solved.
+   * 
+   * @param scenario
+   *          The electoral scenario
+   * @param scope
+   *          The scope at which a ballot box was found
+   */
+  //@ requires 0 < scope;
+  public void record(final /*@ non_null @*/ ElectoralScenario scenario,
+      final int scope) {
+    scopes.put(key(scenario), Integer.valueOf(scope));
+  }
+  
+  /**
+   * @return The number of scenarios recorded
+   */
+  public /*@ pure @*/ int size() {
+    return scopes.size();
+  }
+  
+  /**
+   * Read scopes recorded by an earlier run, if there are any.
+   * 
+   * @param file
+   *          The file written by {@link #save(File)}
+   * @throws IOException
+   *          If the file exists but cannot be read
+   */
+  public void load(final /*@ non_null @*/ File file) throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+    final Properties properties = new Properties();
+    final InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    }
+    finally {
+      in.close();
+    }
+    for (String key : properties.stringPropertyNames()) {
+      try {
+        scopes.put(key, Integer.valueOf(properties.getProperty(key)));
+      }
+      catch (NumberFormatException e) {
+        // Ignore a damaged entry; the scenario will be searched again
+      }
+    }
+  }
+  
+  /**
+   * Write the recorded scopes for later runs.
+   * 
+   * @param file
+   *          The file to write
+   * @throws IOException
+   *          If the file cannot be written
+   */
+  public void save(final /*@ non_null @*/ File file) throws IOException {
+    final Properties properties = new Properties();
+    for (Map.Entry<String, Integer> entry : scopes.entrySet()) {
+      properties.setProperty(entry.getKey(), entry.getValue().toString());
+    }
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      properties.store(out, "Scope at which each scenario was solved");
+    }
+    finally {
+      out.close();
+    }
+  }
+  
+  /**
+   * Get the key of a scenario, which is the same for equivalent scenarios.
+   * 
+   * @param scenario
+   *          The electoral scenario
+   * @return The key
+   */
+  protected /*@ pure non_null @*/ String key(
+      final /*@ non_null @*/ ElectoralScenario scenario) {
+    return scenario.getMethod()
+      + (scenario.isByeElection() ? " bye-election " : " ")
+      + scenario.canonical().toString();
+  }
+}
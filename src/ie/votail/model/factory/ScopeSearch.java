@@ -0,0 +1,38 @@
+/**
+ * Order in which the Alloy scopes are tried when looking for a ballot box.
+ */
+
+package ie.votail.model.factory;
+
+public enum ScopeSearch {
+  
+  /**
+   * Try each scope in turn, from the initial scope upwards, and so find the
+   * smallest scope at which the scenario is satisfiable.
+   */
+  LINEAR,
+  
+  /**
+   * Try scopes at doubling distances above the initial scope until one is
+   * satisfiable, then bisect between it and the last unsatisfiable scope, so
+   * still finding the smallest scope in fewer calls to the SAT solver.
+   */
+  GALLOPING,
+  
+  /**
+   * Try first the scope at which the same scenario was solved before, or else
+   * a scope predicted from the size of the scenario, and gallop downwards
+   * from there if it is satisfiable, or upwards if not, so still finding the
+   * smallest scope; when the prediction is right, only one more scope is
+   * tried to confirm it.
+   */
+  PREDICTED,
+  
+  /**
+   * Try several consecutive scopes at once on other threads, taking the
+   * smallest which is satisfiable and abandoning the larger ones.
+   * 
+   * @see BallotBoxFactory#setScopeRacing
+   */
+  RACING
+}
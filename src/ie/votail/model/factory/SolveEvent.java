@@ -0,0 +1,27 @@
+/**
+ * Flight recorder event spanning one run of the SAT solver.
+ */
+
+package ie.votail.model.factory;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ie.votail.Solve")
+@Label("SAT Solve")
+@Category({ "Votail", "Ballot Box Factory" })
+@Description("Solving the SAT problem for a scenario at one scope")
+final class SolveEvent extends Event {
+
+  @Label("Scenario")
+  String scenario;
+
+  @Label("Scope")
+  int scope;
+
+  @Label("Satisfiable")
+  boolean satisfiable;
+}
@@ -0,0 +1,32 @@
+/**
+ * Flight recorder event spanning the translation of an Alloy command into
+ * a SAT problem.
+ */
+
+package ie.votail.model.factory;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ie.votail.Translation")
+@Label("Translation")
+@Category({ "Votail", "Ballot Box Factory" })
+@Description("Translating the model for a scenario at one scope into a SAT "
+    + "problem")
+final class TranslationEvent extends Event {
+
+  @Label("Scenario")
+  String scenario;
+
+  @Label("Scope")
+  int scope;
+
+  @Label("Variables")
+  int variables;
+
+  @Label("Clauses")
+  int clauses;
+}